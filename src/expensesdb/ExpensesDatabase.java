@@ -5,7 +5,10 @@ import hdb.table.relation.Relation;
 import hdb.table.column.Column;
 import hdb.HarambException;
 import hdb.table.row.Row;
+import java.util.ArrayList;
 import java.util.Arrays;
+import hdb.table.Transaction;
+import hdb.table.Snapshot;
 import hdb.table.Table;
 import java.util.Comparator;
 import structures.list.List;
@@ -210,24 +213,26 @@ public final class ExpensesDatabase {
 	* @param	invoiceUID	The invoice number
 	*/
 	public static void updateInvoicePayment(Integer invoiceUID) {
-		List<Row> relation = invoices.getRowWithRelation(invoiceUID, db);
-		Row invoice = relation.get(0);
 		Column itemsCol = invoices.getColumn("Items");
 		Column expenseCol = items.getColumn("Expense");
-		String[] itemsNames = invoice.get(itemsCol);
-		ArrayLinearList<String> remainingItems = new ArrayLinearList<>();
+		// the payment is computed again if the invoice is changed meanwhile
+		invoices.compute(invoiceUID, invoice -> {
+			String[] itemsNames = invoice.get(itemsCol);
+			ArrayLinearList<String> remainingItems = new ArrayLinearList<>();
 
-		int newTotal = 0;
-		for (String itemName : itemsNames) {
-			if (itemName != null) {
-				remainingItems.add(itemName);
-				Integer itemExpense = items.getRow(itemName).get(expenseCol);
-				newTotal += itemExpense;
+			int newTotal = 0;
+			ArrayList<Row> itemRows = items.getRows(Arrays.asList(itemsNames));
+			for (int i = 0; i < itemsNames.length; i++) {
+				if (itemRows.get(i) != null) {
+					remainingItems.add(itemsNames[i]);
+					Integer itemExpense = itemRows.get(i).get(expenseCol);
+					newTotal += itemExpense;
+				}
 			}
-		}
-		String[] newItemsNames = new String[remainingItems.size()];
-		remainingItems.copyToArray(newItemsNames);
-		invoice.set(invoices.getColumn("Payment"), newTotal).set(itemsCol, newItemsNames);
+			String[] newItemsNames = new String[remainingItems.size()];
+			remainingItems.copyToArray(newItemsNames);
+			invoice.set(invoices.getColumn("Payment"), newTotal).set(itemsCol, newItemsNames);
+		});
 	}
 
 	/**
@@ -296,26 +301,34 @@ public final class ExpensesDatabase {
 	*	@throws HarambException		If there is some error reading or writing to the database
 	*/
 	public static void addInvoice(String userName, Integer invoiceUID, String[] itemsNames) throws HarambException {
-		Row userRow = users.getRow(userName);
-		if (userRow == null) {
-			throw new RuntimeException("No such user: " + userName);
-		}
-		int total = 0;
-		for (String item : itemsNames) {
-			Integer itemExpense = items.getRow(item).get(items.getColumn("Expense"));
-			total += itemExpense;
-		}
-		invoices.addRow(invoiceUID).set(invoices.getColumn("Payment"), total)
-		.set(invoices.getColumn("Items"), itemsNames);
+		// the invoice and the invoices of the user are committed together
+		try (Transaction transaction = db.beginTransaction()) {
+			if (transaction.getRow(users, userName) == null) {
+				throw new RuntimeException("No such user: " + userName);
+			}
+			Row userRow = transaction.updateRow(users, userName);
+			int total = 0;
+			for (String item : itemsNames) {
+				Row itemRow = transaction.getRow(items, item);
+				if (itemRow == null) {
+					throw new HarambException("No such row: " + item);
+				}
+				Integer itemExpense = itemRow.get(items.getColumn("Expense"));
+				total += itemExpense;
+			}
+			transaction.addRow(invoices, invoiceUID).set(invoices.getColumn("Payment"), total)
+			.set(invoices.getColumn("Items"), itemsNames);
 
-		Integer[] currentInvoices = userRow.get(users.getColumn("Invoices"));
-		if (currentInvoices != null) {
-			Integer[] newInvoices = new Integer[currentInvoices.length + 1];
-			System.arraycopy(currentInvoices, 0, newInvoices, 0, currentInvoices.length);
-			newInvoices[currentInvoices.length] = invoiceUID;
-			userRow.set(users.getColumn("Invoices"), newInvoices);
-		} else {
-			userRow.set(users.getColumn("Invoices"), new Integer[] {invoiceUID});
+			Integer[] currentInvoices = userRow.get(users.getColumn("Invoices"));
+			if (currentInvoices != null) {
+				Integer[] newInvoices = new Integer[currentInvoices.length + 1];
+				System.arraycopy(currentInvoices, 0, newInvoices, 0, currentInvoices.length);
+				newInvoices[currentInvoices.length] = invoiceUID;
+				userRow.set(users.getColumn("Invoices"), newInvoices);
+			} else {
+				userRow.set(users.getColumn("Invoices"), new Integer[] {invoiceUID});
+			}
+			transaction.commit();
 		}
 	}
 
@@ -327,12 +340,12 @@ public final class ExpensesDatabase {
 	*/
 	public static int getEarnings() {
 		Column paymentCol = invoices.getColumn("Payment");
-		int total = 0;
-		for (Integer invoice : invoices) {
-			Integer payment = invoices.getRow(invoice).get(paymentCol);
-			total += payment;
+		// the invoices are read as they were when the snapshot was taken
+		try (Snapshot snapshot = db.snapshot()) {
+			return invoices.parallelStream(snapshot)
+				.mapToInt(invoice -> invoice.getValue().<Integer>get(paymentCol))
+				.sum();
 		}
-		return total;
 	}
 
 	/**
@@ -1,19 +1,32 @@
 package hdb;
 
 import structures.graph.unweighted.directed.AdjacencyList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import hdb.table.relation.Relation;
 import structures.list.ArrayLinearList;
 import hdb.table.column.Column;
+import structures.node.KeyValueNode;
+import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.BufferedInputStream;
 import java.io.ObjectOutputStream;
 import structures.dict.LinkedDict;
 import java.io.ObjectInputStream;
 import java.io.InputStreamReader;
+import java.util.concurrent.Future;
 import java.io.FileOutputStream;
 import java.io.FileInputStream;
 import hdb.table.row.Row;
 import java.io.BufferedReader;
 import java.util.Collections;
+import hdb.log.WriteAheadLog;
+import hdb.log.LogRecord;
+import java.util.ArrayList;
+import hdb.table.Transaction;
+import hdb.table.Versions;
+import hdb.table.Snapshot;
 import hdb.table.Table;
 import java.io.Serializable;
 import structures.list.List;
@@ -45,6 +58,10 @@ import java.io.File;
 *
 * Make sure you call the save method everytime you are done working with the database.
 *
+* Every change of the tables is also appended to a write-ahead log inside the
+* database directory, see WriteAheadLog, which is replayed when the database is
+* loaded and deleted by the checkpoints.
+*
 * <p>This class is a member of the
 * <a href="{@docRoot}/index.html" target="_top">
 * HarambeDB database framework</a>.
@@ -90,6 +107,63 @@ public class Database implements Serializable {
   * The name of the database
   */
   protected final String dbName;
+
+  /**
+  * The content of the database file when it was last read or written, the file
+  * is only written again if the database object has changed
+  */
+  private transient byte[] savedState;
+
+  /**
+  * The default time in milliseconds between two checkpoints
+  */
+  public transient static final long DEFAULT_CHECKPOINT_INTERVAL = 60 * 1000;
+
+  /**
+  * The default size in bytes of the log that triggers a checkpoint
+  */
+  public transient static final long DEFAULT_CHECKPOINT_BYTES = 64 * 1024 * 1024;
+
+  /**
+  * The log the changes of the tables are written to
+  */
+  private transient WriteAheadLog log;
+
+  /**
+  * The thread that makes the background checkpoints
+  */
+  private transient Thread checkpointer;
+
+  /**
+  * The time in milliseconds between two checkpoints, 0 to only make them when the log is too big
+  */
+  private transient volatile long checkpointInterval;
+
+  /**
+  * The size in bytes of the log that triggers a checkpoint, 0 to only make them periodically
+  */
+  private transient volatile long checkpointBytes;
+
+  /**
+  * The error of the last background checkpoint if it failed, it is thrown by the
+  * next call to save or close
+  */
+  private transient volatile HarambException checkpointFailure;
+
+  /**
+  * The versions the changes of the tables are stamped with
+  */
+  private transient Versions versions;
+
+  /**
+  * The shutdown hook that saves the database when the virtual machine exits
+  */
+  private transient Thread saveHook;
+
+  /**
+  * If the database has been closed
+  */
+  private transient volatile boolean closed;
   private static final long serialVersionUID = 14L;
 
   /**
@@ -119,17 +193,136 @@ public class Database implements Serializable {
     tableMap = new LinkedDict<>();
     tables = new ArrayLinearList<>();
     relations = new AdjacencyList(0);
+    versions = new Versions();
 
+    openLog(1);
     createSaveHook();
   }
 
+  /**
+  * Opens the log of the database and starts the background checkpoints
+  * @param  firstLsn  The sequence number of the first record
+  */
+  private void openLog(long firstLsn) {
+    log = new WriteAheadLog(this.path, firstLsn);
+    checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    checkpointBytes = DEFAULT_CHECKPOINT_BYTES;
+    checkpointer = new Thread(this::checkpointLoop, "HarambeDB checkpointer " + dbName);
+    checkpointer.setDaemon(true);
+    checkpointer.start();
+  }
+
+  /**
+  * The loop of the checkpointer thread, it makes a checkpoint when the log has
+  * grown past the checkpoint size or when the checkpoint interval has elapsed
+  * and something has been logged
+  */
+  private void checkpointLoop() {
+    long last = System.currentTimeMillis();
+    while (true) {
+      try {
+        Thread.sleep(Math.max(1, Math.min(1000, checkpointInterval > 0 ? checkpointInterval : 1000)));
+      } catch (InterruptedException e) {
+        return;
+      }
+      long logged = log.segmentBytes();
+      long elapsed = System.currentTimeMillis() - last;
+      if ((checkpointBytes > 0 && logged >= checkpointBytes)
+        || (checkpointInterval > 0 && elapsed >= checkpointInterval && logged > 0)) {
+        try {
+          checkpoint();
+          checkpointFailure = null;
+        } catch (HarambException e) {
+          // the log is kept, the next checkpoint tries again
+          checkpointFailure = e;
+        }
+        last = System.currentTimeMillis();
+      }
+    }
+  }
+
+  /**
+  * Changes how the changes are forced to the disk, the changes made in a commit
+  * window are written together with a single fsync
+  * @param  windowMillis  The time in milliseconds the changes are buffered before they are forced to the disk
+  * @param  synchronous   If every change waits until it is on the disk, otherwise a crash loses at most a commit window
+  */
+  public void setCommitPolicy(long windowMillis, boolean synchronous) {
+    log.setCommitPolicy(windowMillis, synchronous);
+  }
+
+  /**
+  * Changes when the background checkpoints are made
+  * @param  intervalMillis    The time in milliseconds between two checkpoints, 0 to only make them when the log is too big
+  * @param  maxLogBytes       The size in bytes of the log that triggers a checkpoint, 0 to only make them periodically
+  */
+  public void setCheckpointPolicy(long intervalMillis, long maxLogBytes) {
+    this.checkpointInterval = Math.max(intervalMillis, 0);
+    this.checkpointBytes = Math.max(maxLogBytes, 0);
+  }
+
+  /**
+  * Writes the changes in the log to the table and partition files and deletes
+  * the log written before the checkpoint started, once the files are forced to
+  * the disk. The tables can be modified while the checkpoint is made, those
+  * changes are kept in the log.
+  * @throws HarambException If there is an error writing a file
+  */
+  public synchronized void checkpoint() throws HarambException {
+    int segment = log.roll();
+    // dropped tables leave a null in the tables list
+    for (int i = 0; i < tables.size(); i++) {
+      if (tables.get(i) != null) {
+        tables.get(i).save();
+      }
+    }
+    saveDbObject();
+    log.checkpoint(segment);
+  }
+
+  /**
+  * Makes a checkpoint and closes the log of the database, the database must
+  * not be used after this call
+  * @throws HarambException If there is an error writing a file or the last background checkpoint failed
+  */
+  public synchronized void close() throws HarambException {
+    checkpoint();
+    closed = true;
+    try {
+      Runtime.getRuntime().removeShutdownHook(saveHook);
+    } catch (IllegalStateException e) {
+      // the virtual machine is exiting, the hook sees the database is closed
+    }
+    checkpointer.interrupt();
+    log.close();
+    checkpointFailed();
+  }
+
+  /**
+  * Throws the error of the last background checkpoint if it failed, once
+  * @throws HarambException If the last background checkpoint failed
+  */
+  private void checkpointFailed() throws HarambException {
+    HarambException failure = checkpointFailure;
+    if (failure != null) {
+      checkpointFailure = null;
+      throw failure;
+    }
+  }
+
+  /**
+  * Adds the shutdown hook that saves the database unless it is closed before
+  */
   private void createSaveHook() {
     Database self = this;
-    Runtime.getRuntime().addShutdownHook(new Thread() {
+    saveHook = new Thread() {
       public void run() {
-        self.save();
+        if (!self.closed) {
+          self.save();
+        }
       }
-    });
+    };
+    Runtime.getRuntime().addShutdownHook(saveHook);
   }
 
   /**
@@ -142,11 +335,17 @@ public class Database implements Serializable {
   * @throws HarambException     If there is an error creating the new Table
   * @return                     The new table
   */
-  public <T extends Comparable<? super T>> Table<T> createTable(String tableName, Class<T> primaryKeyType, String primaryKeyName) throws HarambException {
+  public synchronized <T extends Comparable<? super T>> Table<T> createTable(String tableName, Class<T> primaryKeyType, String primaryKeyName) throws HarambException {
     try {
       Table<T> t = new Table<T>(this.path, tableName, primaryKeyType, primaryKeyName);
       tableMap.add(tableName, tables.size());
       tables.add(t);
+      t.setLog(log);
+      t.setVersions(versions);
+      // the log may still hold the records of a dropped table with the same name
+      t.setLogPosition(log.lastLsn());
+      // the log only knows the tables listed in the database file
+      saveDbObject();
       return t;
     } catch (HarambException he) {
       saveDbObject();
@@ -171,12 +370,48 @@ public class Database implements Serializable {
     return (Table<T>) t;
   }
 
+  /**
+  * Loads rows sorted by key into a table, see Table.bulkLoad
+  * @param  tableName         The name of the table
+  * @param  rows              The pairs of primary keys and rows, in ascending order of the keys
+  * @param  <T>               The data type of the primary key of the table
+  * @throws HarambException   If the table does not exist or the rows can't be loaded
+  * @return                   The number of loaded rows
+  */
+  @SuppressWarnings("unchecked")
+  public <T extends Comparable<? super T>> long bulkLoad(String tableName, Iterable<? extends KeyValueNode<T, ? extends Row>> rows) throws HarambException {
+    Integer index = tableMap.getValue(tableName);
+    if (index == null || tables.get(index) == null) {
+      throw new HarambException("Table " + tableName + " does not exist");
+    }
+    return ((Table<T>) tables.get(index)).bulkLoad(rows);
+  }
+
+  /**
+  * Takes a snapshot of every table of the database, the rows read through it
+  * are the rows as they were when it was taken. The snapshot must be closed
+  * when it is no longer needed, see Snapshot.
+  * @return The open snapshot
+  */
+  public Snapshot snapshot() {
+    return versions.snapshot();
+  }
+
+  /**
+  * Begins a transaction over the tables of the database, its changes are
+  * buffered until it is committed, see Transaction
+  * @return The new transaction
+  */
+  public Transaction beginTransaction() {
+    return versions.transaction();
+  }
+
   /**
   * Deletes the table object and removes recursevely the directory of the table
   * @param  tableName     The name of the table to drop
   * @throws IOException   If there is an error deleting the files
   */
-  public void dropTable(String tableName) throws IOException {
+  public synchronized void dropTable(String tableName) throws IOException {
     // erase table directory recursevely
     Path dirPath = Paths.get( this.path + tableName );
     Files.walk(dirPath).map( Path::toFile )
@@ -184,6 +419,7 @@ public class Database implements Serializable {
       .forEach( File::delete );
 
     // remove table from tables and tableMap
+    tables.get(tableMap.getValue(tableName)).setLog(null);
     tables.set(tableMap.getValue(tableName), null);
     tableMap.remove(tableName);
     saveDbObject();
@@ -272,51 +508,129 @@ public class Database implements Serializable {
   }
 
   /**
-  * Retrieves a database stored in the current project
+  * Retrieves a database stored in the current project and replays the log left
+  * by the previous session. Every table stores the sequence number of the last
+  * change in its file, so only the later changes are applied, and the tables
+  * replay their changes in parallel. A checkpoint is made after the recovery.
   * @param  dbName            The name of the database to load
   * @throws HarambException   If there is an error reading HarambeDB files or if the database does not exist
   * @return                   The loaded database object
   */
   public static final Database load(final String dbName) throws HarambException {
-    try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(
-      new FileInputStream(rootDir + dbName + '/' + dbName + extension)))) {
+    try {
+      byte[] state = Files.readAllBytes(Paths.get(rootDir + dbName + '/' + dbName + extension));
+      try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(state))) {
         Database db = (Database) ois.readObject();
-        // table map is not being loaded
-        int size = db.tableMap.getSize();
+        db.savedState = state;
+        // table map is not being loaded, dropped tables leave their index unused
+        int size = 0;
+        for (String tableName : db.tableMap.keys()) {
+          size = Math.max(size, db.tableMap.getValue(tableName) + 1);
+        }
         db.tables = new ArrayLinearList<Table<?>>(size, size * 2 + 5);
+        db.versions = new Versions();
+        ArrayList<LogRecord> records = WriteAheadLog.read(db.path);
+        long lastLsn = records.isEmpty() ? 0 : records.get(records.size() - 1).lsn();
         for (String tableName : db.tableMap.keys()) {
-          db.tables.set(db.tableMap.getValue(tableName), Table.load(db.path, tableName));
+          Table<?> table = Table.load(db.path, tableName);
+          db.tables.set(db.tableMap.getValue(tableName), table);
+          lastLsn = Math.max(lastLsn, table.getLogPosition());
+        }
+        db.openLog(lastLsn + 1);
+        if (!records.isEmpty()) {
+          db.recover(records);
+        }
+        for (String tableName : db.tableMap.keys()) {
+          db.tables.get(db.tableMap.getValue(tableName)).setLog(db.log);
+          db.tables.get(db.tableMap.getValue(tableName)).setVersions(db.versions);
+        }
+        if (!records.isEmpty()) {
+          db.checkpoint();
         }
         db.createSaveHook();
         return db;
+      }
     } catch (Exception e) {
       throw new HarambException(e);
     }
   }
 
   /**
-  * Saves the database file
+  * Replays the log left by the previous session, the records of every table
+  * are replayed by a different thread
+  * @param  records           The records of the log in the order they were appended
+  * @throws HarambException   If a table cannot replay its records
+  */
+  private void recover(ArrayList<LogRecord> records) throws HarambException {
+    LinkedDict<String, ArrayList<LogRecord>> byTable = new LinkedDict<>();
+    ArrayLinearList<String> names = new ArrayLinearList<>();
+    for (LogRecord record : records) {
+      // the records of dropped tables are ignored
+      if (tableMap.getValue(record.table()) == null) {
+        continue;
+      }
+      ArrayList<LogRecord> tableRecords = byTable.getValue(record.table());
+      if (tableRecords == null) {
+        tableRecords = new ArrayList<>();
+        byTable.add(record.table(), tableRecords);
+        names.add(record.table());
+      }
+      tableRecords.add(record);
+    }
+    if (names.empty()) {
+      return;
+    }
+
+    int threads = Math.min(names.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      ArrayList<Future<Integer>> replays = new ArrayList<>();
+      for (String name : names) {
+        Table<?> table = tables.get(tableMap.getValue(name));
+        ArrayList<LogRecord> tableRecords = byTable.getValue(name);
+        replays.add(executor.submit(() -> table.replay(tableRecords)));
+      }
+      for (Future<Integer> replay : replays) {
+        replay.get();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof HarambException) {
+        throw (HarambException) e.getCause();
+      }
+      throw new HarambException(e);
+    } catch (InterruptedException e) {
+      throw new HarambException(e);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+  * Saves the database file if it has changed since it was loaded or saved
   * @throws HarambException If there is an error writing a file
   */
   public void saveDbObject() throws HarambException {
-    try (ObjectOutputStream oos = new ObjectOutputStream(
-      new FileOutputStream(this.path + this.dbName + extension))) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
       oos.writeObject(this);
     } catch (Exception e) {
       throw new HarambException("Could not save database");
     }
+    byte[] state = bytes.toByteArray();
+    if (!Arrays.equals(state, savedState)) {
+      WriteAheadLog.writeDurably(this.path + this.dbName + extension, state);
+      savedState = state;
+    }
   }
 
   /**
-  * Saves the database file and all the table files, you should call this method
-  * every time you stop using the db, otherwise you'll lose the newly created data
-  * @throws HarambException If there is an error writing a file
+  * Saves the database file and all the table files by making a checkpoint, the
+  * changes are in the log before this call but saving the database keeps the
+  * log short. Only the partitions and files that have changed are written.
+  * @throws HarambException If there is an error writing a file or the last background checkpoint failed
   */
   public void save() throws HarambException {
-    for (Table<?> table : tables) {
-      table.save();
-    }
-
-    saveDbObject();
+    checkpoint();
+    checkpointFailed();
   }
 }
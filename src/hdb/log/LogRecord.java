@@ -0,0 +1,180 @@
+package hdb.log;
+
+/**
+* A record read from the write-ahead log of a database. Every record has the
+* sequence number it was given when it was appended, its type and the name of
+* the table it belongs to, the other fields depend on the type:
+*
+* <pre>
+* ADD      key
+* REMOVE   key
+* SET      key, column index and the new value, null if the field was removed
+* COLUMN   name and class name of the new column
+* SPLIT    minimum key of the new partition, its ID and the ID of the divided partition
+* MERGE    key of the partition in the directory, its ID and the ID of the partition
+*          its rows were moved to, -1 if it was empty
+* </pre>
+*
+* A TRANSACTION record holds the ADD, REMOVE and SET records of a committed
+* transaction, it is never returned itself: its records are returned instead,
+* all of them with the sequence number of the transaction.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     WriteAheadLog
+*/
+public class LogRecord {
+
+  /**
+  * Types of the records
+  */
+  public static final byte ADD = 1, REMOVE = 2, SET = 3, COLUMN = 4, SPLIT = 5, MERGE = 6, TRANSACTION = 7;
+
+  /**
+  * The sequence number of the record
+  */
+  private final long lsn;
+
+  /**
+  * The type of the record
+  */
+  private final byte type;
+
+  /**
+  * The name of the table
+  */
+  private final String table;
+
+  /**
+  * The primary key of the row or the key of the partition in the directory
+  */
+  private final Object key;
+
+  /**
+  * The index of the column of a SET record
+  */
+  private final int column;
+
+  /**
+  * The new value of a SET record
+  */
+  private final Object value;
+
+  /**
+  * The name of the column of a COLUMN record
+  */
+  private final String name;
+
+  /**
+  * The class name of the column of a COLUMN record
+  */
+  private final String className;
+
+  /**
+  * The ID of the new or merged partition
+  */
+  private final int partition;
+
+  /**
+  * The ID of the divided partition, or the partition the rows were merged into
+  */
+  private final int other;
+
+  LogRecord(long lsn, byte type, String table, Object key, int column, Object value,
+  String name, String className, int partition, int other) {
+    this.lsn = lsn;
+    this.type = type;
+    this.table = table;
+    this.key = key;
+    this.column = column;
+    this.value = value;
+    this.name = name;
+    this.className = className;
+    this.partition = partition;
+    this.other = other;
+  }
+
+  /**
+  * {@link LogRecord#lsn}
+  * @return The sequence number of the record
+  */
+  public long lsn() {
+    return lsn;
+  }
+
+  /**
+  * {@link LogRecord#type}
+  * @return The type of the record
+  */
+  public byte type() {
+    return type;
+  }
+
+  /**
+  * {@link LogRecord#table}
+  * @return The name of the table
+  */
+  public String table() {
+    return table;
+  }
+
+  /**
+  * {@link LogRecord#key}
+  * @return The primary key of the row or the key of the partition in the directory
+  */
+  public Object key() {
+    return key;
+  }
+
+  /**
+  * {@link LogRecord#column}
+  * @return The index of the column of a SET record
+  */
+  public int column() {
+    return column;
+  }
+
+  /**
+  * {@link LogRecord#value}
+  * @return The new value of a SET record
+  */
+  public Object value() {
+    return value;
+  }
+
+  /**
+  * {@link LogRecord#name}
+  * @return The name of the column of a COLUMN record
+  */
+  public String name() {
+    return name;
+  }
+
+  /**
+  * {@link LogRecord#className}
+  * @return The class name of the column of a COLUMN record
+  */
+  public String className() {
+    return className;
+  }
+
+  /**
+  * {@link LogRecord#partition}
+  * @return The ID of the new or merged partition
+  */
+  public int partition() {
+    return partition;
+  }
+
+  /**
+  * {@link LogRecord#other}
+  * @return The ID of the divided partition, or the partition the rows were merged into
+  */
+  public int other() {
+    return other;
+  }
+}
@@ -0,0 +1,890 @@
+package hdb.log;
+
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.nio.channels.FileChannel;
+import java.io.DataOutputStream;
+import java.io.DataInputStream;
+import hdb.table.column.ColumnType;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.Path;
+import hdb.HarambException;
+import java.util.zip.CRC32;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Arrays;
+import java.io.File;
+
+/**
+* An append-only write-ahead log of the mutations of the tables of a database.
+* Every addRow, removeRow and change of a field of a row is appended to the
+* log as a record, so the changes made since the last checkpoint can be
+* applied again after a crash.
+*
+* The log is divided in segments, the files log0.hblog, log1.hblog, etc. inside
+* the database directory. A checkpoint starts a new segment, saves the tables
+* and then deletes the older segments, so the log only holds the changes that
+* may not be in the partition files yet. A segment file is only created when
+* the first record is appended to it, so a session that does not modify the
+* database writes nothing.
+*
+* Records are not written to the file one by one: they are appended to a buffer
+* and a background thread writes and forces the buffer to the disk once per
+* commit window, so concurrent writers share a single fsync (group commit). In
+* the synchronous mode every mutation waits until its record is on the disk,
+* otherwise a crash loses at most the last commit window.
+*
+* Every record is stored as its length, the CRC32 of its body and the body,
+* which starts with the log sequence number and the type of the record. Values
+* and keys are encoded with ColumnType. Replaying a record is idempotent, so a
+* record that is also in the partition files can be applied again.
+*
+* The changes of a transaction are appended as a single TRANSACTION record
+* built with a Batch, so after a crash they are replayed all or none. read()
+* returns them as records of their own, with the sequence number of the
+* transaction.
+*
+* The sequence numbers keep growing across sessions, the database opens the log
+* after the last number stored in its tables. A record is found again by read()
+* until the first torn or corrupted record of its segment, which is where the
+* log was cut by a crash.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     hdb.Database
+* @see     ColumnType
+*/
+public class WriteAheadLog {
+
+  /**
+  * The extension of the log segment files
+  */
+  public static final String extension = ".hblog";
+
+  /**
+  * The prefix of the log segment file name
+  */
+  public static final String prefix = "log";
+
+  /**
+  * The default commit window in milliseconds
+  */
+  public static final long DEFAULT_COMMIT_WINDOW = 10;
+
+  /**
+  * The path to the database directory
+  */
+  private final String dbPath;
+
+  /**
+  * The segments written by this log, and the ones found when it was opened,
+  * that have not been deleted by a checkpoint
+  */
+  private final ArrayList<Integer> segments;
+
+  /**
+  * The ID of the segment being written
+  */
+  private int segment;
+
+  /**
+  * The channel of the segment being written, null until the first record of
+  * the segment is written
+  */
+  private FileChannel channel;
+
+  /**
+  * The records that have not been written to the file yet
+  */
+  private ByteArrayOutputStream pending;
+
+  /**
+  * The sequence number of the next record
+  */
+  private long nextLsn = 1;
+
+  /**
+  * The sequence number of the last record forced to the disk
+  */
+  private long durableLsn;
+
+  /**
+  * The number of bytes written to the current segment
+  */
+  private long segmentBytes;
+
+  /**
+  * The time in milliseconds the flusher waits for more records before writing
+  */
+  private long commitWindow = DEFAULT_COMMIT_WINDOW;
+
+  /**
+  * If every mutation waits until its record is on the disk
+  */
+  private boolean synchronous;
+
+  /**
+  * If a writer is waiting for the pending records to be forced now
+  */
+  private boolean flushNow;
+
+  /**
+  * If the flusher is writing a batch to the current segment
+  */
+  private boolean writing;
+
+  /**
+  * If the log has been closed
+  */
+  private boolean closed;
+
+  /**
+  * The error of the write that failed, nothing is written after it and it is
+  * thrown by every later append, commit, sync and roll
+  */
+  private IOException failure;
+
+  /**
+  * The thread that writes the pending records
+  */
+  private final Thread flusher;
+
+  /**
+  * Opens the log of a database, the records are written to a new segment
+  * after the segments already in the database directory, which are deleted by
+  * the first checkpoint, so they must be replayed before
+  * @param  dbPath    The path to the database directory
+  * @param  firstLsn  The sequence number of the first record
+  */
+  public WriteAheadLog(String dbPath, long firstLsn) {
+    this.dbPath = dbPath;
+    this.segments = new ArrayList<>();
+    for (int existing : segments(dbPath)) {
+      segments.add(existing);
+    }
+    this.nextLsn = Math.max(firstLsn, 1);
+    this.durableLsn = nextLsn - 1;
+    this.pending = new ByteArrayOutputStream();
+    this.segment = nextSegment(dbPath);
+    this.flusher = new Thread(this::flushLoop, "HarambeDB log flusher " + dbPath);
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  /**
+  * Finds the IDs of the log segments inside a database directory
+  * @param  dbPath  The path to the database directory
+  * @return         The IDs of the segments in ascending order
+  */
+  public static int[] segments(String dbPath) {
+    String[] names = new File(dbPath).list((dir, name) -> name.startsWith(prefix) && name.endsWith(extension));
+    if (names == null) {
+      return new int[0];
+    }
+    int[] ids = new int[names.length];
+    int count = 0;
+    for (String name : names) {
+      try {
+        ids[count] = Integer.parseInt(name.substring(prefix.length(), name.length() - extension.length()));
+        count++;
+      } catch (NumberFormatException e) {
+        // not a segment
+      }
+    }
+    int[] result = Arrays.copyOf(ids, count);
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+  * The ID after the last segment inside a database directory
+  * @param  dbPath  The path to the database directory
+  * @return         The ID of the next segment
+  */
+  private static int nextSegment(String dbPath) {
+    int[] existing = segments(dbPath);
+    return existing.length > 0 ? existing[existing.length - 1] + 1 : 0;
+  }
+
+  /**
+  * The path of a log segment file
+  * @param  dbPath    The path to the database directory
+  * @param  segment   The ID of the segment
+  * @return           The path to the segment file
+  */
+  public static String segmentPath(String dbPath, int segment) {
+    return dbPath + prefix + segment + extension;
+  }
+
+  /**
+  * Changes the group commit policy
+  * @param  windowMillis  The time the records are buffered before they are forced to the disk
+  * @param  synchronous   If every mutation waits until its record is on the disk
+  */
+  public synchronized void setCommitPolicy(long windowMillis, boolean synchronous) {
+    this.commitWindow = Math.max(windowMillis, 0);
+    this.synchronous = synchronous;
+    notifyAll();
+  }
+
+  /**
+  * Logs the addition of a row
+  * @param  table   The name of the table
+  * @param  key     The primary key of the row
+  * @return         The sequence number of the record
+  */
+  public long logAdd(String table, Object key) {
+    return append(record(LogRecord.ADD, table, key));
+  }
+
+  /**
+  * Logs the removal of a row
+  * @param  table   The name of the table
+  * @param  key     The primary key of the row
+  * @return         The sequence number of the record
+  */
+  public long logRemove(String table, Object key) {
+    return append(record(LogRecord.REMOVE, table, key));
+  }
+
+  /**
+  * Logs the change of a field of a row
+  * @param  table   The name of the table
+  * @param  key     The primary key of the row
+  * @param  column  The index of the column
+  * @param  value   The new value of the field, null if it was removed
+  * @return         The sequence number of the record
+  */
+  public long logSet(String table, Object key, int column, Object value) {
+    return append(set(table, key, column, value));
+  }
+
+  /**
+  * Logs the changes of a committed transaction as a single record, the record
+  * should be forced before the changes are applied
+  * @param  batch   The changes of the transaction
+  * @return         The sequence number of the record
+  */
+  public long logTransaction(Batch batch) {
+    try {
+      ByteArrayOutputStream bytes = record(LogRecord.TRANSACTION, "", null);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(batch.size);
+      batch.bytes.writeTo(bytes);
+      return append(bytes);
+    } catch (IOException e) {
+      throw new HarambException(e);
+    }
+  }
+
+  /**
+  * The changes of the rows of a transaction, they are logged together with
+  * logTransaction. Every change is encoded as the record it would be on its own.
+  */
+  public static class Batch {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private int size;
+
+    /**
+    * Adds the addition of a row to the batch
+    * @param  table   The name of the table
+    * @param  key     The primary key of the row
+    */
+    public void add(String table, Object key) {
+      append(record(LogRecord.ADD, table, key));
+    }
+
+    /**
+    * Adds the removal of a row to the batch
+    * @param  table   The name of the table
+    * @param  key     The primary key of the row
+    */
+    public void remove(String table, Object key) {
+      append(record(LogRecord.REMOVE, table, key));
+    }
+
+    /**
+    * Adds the change of a field of a row to the batch
+    * @param  table   The name of the table
+    * @param  key     The primary key of the row
+    * @param  column  The index of the column
+    * @param  value   The new value of the field, null if it was removed
+    */
+    public void set(String table, Object key, int column, Object value) {
+      append(WriteAheadLog.set(table, key, column, value));
+    }
+
+    /**
+    * The number of changes in the batch
+    * @return The number of records of the transaction
+    */
+    public int size() {
+      return size;
+    }
+
+    /**
+    * Appends a record to the batch
+    * @param  record  The type and content of the record
+    */
+    private void append(ByteArrayOutputStream record) {
+      byte[] content = record.toByteArray();
+      bytes.write(content, 0, content.length);
+      size++;
+    }
+  }
+
+  /**
+  * Logs the addition of a column to a table
+  * @param  table   The name of the table
+  * @param  name    The name of the column
+  * @param  type    The data type of the column
+  * @return         The sequence number of the record
+  */
+  public long logColumn(String table, String name, Class<?> type) {
+    try {
+      ByteArrayOutputStream bytes = record(LogRecord.COLUMN, table, null);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeUTF(name);
+      out.writeUTF(type.getName());
+      return append(bytes);
+    } catch (IOException e) {
+      throw new HarambException(e);
+    }
+  }
+
+  /**
+  * Logs the division of a partition, the new partition should be on the disk
+  * before this call and the record should be forced before the divided
+  * partition is written
+  * @param  table       The name of the table
+  * @param  key         The minimum key of the new partition
+  * @param  partition   The ID of the new partition
+  * @param  divided     The ID of the divided partition
+  * @return             The sequence number of the record
+  */
+  public long logSplit(String table, Object key, int partition, int divided) {
+    return append(structure(LogRecord.SPLIT, table, key, partition, divided));
+  }
+
+  /**
+  * Logs the removal of a partition from the directory of a table, the record
+  * should be forced before the partition that received its rows is written
+  * @param  table       The name of the table
+  * @param  key         The key of the removed partition in the directory
+  * @param  partition   The ID of the removed partition
+  * @param  into        The ID of the partition its rows were moved to, -1 if it was empty
+  * @return             The sequence number of the record
+  */
+  public long logMerge(String table, Object key, int partition, int into) {
+    return append(structure(LogRecord.MERGE, table, key, partition, into));
+  }
+
+  /**
+  * The sequence number of the last appended record
+  * @return The sequence number of the last record, it may not be on the disk yet
+  */
+  public synchronized long lastLsn() {
+    return nextLsn - 1;
+  }
+
+  /**
+  * Waits until a record is on the disk if the log is synchronous, it should be
+  * called without holding any lock
+  * @param  lsn               The sequence number of the record
+  * @throws HarambException   If there was an error writing the log
+  */
+  public void commit(long lsn) throws HarambException {
+    if (synchronous) {
+      awaitDurable(lsn, false);
+    } else {
+      synchronized (this) {
+        failed();
+      }
+    }
+  }
+
+  /**
+  * Throws the error of the log if it failed to write, the caller holds the lock of the log
+  * @throws HarambException   If there was an error writing the log
+  */
+  private void failed() throws HarambException {
+    if (failure != null) {
+      throw new HarambException(failure);
+    }
+  }
+
+  /**
+  * Forces every appended record to the disk
+  * @throws HarambException   If there was an error writing the log
+  */
+  public void sync() throws HarambException {
+    long lsn;
+    synchronized (this) {
+      lsn = nextLsn - 1;
+    }
+    awaitDurable(lsn, true);
+  }
+
+  /**
+  * The number of bytes written to the current segment, used to decide when a
+  * checkpoint is needed
+  * @return The size of the current segment
+  */
+  public synchronized long segmentBytes() {
+    return segmentBytes + pending.size();
+  }
+
+  /**
+  * Starts a new segment, the records appended after this call are written to
+  * the new segment. It is the first step of a checkpoint.
+  * @throws HarambException   If there is an error writing the log
+  * @return                   The ID of the new segment
+  */
+  public synchronized int roll() throws HarambException {
+    failed();
+    try {
+      while (writing) {
+        wait();
+      }
+      if (channel != null) {
+        channel.close();
+        channel = null;
+        segment = Math.max(segment + 1, nextSegment(dbPath));
+      }
+    } catch (Exception e) {
+      throw new HarambException(e);
+    }
+    segmentBytes = 0;
+    return segment;
+  }
+
+  /**
+  * Finishes a checkpoint, the changes logged before the segment were applied to
+  * the table and partition files so the older segments are deleted
+  * @param  firstSegment      The segment returned by roll when the checkpoint started
+  * @throws HarambException   If there is an error deleting a segment
+  */
+  public synchronized void checkpoint(int firstSegment) throws HarambException {
+    try {
+      for (int i = segments.size() - 1; i >= 0; i--) {
+        if (segments.get(i) < firstSegment) {
+          Files.deleteIfExists(Paths.get(segmentPath(dbPath, segments.get(i))));
+          segments.remove(i);
+        }
+      }
+    } catch (IOException e) {
+      throw new HarambException(e);
+    }
+  }
+
+  /**
+  * Forces the pending records to the disk and stops the flusher
+  * @throws HarambException   If there is an error writing the log
+  */
+  public void close() throws HarambException {
+    sync();
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+      try {
+        while (writing) {
+          wait();
+        }
+        if (channel != null) {
+          channel.close();
+        }
+      } catch (Exception e) {
+        throw new HarambException(e);
+      }
+    }
+  }
+
+  /**
+  * Writes a file that must be on the disk before a checkpoint deletes the
+  * older segments: the content is written to a temporary file, forced to the
+  * disk and moved over the file, then the directory is forced
+  * @param  path              The path of the file
+  * @param  content           The content of the file
+  * @throws HarambException   If there is an error writing the file
+  */
+  public static void writeDurably(String path, byte[] content) throws HarambException {
+    Path target = Paths.get(path);
+    Path temporary = Paths.get(path + ".tmp");
+    try {
+      try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.WRITE,
+      StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        while (buffer.hasRemaining()) {
+          file.write(buffer);
+        }
+        file.force(false);
+      }
+      Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      forceDirectory(target.toAbsolutePath().getParent());
+    } catch (IOException e) {
+      throw new HarambException(e);
+    }
+  }
+
+  /**
+  * Forces the entries of a directory to the disk, so the files created or
+  * moved inside it are still there after a crash of the operating system
+  * @param  path              The path of the directory
+  * @throws HarambException   If there is an error forcing the directory
+  */
+  public static void syncDirectory(String path) throws HarambException {
+    try {
+      forceDirectory(Paths.get(path));
+    } catch (IOException e) {
+      throw new HarambException(e);
+    }
+  }
+
+  /**
+  * {@link WriteAheadLog#syncDirectory}, a directory can't be opened on Windows,
+  * where its entries are forced with the files
+  * @param  directory     The directory
+  * @throws IOException   If there is an error forcing the directory
+  */
+  private static void forceDirectory(Path directory) throws IOException {
+    if (File.separatorChar == '\\') {
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    }
+  }
+
+  /**
+  * Creates the file of the current segment, if another log already created a
+  * segment with the same ID the next free ID is used. The directory is forced,
+  * so the records forced to the segment are not lost with its entry.
+  * @throws IOException   If the segment file cannot be created
+  */
+  private void openSegment() throws IOException {
+    while (true) {
+      try {
+        channel = FileChannel.open(Paths.get(segmentPath(dbPath, segment)),
+          StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segments.add(segment);
+        forceDirectory(Paths.get(dbPath));
+        return;
+      } catch (FileAlreadyExistsException e) {
+        segment = Math.max(segment + 1, nextSegment(dbPath));
+      }
+    }
+  }
+
+  /**
+  * Starts a record with its type, table and key
+  * @param  type    The type of the record
+  * @param  table   The name of the table
+  * @param  key     The primary key of the row, null if the record has no key
+  * @return         The buffer with the beginning of the record
+  */
+  private static ByteArrayOutputStream record(byte type, String table, Object key) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeByte(type);
+      out.writeUTF(table);
+      if (key != null) {
+        writeValue(out, key);
+      }
+      return bytes;
+    } catch (IOException e) {
+      throw new HarambException(e);
+    }
+  }
+
+  /**
+  * Builds a record of the change of a field of a row
+  * @param  table   The name of the table
+  * @param  key     The primary key of the row
+  * @param  column  The index of the column
+  * @param  value   The new value of the field, null if it was removed
+  * @return         The buffer with the record
+  */
+  private static ByteArrayOutputStream set(String table, Object key, int column, Object value) {
+    try {
+      ByteArrayOutputStream bytes = record(LogRecord.SET, table, key);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeShort(column);
+      writeValue(out, value);
+      return bytes;
+    } catch (IOException e) {
+      throw new HarambException(e);
+    }
+  }
+
+  /**
+  * Builds a record of a change of the directory of a table
+  * @param  type        The type of the record
+  * @param  table       The name of the table
+  * @param  key         The key of the partition in the directory
+  * @param  partition   The ID of the partition
+  * @param  other       The ID of the other partition
+  * @return             The buffer with the record
+  */
+  private static ByteArrayOutputStream structure(byte type, String table, Object key, int partition, int other) {
+    try {
+      ByteArrayOutputStream bytes = record(type, table, key);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(partition);
+      out.writeInt(other);
+      return bytes;
+    } catch (IOException e) {
+      throw new HarambException(e);
+    }
+  }
+
+  /**
+  * Reads every record of the log segments inside a database directory, the
+  * records of a segment are read until the end of the segment or until a torn
+  * or corrupted record
+  * @param  dbPath            The path to the database directory
+  * @throws HarambException   If there is an error reading a segment
+  * @return                   The records in the order they were appended
+  */
+  public static ArrayList<LogRecord> read(String dbPath) throws HarambException {
+    ArrayList<LogRecord> records = new ArrayList<>();
+    for (int segment : segments(dbPath)) {
+      ByteBuffer in;
+      try {
+        in = ByteBuffer.wrap(Files.readAllBytes(Paths.get(segmentPath(dbPath, segment))));
+      } catch (IOException e) {
+        throw new HarambException(e);
+      }
+      while (in.remaining() >= 16) {
+        int length = in.getInt();
+        int checksum = in.getInt();
+        if (length < 9 || length > in.remaining()) {
+          break;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(in.array(), in.position(), length);
+        if ((int) crc.getValue() != checksum) {
+          break;
+        }
+        ByteBuffer body = ByteBuffer.wrap(in.array(), in.position(), length).slice();
+        in.position(in.position() + length);
+        parse(body, records);
+      }
+    }
+    return records;
+  }
+
+  /**
+  * Decodes the body of a record, a TRANSACTION record is decoded as the
+  * records of its changes
+  * @param  in        The body of the record, starting with its sequence number
+  * @param  records   The list the decoded records are added to
+  */
+  private static void parse(ByteBuffer in, ArrayList<LogRecord> records) {
+    long lsn = in.getLong();
+    if (in.get(in.position()) != LogRecord.TRANSACTION) {
+      records.add(parse(lsn, in));
+      return;
+    }
+    in.get();
+    readUTF(in);
+    int count = in.getInt();
+    for (int i = 0; i < count; i++) {
+      records.add(parse(lsn, in));
+    }
+  }
+
+  /**
+  * Decodes a record after its sequence number
+  * @param  lsn   The sequence number of the record
+  * @param  in    The buffer positioned at the type of the record
+  * @return       The record
+  */
+  private static LogRecord parse(long lsn, ByteBuffer in) {
+    byte type = in.get();
+    String table = readUTF(in);
+    Object key = null, value = null;
+    String name = null, className = null;
+    int column = -1, partition = -1, other = -1;
+    if (type == LogRecord.COLUMN) {
+      name = readUTF(in);
+      className = readUTF(in);
+    } else {
+      key = readValue(in);
+    }
+    if (type == LogRecord.SET) {
+      column = in.getShort();
+      value = readValue(in);
+    } else if (type == LogRecord.SPLIT || type == LogRecord.MERGE) {
+      partition = in.getInt();
+      other = in.getInt();
+    }
+    return new LogRecord(lsn, type, table, key, column, value, name, className, partition, other);
+  }
+
+  /**
+  * Reads a string written with DataOutput.writeUTF
+  * @param  in  The buffer where the string is read from
+  * @return     The string
+  */
+  private static String readUTF(ByteBuffer in) {
+    int length = 2 + (in.getShort(in.position()) & 0xFFFF);
+    DataInputStream data = new DataInputStream(
+      new ByteArrayInputStream(in.array(), in.arrayOffset() + in.position(), length));
+    in.position(in.position() + length);
+    try {
+      return data.readUTF();
+    } catch (IOException e) {
+      throw new HarambException(e);
+    }
+  }
+
+  /**
+  * Writes a value preceded by the code of its type, or 0 if it is null
+  * @param  out           The output where the value is written
+  * @param  value         The value to write
+  * @throws IOException   If there is an error writing to the output
+  */
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(0);
+      return;
+    }
+    ColumnType type = ColumnType.of(value.getClass());
+    out.writeByte(type.code());
+    type.write(out, value);
+  }
+
+  /**
+  * Reads a value written by writeValue
+  * @param  in  The buffer where the value is read from
+  * @return     The value, null if it was null
+  */
+  private static Object readValue(ByteBuffer in) {
+    byte code = in.get();
+    return code == 0 ? null : ColumnType.fromCode(code).read(in);
+  }
+
+  /**
+  * Appends a record to the pending records
+  * @param  body  The type and content of the record
+  * @return       The sequence number of the record
+  */
+  private synchronized long append(ByteArrayOutputStream body) {
+    if (closed) {
+      throw new HarambException("The log is closed");
+    }
+    failed();
+    long lsn = nextLsn++;
+    byte[] content = body.toByteArray();
+    CRC32 crc = new CRC32();
+    ByteBuffer header = ByteBuffer.allocate(16);
+    header.putInt(content.length + 8).putInt(0).putLong(lsn);
+    crc.update(header.array(), 8, 8);
+    crc.update(content);
+    header.putInt(4, (int) crc.getValue());
+    pending.write(header.array(), 0, 16);
+    pending.write(content, 0, content.length);
+    notifyAll();
+    return lsn;
+  }
+
+  /**
+  * Waits until a record has been forced to the disk
+  * @param  lsn               The sequence number of the record
+  * @param  now               If the pending records should be written without waiting for the commit window
+  * @throws HarambException   If there was an error writing the log
+  */
+  private synchronized void awaitDurable(long lsn, boolean now) throws HarambException {
+    while (durableLsn < lsn && failure == null) {
+      if (now) {
+        flushNow = true;
+        notifyAll();
+      }
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new HarambException(e);
+      }
+    }
+    failed();
+  }
+
+  /**
+  * The loop of the flusher thread: waits for records, waits the commit window
+  * so more records can join the batch, then writes and forces the batch
+  */
+  private void flushLoop() {
+    while (true) {
+      byte[] batch;
+      long lastLsn;
+      FileChannel target;
+      synchronized (this) {
+        try {
+          // a failed log writes nothing more, so no record after the failure reaches the disk
+          while ((pending.size() == 0 || failure != null) && !closed) {
+            wait();
+          }
+          if (closed && (pending.size() == 0 || failure != null)) {
+            return;
+          }
+          long deadline = System.currentTimeMillis() + commitWindow;
+          long remaining;
+          while (!flushNow && !closed && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            wait(remaining);
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+        flushNow = false;
+        // the segment is opened before the batch is taken, so the batch stays pending if it can't be opened
+        try {
+          if (channel == null) {
+            openSegment();
+          }
+        } catch (IOException e) {
+          failure = e;
+          notifyAll();
+          continue;
+        }
+        batch = pending.toByteArray();
+        pending = new ByteArrayOutputStream(Math.max(32, batch.length));
+        lastLsn = nextLsn - 1;
+        writing = true;
+        target = channel;
+      }
+
+      IOException error = null;
+      try {
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        while (buffer.hasRemaining()) {
+          target.write(buffer);
+        }
+        target.force(false);
+      } catch (IOException e) {
+        error = e;
+      }
+
+      synchronized (this) {
+        writing = false;
+        if (error != null) {
+          failure = error;
+        } else {
+          durableLsn = Math.max(durableLsn, lastLsn);
+          segmentBytes += batch.length;
+        }
+        notifyAll();
+      }
+    }
+  }
+}
@@ -1,16 +1,19 @@
 package hdb.table;
 
-import structures.list.DoublyLinkedList;
-import java.io.ObjectOutputStream;
+import structures.list.SortedArrayList;
 import structures.dict.LinkedDict;
 import java.io.ObjectInputStream;
+import hdb.table.row.RowListener;
+import hdb.table.column.ColumnList;
+import hdb.table.column.ColumnType;
+import hdb.table.column.Column;
 import hdb.HarambException;
-import java.io.FileOutputStream;
 import hdb.table.row.Row;
 import structures.list.List;
 import structures.dict.Dict;
 import java.io.Serializable;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
 * The main Partition implementation in HarambeDB, it stores a dictionary of primary keys
@@ -18,7 +21,24 @@ import java.io.IOException;
 *
 * This implementation of the Partition interface stores a sorted list of the primary keys,
 * it could also be rewriten to sort the keys every time they are required, as stated in
-* the Partition documentation.
+* the Partition documentation. The keys are kept in a gap buffered array, so a
+* key is found with a binary search and the upper half of the keys can be moved
+* to another partition with a single array copy.
+*
+* The partition listens to the changes of its rows to know if it is dirty, so
+* clean partitions are never written again. Its listener is notified when the
+* partition becomes dirty and of every change of a field of its rows. The
+* zone map of the partition is updated on every change of its rows.
+*
+* The partition is written in the binary format described in PartitionFile,
+* the partition needs the columns of its table to encode the rows. Partition
+* files written by older versions with Java serialization can still be read,
+* they are converted to the binary format the next time they are saved.
+*
+* When the partition file is mapped into memory the rows are not decoded when
+* the partition is loaded, the dictionary of rows works as a cache of the rows
+* decoded from the mapped file. The remaining rows are decoded all at once
+* before the partition is modified by removing a row or saved.
 *
 * <p>This class is a member of the
 * <a href="{@docRoot}/index.html" target="_top">
@@ -29,7 +49,7 @@ import java.io.IOException;
 * @see     Table
 * @see     Row
 */
-class HarambePartition<PrimaryKey extends Comparable<? super PrimaryKey>> implements Partition<PrimaryKey>, Serializable {
+class HarambePartition<PrimaryKey extends Comparable<? super PrimaryKey>> implements Partition<PrimaryKey>, RowListener, Serializable {
 
   /**
   * The partition ID
@@ -37,9 +57,10 @@ class HarambePartition<PrimaryKey extends Comparable<? super PrimaryKey>> implem
   private int partitionNumber;
 
   /**
-  * A list where keys are stored sorted
+  * A list where keys are stored sorted, it is rebuilt from the rows when the
+  * partition is read with Java serialization
   */
-  private DoublyLinkedList<PrimaryKey> sortedKeys;
+  private transient SortedArrayList<PrimaryKey> sortedKeys;
 
   /**
   * A dictionary of primary keys mapping to rows
@@ -50,81 +71,225 @@ class HarambePartition<PrimaryKey extends Comparable<? super PrimaryKey>> implem
   * The path of to the partition file
   */
   private final String path;
+
+  /**
+  * If the partition has been modified since it was loaded or saved
+  */
+  private transient volatile boolean dirty;
+
+  /**
+  * The listener notified when the partition becomes dirty
+  */
+  private transient RowListener listener;
+
+  /**
+  * The columns of the table, used to encode the rows
+  */
+  private transient ColumnList columns;
+
+  /**
+  * The encoding of the primary key
+  */
+  private transient ColumnType keyType;
+
+  /**
+  * The mapped partition file the rows are decoded from, null once every row
+  * has been decoded. The rows are decoded holding the lock of the partition, so
+  * several threads can read a lazy partition at once.
+  */
+  private transient volatile PartitionFile file;
+
+  /**
+  * The keys stored in the mapped partition file, in ascending order
+  */
+  private transient Object[] fileKeys;
+
+  /**
+  * The statistics of the columns, null if they are not known
+  */
+  private transient ZoneMap zoneMap;
   private static final long serialVersionUID = 15L;
 
   /**
-  * Creates a new partition inside a table directory and with an ID, if the ID
-  * already exists the other table will be overwritten.
+  * Creates a new empty partition inside a table directory and with an ID. The
+  * partition file is not written until the partition is saved, so the new
+  * partition is dirty, if the ID already exists the file will be overwritten.
   * @param  tablePath         The path to the table directory
   * @param  partitionNumber   The ID of the new partition
+  * @param  columns           The columns of the table
+  * @param  keyType           The class of the primary key
   */
-  public HarambePartition(String tablePath, int partitionNumber) {
+  public HarambePartition(String tablePath, int partitionNumber, ColumnList columns, Class<?> keyType) {
     this.path = tablePath + "pt" + partitionNumber + extension;
     this.partitionNumber = partitionNumber;
     this.rows = new LinkedDict<PrimaryKey, Row>();
-    this.sortedKeys = new DoublyLinkedList<>();
-    // file is not in the avl tree and there is no file for this partition
-    try (ObjectOutputStream oos = new ObjectOutputStream(
-    new FileOutputStream(this.path))) {
-      oos.writeObject(this);
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
+    this.sortedKeys = new SortedArrayList<>();
+    this.columns = columns;
+    this.keyType = ColumnType.of(keyType);
+    this.zoneMap = new ZoneMap();
+    this.dirty = true;
   }
 
-  public String path() {
-    return this.path;
+  /**
+  * Creates a partition with the content of its partition file
+  * @param  tablePath         The path to the table directory
+  * @param  file              The parsed partition file
+  * @param  columns           The columns of the table
+  * @param  lazy              If the rows should be decoded only when they are retrieved
+  */
+  @SuppressWarnings("unchecked")
+  HarambePartition(String tablePath, PartitionFile file, ColumnList columns, boolean lazy) {
+    this.partitionNumber = file.partitionNumber();
+    this.path = tablePath + "pt" + partitionNumber + extension;
+    this.rows = new LinkedDict<PrimaryKey, Row>();
+    this.sortedKeys = new SortedArrayList<>();
+    this.columns = columns;
+    this.keyType = file.keyType();
+    Object[] keys = file.keys();
+    for (int i = 0; i < keys.length; i++) {
+      sortedKeys.add((PrimaryKey) keys[i]);
+    }
+    if (lazy) {
+      this.file = file;
+      this.fileKeys = keys;
+    } else {
+      for (int i = 0; i < keys.length; i++) {
+        Row row = file.row(i);
+        row.setListener(this, keys[i]);
+        rows.add((PrimaryKey) keys[i], row);
+      }
+    }
   }
 
-  public int size() {
-    return this.rows.getSize();
+  /**
+  * Decodes a row from the mapped partition file if it has not been decoded yet
+  * @param  key The primary key of the row
+  * @return     The row, null if the row is not in the mapped file
+  */
+  private Row decode(PrimaryKey key) {
+    int index = Arrays.binarySearch(fileKeys, key);
+    if (index < 0) {
+      return null;
+    }
+    Row row = file.row(index);
+    row.setListener(this, key);
+    rows.add(key, row);
+    return row;
   }
 
   /**
-  * Adds a key in the sorted array of keys
-  * @param  key The key to add.
+  * Decodes every row that has not been decoded from the mapped partition file
+  * and releases the file, after this call the partition is no longer lazy
   */
-  private void addSortedKey(PrimaryKey key) {
-    if (this.sortedKeys.size() == 0) {
-      this.sortedKeys.add(key);
+  @SuppressWarnings("unchecked")
+  private synchronized void decodeAll() {
+    if (file == null) {
       return;
     }
+    for (int i = 0; i < fileKeys.length; i++) {
+      if (rows.getValue((PrimaryKey) fileKeys[i]) == null) {
+        decode((PrimaryKey) fileKeys[i]);
+      }
+    }
+    file = null;
+    fileKeys = null;
+  }
 
+  /**
+  * Sets the columns and the key type of a partition read with Java serialization
+  * @param  columns   The columns of the table
+  * @param  keyType   The class of the primary key
+  */
+  void bind(ColumnList columns, Class<?> keyType) {
+    this.columns = columns;
+    this.keyType = ColumnType.of(keyType);
+  }
 
-    if (key.compareTo(this.sortedKeys.get(0)) < 0) {
-      this.sortedKeys.add(0, key);
-      return;
+  public String path() {
+    return this.path;
+  }
+
+  public int size() {
+    return this.sortedKeys.size();
+  }
+
+  public void save() throws HarambException {
+    save(true);
+  }
+
+  public void save(boolean force) throws HarambException {
+    decodeAll();
+    dirty = false;
+    ZoneMap exact = ZoneMap.of(rows, columns);
+    if (zoneMap != null) {
+      zoneMap.set(exact);
+    } else {
+      zoneMap = exact;
     }
-    else if(key.compareTo(this.sortedKeys.get(this.sortedKeys.size() - 1)) > 0) {
-      this.sortedKeys.add(key);
-      return;
+    try {
+      PartitionFile.write(this.path, partitionNumber, keyType, columns, sortedKeys, rows, force);
+    } catch (RuntimeException e) {
+      dirty = true;
+      throw e;
     }
+  }
+
+  public boolean isDirty() {
+    return dirty;
+  }
 
-    int lower = 0;
-    int upper = this.sortedKeys.size() - 1;
-    int mid;
+  public void setListener(RowListener listener) {
+    this.listener = listener;
+  }
 
-    while (true) {
-      mid = lower + (upper - lower) / 2;
-      if (lower + 1 == upper) {
-        this.sortedKeys.add(lower, key);
-        return;
-      }
-      if (key.compareTo(this.sortedKeys.get(mid)) > 0) {
-        lower = mid;
-      }
-      else if (key.compareTo(this.sortedKeys.get(mid)) < 0) {
-        upper = mid;
+  public void rowChanged(Row row) {
+    markDirty(row);
+  }
+
+  public void fieldChanging(Object key, Row row, Column column, Object value) {
+    RowListener listener = this.listener;
+    if (listener != null) {
+      listener.fieldChanging(key, row, column, value);
+    }
+  }
+
+  public void fieldChanged(Object key, Row row, Column column, Object previous, Object value) {
+    ZoneMap zoneMap = this.zoneMap;
+    if (zoneMap != null) {
+      zoneMap.changed(column, previous, value);
+    }
+    markDirty(row);
+    RowListener listener = this.listener;
+    if (listener != null) {
+      listener.fieldChanged(key, row, column, previous, value);
+    }
+  }
+
+  /**
+  * Marks the partition as dirty, notifying the listener if it was clean
+  * @param  row The row that was modified, added or removed, null if several rows were moved
+  */
+  private void markDirty(Row row) {
+    if (!dirty) {
+      dirty = true;
+      if (listener != null) {
+        listener.rowChanged(row);
       }
     }
   }
 
-  public void save() throws HarambException {
-    try (ObjectOutputStream oos = new ObjectOutputStream(
-    new FileOutputStream(this.path))) {
-      oos.writeObject(this);
-    } catch (Exception e) {
-      throw new HarambException(e);
+  /**
+  * Reads the partition from a stream and listens to the changes of its rows
+  * @param  in              The stream the partition is read from
+  * @throws IOException     If there is an error reading the stream
+  * @throws ClassNotFoundException If the class of a serialized object cannot be found
+  */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    sortedKeys = new SortedArrayList<>(Math.max(rows.getSize(), 1));
+    for (PrimaryKey key : rows.keys()) {
+      sortedKeys.insert(key);
+      rows.getValue(key).setListener(this, key);
     }
   }
 
@@ -132,33 +297,81 @@ class HarambePartition<PrimaryKey extends Comparable<? super PrimaryKey>> implem
     return sortedKeys;
   }
 
+  public long byteSize() {
+    decodeAll();
+    return PartitionFile.sizeOf(keyType, columns, sortedKeys, rows);
+  }
+
   public int partitionNumber() {
     return this.partitionNumber;
   }
 
   public void addRow(PrimaryKey key, Row row) throws HarambException {
-    if (rows.getValue(key) != null)
+    if (getRow(key) != null)
       throw new HarambException("Key already exists: " + key);
     rows.add(key, row);
-    this.addSortedKey(key);
+    sortedKeys.insert(key);
+    row.setListener(this, key);
+    if (zoneMap != null && !zoneMap.added(key, row, columns)) {
+      zoneMap.setKeys(sortedKeys, sortedKeys.size());
+    }
+    markDirty(row);
   }
 
   public Row getRow(PrimaryKey key) {
-    return rows.getValue(key);
+    if (file == null) {
+      return rows.getValue(key);
+    }
+    synchronized (this) {
+      Row row = rows.getValue(key);
+      if (row == null && file != null) {
+        row = decode(key);
+      }
+      return row;
+    }
   }
 
   public boolean removeRow(PrimaryKey key) throws HarambException {
-    rows.remove(key);
-
-    PrimaryKey firstKey = sortedKeys.get(0);
-    PrimaryKey removedKey = sortedKeys.remove(sortedKeys.indexOf(key));
-    if (removedKey == null) {
+    decodeAll();
+    int index = sortedKeys.indexOf(key);
+    if (index < 0) {
       throw new HarambException("No such key");
     }
-    return firstKey == removedKey;
+    sortedKeys.remove(index);
+    Row row = rows.remove(key);
+    row.setListener(null);
+    if (zoneMap != null) {
+      zoneMap.removed(row, columns);
+    }
+    markDirty(row);
+    return index == 0;
+  }
+
+  public void moveRows(int from, Partition<PrimaryKey> to) throws HarambException {
+    decodeAll();
+    SortedArrayList<PrimaryKey> moved = sortedKeys.split(from);
+    for (PrimaryKey key : moved) {
+      Row row = rows.remove(key);
+      if (zoneMap != null) {
+        zoneMap.removed(row, columns);
+      }
+      to.addRow(key, row);
+    }
+    if (moved.size() > 0) {
+      markDirty(null);
+    }
   }
 
   public Dict<PrimaryKey, Row> rows() {
+    decodeAll();
     return this.rows;
   }
+
+  public ZoneMap zoneMap() {
+    return zoneMap;
+  }
+
+  public void setZoneMap(ZoneMap zoneMap) {
+    this.zoneMap = zoneMap;
+  }
 }
@@ -0,0 +1,134 @@
+package hdb.table;
+
+import java.io.Serializable;
+
+/**
+* A Bloom filter of the primary keys of a partition. It tells for sure that a
+* key is not in the partition, so looking for a missing row does not need to
+* load the partition, and it may answer that a missing key is in the partition
+* in about one percent of the lookups while it holds no more keys than its
+* capacity. Keys can't be removed from the filter, the keys of removed rows are
+* only forgotten when the filter is built again from the keys of the partition.
+*
+* The keys are hashed with their hashCode, which must be the same in every
+* session, as it already is for the keys of the partition files.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     ZoneMap
+*/
+class KeyFilter implements Serializable {
+
+  /**
+  * The number of bits per key of the capacity and the number of bits set by
+  * every key, which give about one percent of false positives
+  */
+  private static final int bitsPerKey = 10, hashes = 7;
+
+  /**
+  * The minimum number of keys a filter has room for
+  */
+  private static final int minimumCapacity = 16;
+
+  /**
+  * The bits of the filter
+  */
+  private final long[] bits;
+
+  /**
+  * The number of keys the filter has room for
+  */
+  private final int capacity;
+
+  /**
+  * The number of keys added to the filter
+  */
+  private int count;
+  private static final long serialVersionUID = 61L;
+
+  /**
+  * Creates an empty filter
+  * @param  capacity  The number of keys it should have room for
+  */
+  KeyFilter(int capacity) {
+    this.capacity = Math.max(capacity, minimumCapacity);
+    this.bits = new long[(int) (((long) this.capacity * bitsPerKey + 63) / 64)];
+  }
+
+  /**
+  * Creates a filter of some keys, with room for half as many more
+  * @param  keys    The keys
+  * @param  size    The number of keys
+  * @return         The filter of the keys
+  */
+  static KeyFilter of(Iterable<?> keys, int size) {
+    KeyFilter filter = new KeyFilter(size + size / 2);
+    for (Object key : keys) {
+      filter.add(key);
+    }
+    return filter;
+  }
+
+  /**
+  * Creates a copy of the filter
+  * @return The copy
+  */
+  KeyFilter copy() {
+    KeyFilter copy = new KeyFilter(capacity);
+    System.arraycopy(bits, 0, copy.bits, 0, bits.length);
+    copy.count = count;
+    return copy;
+  }
+
+  /**
+  * Adds a key to the filter
+  * @param  key   The key
+  * @return       False if the filter holds more keys than its capacity, it
+  *               should be built again with more room
+  */
+  boolean add(Object key) {
+    long length = (long) bits.length * 64;
+    int h1 = mix(key.hashCode());
+    int h2 = mix(h1 ^ 0x9E3779B9) | 1;
+    for (int i = 0; i < hashes; i++) {
+      long bit = Math.floorMod(h1 + (long) i * h2, length);
+      bits[(int) (bit >>> 6)] |= 1L << bit;
+    }
+    return ++count <= capacity;
+  }
+
+  /**
+  * Tells if a key may have been added to the filter
+  * @param  key   The key
+  * @return       False if the key was never added
+  */
+  boolean mayContain(Object key) {
+    long length = (long) bits.length * 64;
+    int h1 = mix(key.hashCode());
+    int h2 = mix(h1 ^ 0x9E3779B9) | 1;
+    for (int i = 0; i < hashes; i++) {
+      long bit = Math.floorMod(h1 + (long) i * h2, length);
+      if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+  * Spreads the bits of a hash code, so close keys set distant bits
+  * @param  h   The hash code
+  * @return     The mixed hash code
+  */
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    return h ^ (h >>> 16);
+  }
+}
@@ -1,9 +1,15 @@
 package hdb.table;
 
+import java.nio.file.StandardOpenOption;
 import java.io.BufferedInputStream;
+import java.nio.channels.FileChannel;
 import java.io.ObjectInputStream;
+import hdb.table.column.ColumnList;
+import hdb.table.row.RowListener;
+import java.nio.channels.Channels;
 import hdb.HarambException;
-import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 import hdb.table.row.Row;
 import java.io.Serializable;
 import structures.dict.Dict;
@@ -24,10 +30,10 @@ import java.io.IOException;
 * a partition we need to either sort the keys in the partition or store the
 * sorted keys of the partition in order to update the minimum key in the AVL
 * tree. The current implementation of the partition stores the primary keys in
-* a sorted list, this duplicates the space complexity of the PrimaryKey column
+* a sorted array, this duplicates the space complexity of the PrimaryKey column
 * but avoid performing a sort operation over the whole partition. A new class
 * implementing the Partition interface performing the sorting should be
-* relatively easy to write and should be used if the THRESHOLD is reasonably small.
+* relatively easy to write and should be used if the partitions are reasonably small.
 *
 * <p>This class is a member of the
 * <a href="{@docRoot}/index.html" target="_top">
@@ -51,30 +57,65 @@ interface Partition<PrimaryKey extends Comparable<? super PrimaryKey>> {
   static final String prefix = "pt";
 
   /*
-  * Load the object from a .hbpt file
-  * @param  tablePath         The path to the table directory where the
-  * partition file is to be stored, if an error occurs it prints the stack
-  * trace, but won't throw the Exception
+  * Load the object from a .hbpt file, files written with Java serialization by
+  * older versions are also accepted. If the file is mapped into memory only the
+  * keys are decoded, every row is decoded the first time it is retrieved.
+  * @param  tablePath         The path to the table directory where the partition file is stored
   * @param  partitionNumber   The unique ID of the partition
-  * @return                   The partition Object readed from the file, null if there is no partition with that ID or if there is an error reading the file
+  * @param  columns           The columns of the table, used to decode the rows
+  * @param  keyType           The class of the primary key
+  * @param  mapped            If the file should be mapped into memory instead of deserialized eagerly
+  * @throws HarambException   If there is no partition with that ID or there is an error reading the file
+  * @return                   The partition Object readed from the file
   */
   @SuppressWarnings("unchecked")
-  public static <K extends Comparable<? super K>> Partition<K> load(String tablePath, int partitionNumber) {
-    try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(
-    new FileInputStream(tablePath + prefix + partitionNumber + extension)))) {
-      return (Partition<K>) ois.readObject();
+  public static <K extends Comparable<? super K>> Partition<K> load(String tablePath, int partitionNumber, ColumnList columns, Class<?> keyType, boolean mapped) throws HarambException {
+    String path = tablePath + prefix + partitionNumber + extension;
+    try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      ByteBuffer content = PartitionFile.read(channel, mapped);
+      if (content.remaining() > 1 && content.getShort(0) == (short) 0xACED) {
+        channel.position(0);
+        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        HarambePartition<K> partition = (HarambePartition<K>) ois.readObject();
+        partition.bind(columns, keyType);
+        return partition;
+      }
+      return new HarambePartition<K>(tablePath, new PartitionFile(content), columns, mapped);
     } catch (Exception e) {
-      e.printStackTrace();
-      return null;
+      throw new HarambException(e);
     }
   };
 
   /**
-  * Save the partition in a .hbpt file
+  * Save the partition in a .hbpt file, after saving the partition is not dirty
   * @throws HarambException If there is an error writing the partition file
   */
   public void save() throws HarambException;
 
+  /**
+  * Save the partition in a .hbpt file, after saving the partition is not dirty
+  * @param  force             If the file is forced to the disk, otherwise it must
+  *                           be forced with PartitionFile.sync before the table file
+  *                           references it
+  * @throws HarambException   If there is an error writing the partition file
+  */
+  public void save(boolean force) throws HarambException;
+
+  /**
+  * Tells if the partition has been modified by addRow, removeRow or by setting
+  * a field of one of its rows since it was loaded or saved
+  * @return If the partition has to be saved
+  */
+  public boolean isDirty();
+
+  /**
+  * Sets the listener notified when a clean partition is modified, rowChanged
+  * is not called again until the partition is saved. fieldChanged is called on
+  * every change of a field of a row, with the primary key of the row.
+  * @param  listener  The listener, null to remove the current one
+  */
+  public void setListener(RowListener listener);
+
   /**
   * The path of to the partition file
   * @return The path to the partition file
@@ -110,6 +151,22 @@ interface Partition<PrimaryKey extends Comparable<? super PrimaryKey>> {
   */
   public boolean removeRow(PrimaryKey key) throws HarambException;
 
+  /**
+  * Moves the rows from a position of the sorted keys up to the last one to
+  * another partition, every moved key must be greater than the keys in the
+  * other partition
+  * @param  from              The position of the first key to move
+  * @param  to                The partition that receives the rows
+  * @throws HarambException   If a moved key is already in the other partition
+  */
+  public void moveRows(int from, Partition<PrimaryKey> to) throws HarambException;
+
+  /**
+  * Calculates the size the partition file would have if the partition was saved now
+  * @return   The size in bytes of the encoded partition
+  */
+  public long byteSize();
+
   /**
   * Retrieves the partition ID
   * @return   The partition ID
@@ -127,4 +184,18 @@ interface Partition<PrimaryKey extends Comparable<? super PrimaryKey>> {
   * @return   The dictionary containing all the rows in the partition
   */
   public Dict<PrimaryKey, Row> rows();
+
+  /**
+  * The statistics of the columns of the partition, they are computed again
+  * every time the partition is saved
+  * @return   The zone map of the partition, null if it is not known until the partition is saved
+  */
+  public ZoneMap zoneMap();
+
+  /**
+  * Sets the statistics of the columns of a loaded partition, which were stored
+  * in the table file when the partition was saved
+  * @param  zoneMap   The zone map of the partition
+  */
+  public void setZoneMap(ZoneMap zoneMap);
 }
@@ -0,0 +1,366 @@
+package hdb.table;
+
+import java.nio.file.StandardCopyOption;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.FileChannel;
+import java.io.DataOutputStream;
+import hdb.table.column.ColumnList;
+import hdb.table.column.ColumnType;
+import hdb.table.column.Column;
+import hdb.table.row.HarambeRow;
+import java.nio.ByteBuffer;
+import hdb.HarambException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import structures.list.List;
+import structures.dict.Dict;
+import hdb.table.row.Row;
+import java.nio.file.Path;
+
+/**
+* The binary layout of the .hbpt partition files. A partition file contains a
+* header, the block of sorted primary keys, a table of offsets and the payloads
+* of the rows, in that order:
+*
+* <pre>
+* int      magic number 'HBPT'
+* short    format version
+* short    flags, reserved
+* int      partition ID
+* int      number of rows
+* byte     type code of the primary key
+* short    number of columns
+* byte[]   type code of every column, by column index
+* int      position of the offsets table
+* int      position of the first payload
+* keys     the primary keys in ascending order
+* int[]    number of rows + 1 offsets of the payloads, relative to the first payload
+* rows     for every row: a short with the number of fields, a null bitmap and
+*          the non null fields encoded by the type of their column
+* </pre>
+*
+* The keys and the row payloads follow the same order, so the payload of a row
+* can be decoded on its own once the position of its key is known. The values
+* are encoded with the ColumnType of their column. Files are written to a
+* temporary file first and then moved over the old file, so a partition file is
+* never left half written.
+*
+* The content of a file can be read into the heap or mapped into memory, in
+* which case the rows are decoded directly from the mapped region.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     Partition
+* @see     ColumnType
+*/
+final class PartitionFile {
+
+  /**
+  * The magic number at the beginning of every partition file, "HBPT" in ASCII
+  */
+  static final int MAGIC = 0x48425054;
+
+  /**
+  * The current version of the partition file format
+  */
+  static final short VERSION = 1;
+
+  /**
+  * The buffer containing the whole file
+  */
+  private final ByteBuffer buffer;
+
+  /**
+  * The partition ID stored in the file
+  */
+  private final int partitionNumber;
+
+  /**
+  * The type of the primary key
+  */
+  private final ColumnType keyType;
+
+  /**
+  * The type of every column when the file was written, by column index
+  */
+  private final ColumnType[] columnTypes;
+
+  /**
+  * The position of the first key
+  */
+  private final int keysPosition;
+
+  /**
+  * The position of the offsets table
+  */
+  private final int offsetsPosition;
+
+  /**
+  * The position of the first payload
+  */
+  private final int payloadPosition;
+
+  /**
+  * The number of rows in the file
+  */
+  private final int size;
+
+  /**
+  * Parses the header of a partition file
+  * @param  buffer            The content of the file, its position should be 0
+  * @throws HarambException   If the content is not a partition file or its version is not supported
+  */
+  PartitionFile(ByteBuffer buffer) throws HarambException {
+    this.buffer = buffer;
+    if (buffer.remaining() < 4 || buffer.getInt() != MAGIC) {
+      throw new HarambException("Not a partition file");
+    }
+    short version = buffer.getShort();
+    if (version != VERSION) {
+      throw new HarambException("Unsupported partition file version: " + version);
+    }
+    buffer.getShort();
+    this.partitionNumber = buffer.getInt();
+    this.size = buffer.getInt();
+    this.keyType = ColumnType.fromCode(buffer.get());
+    this.columnTypes = new ColumnType[buffer.getShort()];
+    for (int i = 0; i < columnTypes.length; i++) {
+      columnTypes[i] = ColumnType.fromCode(buffer.get());
+    }
+    this.offsetsPosition = buffer.getInt();
+    this.payloadPosition = buffer.getInt();
+    this.keysPosition = buffer.position();
+  }
+
+  /**
+  * Reads the content of a partition file
+  * @param  channel       The channel of the partition file
+  * @param  mapped        If the file should be mapped into memory instead of read into the heap
+  * @throws IOException   If there is an error reading or mapping the file
+  * @return               The content of the file
+  */
+  static ByteBuffer read(FileChannel channel, boolean mapped) throws IOException {
+    if (mapped) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+    while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+  * {@link PartitionFile#partitionNumber}
+  * @return The partition ID stored in the file
+  */
+  int partitionNumber() {
+    return partitionNumber;
+  }
+
+  /**
+  * {@link PartitionFile#keyType}
+  * @return The type of the primary key
+  */
+  ColumnType keyType() {
+    return keyType;
+  }
+
+  /**
+  * {@link PartitionFile#size}
+  * @return The number of rows in the file
+  */
+  int size() {
+    return size;
+  }
+
+  /**
+  * Decodes all the primary keys in the file
+  * @return The primary keys in ascending order
+  */
+  Object[] keys() {
+    Object[] keys = new Object[size];
+    ByteBuffer in = buffer.duplicate();
+    in.position(keysPosition);
+    for (int i = 0; i < size; i++) {
+      keys[i] = keyType.read(in);
+    }
+    return keys;
+  }
+
+  /**
+  * Decodes the row in the specified position
+  * @param  index The position of the row, it is the same as the position of its key
+  * @return       The decoded row
+  */
+  Row row(int index) {
+    ByteBuffer in = buffer.duplicate();
+    in.position(payloadPosition + in.getInt(offsetsPosition + 4 * index));
+    Object[] fields = new Object[in.getShort()];
+    byte[] nulls = new byte[(fields.length + 7) / 8];
+    in.get(nulls);
+    for (int i = 0; i < fields.length; i++) {
+      if ((nulls[i / 8] & (1 << (i % 8))) == 0) {
+        fields[i] = columnTypes[i].read(in);
+      }
+    }
+    return new HarambeRow(fields);
+  }
+
+  /**
+  * Calculates the size of a partition file without writing it
+  * @param  keyType           The type of the primary key
+  * @param  columns           The columns of the table
+  * @param  keys              The primary keys in ascending order
+  * @param  rows              The dictionary of primary keys mapping to rows
+  * @param  <PrimaryKey>      The data type of the primary key
+  * @return                   The size in bytes the partition file would have
+  */
+  static <PrimaryKey> long sizeOf(ColumnType keyType, ColumnList columns, List<PrimaryKey> keys, Dict<PrimaryKey, Row> rows) {
+    Column[] byIndex = byIndex(columns);
+    long size = 27 + byIndex.length + 4 * (keys.size() + 1);
+    for (PrimaryKey key : keys) {
+      size += keyType.sizeOf(key);
+      Row row = rows.getValue(key);
+      int fieldCount = Math.min(row.size(), byIndex.length);
+      size += 2 + (fieldCount + 7) / 8;
+      for (int i = 0; i < fieldCount; i++) {
+        Object field = row.get(byIndex[i]);
+        if (field != null) {
+          size += ColumnType.of(byIndex[i].type()).sizeOf(field);
+        }
+      }
+    }
+    return size;
+  }
+
+  /**
+  * Orders the columns of a table by their index
+  * @param  columns   The columns of the table
+  * @return           An array with every column in the position of its index
+  */
+  private static Column[] byIndex(ColumnList columns) {
+    Column[] byIndex = new Column[columns.size()];
+    for (Column col : columns) {
+      byIndex[col.index()] = col;
+    }
+    return byIndex;
+  }
+
+  /**
+  * Writes a partition file
+  * @param  path              The path of the partition file
+  * @param  partitionNumber   The partition ID
+  * @param  keyType           The type of the primary key
+  * @param  columns           The columns of the table
+  * @param  keys              The primary keys in ascending order
+  * @param  rows              The dictionary of primary keys mapping to rows
+  * @param  <PrimaryKey>      The data type of the primary key
+  * @throws HarambException   If there is an error writing the file
+  */
+  static <PrimaryKey> void write(String path, int partitionNumber, ColumnType keyType, ColumnList columns, List<PrimaryKey> keys, Dict<PrimaryKey, Row> rows) throws HarambException {
+    write(path, partitionNumber, keyType, columns, keys, rows, true);
+  }
+
+  /**
+  * Writes a partition file
+  * @param  path              The path of the partition file
+  * @param  partitionNumber   The partition ID
+  * @param  keyType           The type of the primary key
+  * @param  columns           The columns of the table
+  * @param  keys              The primary keys in ascending order
+  * @param  rows              The dictionary of primary keys mapping to rows
+  * @param  force             If the file is forced to the disk, otherwise it must be forced later with sync
+  * @param  <PrimaryKey>      The data type of the primary key
+  * @throws HarambException   If there is an error writing the file
+  */
+  static <PrimaryKey> void write(String path, int partitionNumber, ColumnType keyType, ColumnList columns, List<PrimaryKey> keys, Dict<PrimaryKey, Row> rows,
+  boolean force) throws HarambException {
+    Column[] byIndex = byIndex(columns);
+    try {
+      ByteArrayOutputStream keyBytes = new ByteArrayOutputStream();
+      ByteArrayOutputStream rowBytes = new ByteArrayOutputStream();
+      DataOutputStream keyOut = new DataOutputStream(keyBytes);
+      DataOutputStream rowOut = new DataOutputStream(rowBytes);
+      ByteBuffer offsets = ByteBuffer.allocate(4 * (keys.size() + 1));
+
+      for (PrimaryKey key : keys) {
+        keyType.write(keyOut, key);
+        offsets.putInt(rowOut.size());
+        Row row = rows.getValue(key);
+        // the row may be changed through a reference held outside the table
+        synchronized (row) {
+          int fieldCount = Math.min(row.size(), byIndex.length);
+          byte[] nulls = new byte[(fieldCount + 7) / 8];
+          for (int i = 0; i < fieldCount; i++) {
+            if (row.get(byIndex[i]) == null) {
+              nulls[i / 8] |= 1 << (i % 8);
+            }
+          }
+          rowOut.writeShort(fieldCount);
+          rowOut.write(nulls);
+          for (int i = 0; i < fieldCount; i++) {
+            Object field = row.get(byIndex[i]);
+            if (field != null) {
+              ColumnType.of(byIndex[i].type()).write(rowOut, field);
+            }
+          }
+        }
+      }
+      offsets.putInt(rowOut.size());
+      offsets.flip();
+
+      ByteBuffer header = ByteBuffer.allocate(27 + byIndex.length);
+      int keysPosition = header.capacity();
+      header.putInt(MAGIC).putShort(VERSION).putShort((short) 0)
+        .putInt(partitionNumber).putInt(keys.size()).put(keyType.code())
+        .putShort((short) byIndex.length);
+      for (Column col : byIndex) {
+        header.put(ColumnType.of(col.type()).code());
+      }
+      header.putInt(keysPosition + keyOut.size());
+      header.putInt(keysPosition + keyOut.size() + offsets.remaining());
+      header.flip();
+
+      Path target = Paths.get(path);
+      Path temporary = Paths.get(path + ".tmp");
+      ByteBuffer[] content = {header, ByteBuffer.wrap(keyBytes.toByteArray()), offsets, ByteBuffer.wrap(rowBytes.toByteArray())};
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+      StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        // the rows are empty when the partition has no rows, so every buffer is counted
+        long remaining = 0;
+        for (ByteBuffer buffer : content) {
+          remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+          remaining -= channel.write(content);
+        }
+        // the log is deleted after a checkpoint, so the file must be on the disk
+        if (force) {
+          channel.force(false);
+        }
+      }
+      Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new HarambException(e);
+    }
+  }
+
+  /**
+  * Forces a partition file written without forcing it to the disk
+  * @param  path              The path of the partition file
+  * @throws HarambException   If there is an error forcing the file
+  */
+  static void sync(String path) throws HarambException {
+    try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      channel.force(false);
+    } catch (IOException e) {
+      throw new HarambException(e);
+    }
+  }
+}
@@ -0,0 +1,832 @@
+package hdb.table;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import structures.list.ArrayLinearList;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import structures.dict.LinkedDict;
+import java.lang.ref.Reference;
+import java.util.HashSet;
+import java.util.Map;
+import hdb.table.column.ColumnList;
+import hdb.table.row.RowListener;
+import hdb.table.column.Column;
+import hdb.HarambException;
+import hdb.table.row.Row;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.io.File;
+
+/**
+* A bounded buffer pool of the partitions of a table. Instead of keeping a
+* single partition in memory the table pins the partition it needs and the pool
+* keeps the most recently used partitions loaded, so a workload that alternates
+* between key ranges does not save and read a .hbpt file on every call.
+*
+* The pool is bounded by a number of partitions and optionally by the estimated
+* size in bytes of the loaded partitions. The CLOCK algorithm chooses the
+* partition to evict, dirty partitions are written behind by a few threads
+* shared by every table, and partition files are read and written without
+* holding the lock of the pool.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     Table
+* @see     Partition
+*/
+class PartitionPool<PrimaryKey extends Comparable<? super PrimaryKey>> {
+
+  /**
+  * The default maximum number of partitions loaded at the same time
+  */
+  static final int DEFAULT_CAPACITY = 16;
+
+  /**
+  * The maximum number of evicted partitions of a table waiting to be written
+  */
+  static final int MAX_PENDING_WRITES = 4;
+
+  /**
+  * The threads that write the evicted dirty partitions of every table
+  */
+  private static final ExecutorService flushThreads = Executors.newFixedThreadPool(
+    Math.max(2, Runtime.getRuntime().availableProcessors() / 2), task -> {
+      Thread thread = new Thread(task, "HarambeDB flusher");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+  /**
+  * A loaded partition and its pool bookkeeping
+  */
+  private static class Frame<PrimaryKey extends Comparable<? super PrimaryKey>> {
+    final Partition<PrimaryKey> partition;
+    int pins;
+    boolean referenced;
+    long bytes;
+
+    Frame(Partition<PrimaryKey> partition) {
+      this.partition = partition;
+    }
+  }
+
+  /**
+  * The listener of a partition in the pool, it loads the partition again when
+  * it becomes dirty and forwards the changes of its fields to the change listener
+  */
+  private class PartitionListener implements RowListener {
+    final Partition<PrimaryKey> partition;
+
+    PartitionListener(Partition<PrimaryKey> partition) {
+      this.partition = partition;
+    }
+
+    public void rowChanged(Row row) {
+      changed(partition);
+    }
+
+    public void fieldChanging(Object key, Row row, Column column, Object value) {
+      RowListener changes = PartitionPool.this.changes;
+      if (changes != null) {
+        changes.fieldChanging(key, row, column, value);
+      }
+    }
+
+    public void fieldChanged(Object key, Row row, Column column, Object previous, Object value) {
+      RowListener changes = PartitionPool.this.changes;
+      if (changes != null) {
+        changes.fieldChanged(key, row, column, previous, value);
+      }
+    }
+  }
+
+  /**
+  * A weak reference to an evicted partition that remembers its ID, so it can be
+  * removed from the detached dictionary once it has been collected
+  */
+  private static class DetachedPartition<PrimaryKey extends Comparable<? super PrimaryKey>> extends WeakReference<Partition<PrimaryKey>> {
+    final int partitionNumber;
+
+    DetachedPartition(Partition<PrimaryKey> partition, ReferenceQueue<Partition<PrimaryKey>> queue) {
+      super(partition, queue);
+      this.partitionNumber = partition.partitionNumber();
+    }
+  }
+
+  /**
+  * The path to the table directory
+  */
+  private final String tablePath;
+
+  /**
+  * The columns of the table, used to decode the partitions
+  */
+  private final ColumnList columns;
+
+  /**
+  * The class of the primary key of the table
+  */
+  private final Class<?> keyType;
+
+  /**
+  * The sizer of the table, which is told the latency of every load
+  */
+  private final PartitionSizer sizer;
+
+  /**
+  * If the partition files are mapped into memory when they are loaded
+  */
+  private boolean mapped;
+
+  /**
+  * The listener told of every change of a field of a row in the partitions of
+  * the table, null if nobody listens
+  */
+  private volatile RowListener changes;
+
+  /**
+  * A dictionary of partition IDs mapping to the zone maps of the partitions,
+  * it is stored in the table file
+  */
+  private Map<Integer, ZoneMap> zoneMaps;
+
+  /**
+  * The loaded partitions in the order the clock hand visits them
+  */
+  private final ArrayLinearList<Frame<PrimaryKey>> frames;
+
+  /**
+  * A dictionary of partition IDs mapping to their frame
+  */
+  private final LinkedDict<Integer, Frame<PrimaryKey>> resident;
+
+  /**
+  * A dictionary of partition IDs mapping to evicted partitions that may still be reachable
+  */
+  private final LinkedDict<Integer, DetachedPartition<PrimaryKey>> detached;
+
+  /**
+  * The queue where collected detached partitions are enqueued
+  */
+  private final ReferenceQueue<Partition<PrimaryKey>> collected;
+
+  /**
+  * The IDs of the partitions whose files are being read
+  */
+  private final HashSet<Integer> loading;
+
+  /**
+  * A dictionary of partition IDs mapping to the evicted partitions that are
+  * waiting to be written or being written
+  */
+  private final LinkedDict<Integer, Partition<PrimaryKey>> writing;
+
+  /**
+  * The error of an evicted partition that could not be written behind, it is
+  * thrown by the next call to unpin or flush
+  */
+  private HarambException failure;
+
+  /**
+  * The number of callers that deferred the evictions, while it is positive no
+  * partition is evicted and unpin throws no error
+  */
+  private int deferrals;
+
+  /**
+  * The paths of the files of the discarded partitions
+  */
+  private final ArrayLinearList<String> discarded;
+
+  /**
+  * The position of the clock hand in the frames list
+  */
+  private int hand;
+
+  /**
+  * Maximum number of loaded partitions
+  */
+  private int maxPartitions;
+
+  /**
+  * Maximum estimated size in bytes of the loaded partitions, 0 if unbounded
+  */
+  private long maxBytes;
+
+  /**
+  * The estimated size in bytes of the loaded partitions
+  */
+  private long bytes;
+
+  /**
+  * Creates an empty pool for the partitions of a table
+  * @param  tablePath         The path to the table directory
+  * @param  columns           The columns of the table
+  * @param  keyType           The class of the primary key of the table
+  * @param  sizer             The sizer of the table
+  * @param  maxPartitions     The maximum number of loaded partitions
+  * @param  maxBytes          The maximum estimated size in bytes of the loaded partitions, 0 if unbounded
+  * @throws HarambException   If maxPartitions is less than one
+  */
+  PartitionPool(String tablePath, ColumnList columns, Class<?> keyType, PartitionSizer sizer, int maxPartitions, long maxBytes) throws HarambException {
+    this.tablePath = tablePath;
+    this.columns = columns;
+    this.keyType = keyType;
+    this.sizer = sizer;
+    this.frames = new ArrayLinearList<>(maxPartitions + 1);
+    this.resident = new LinkedDict<>();
+    this.detached = new LinkedDict<>();
+    this.collected = new ReferenceQueue<>();
+    this.discarded = new ArrayLinearList<>();
+    this.loading = new HashSet<>();
+    this.writing = new LinkedDict<>();
+    resize(maxPartitions, maxBytes);
+  }
+
+  /**
+  * Changes the bounds of the pool, evicting partitions if necessary
+  * @param  maxPartitions     The maximum number of loaded partitions
+  * @param  maxBytes          The maximum estimated size in bytes of the loaded partitions, 0 if unbounded
+  * @throws HarambException   If maxPartitions is less than one or there is an error writing an evicted partition
+  */
+  void resize(int maxPartitions, long maxBytes) throws HarambException {
+    if (maxPartitions < 1) {
+      throw new HarambException("The buffer pool must hold at least one partition");
+    }
+    ArrayLinearList<Partition<PrimaryKey>> evicted;
+    synchronized (this) {
+      this.maxPartitions = maxPartitions;
+      this.maxBytes = Math.max(maxBytes, 0);
+      evicted = evict();
+    }
+    write(evicted);
+  }
+
+  /**
+  * Changes how the partitions are loaded, the partitions already loaded are not affected
+  * @param  mapped  If the partition files should be mapped into memory and their rows decoded lazily
+  */
+  synchronized void setMapped(boolean mapped) {
+    this.mapped = mapped;
+  }
+
+  /**
+  * Sets the listener told of every change of a field of a row in the partitions
+  * of the table, it is called without holding the lock of the pool
+  * @param  changes   The listener, null to remove the current one
+  */
+  void setChangeListener(RowListener changes) {
+    this.changes = changes;
+  }
+
+  /**
+  * Sets the zone maps of the partitions of the table, which are given to the
+  * partitions when they are loaded and updated when they are written
+  * @param  zoneMaps  A dictionary of partition IDs mapping to zone maps
+  */
+  synchronized void setZoneMaps(Map<Integer, ZoneMap> zoneMaps) {
+    this.zoneMaps = zoneMaps;
+  }
+
+  /**
+  * Forgets the zone maps of every partition, including the ones given to the
+  * partitions in memory, they are known again when the partitions are written
+  */
+  synchronized void forgetZoneMaps() {
+    if (zoneMaps != null) {
+      zoneMaps.clear();
+    }
+    for (Frame<PrimaryKey> frame : frames) {
+      frame.partition.setZoneMap(null);
+    }
+    for (DetachedPartition<PrimaryKey> ref : detached.values()) {
+      Partition<PrimaryKey> partition = ref.get();
+      if (partition != null) {
+        partition.setZoneMap(null);
+      }
+    }
+  }
+
+  /**
+  * Stores the zone map of a partition, if it is known
+  * @param  partition   The partition
+  */
+  private void storeZoneMap(Partition<PrimaryKey> partition) {
+    ZoneMap zoneMap = partition.zoneMap();
+    if (zoneMaps != null && zoneMap != null) {
+      zoneMaps.put(partition.partitionNumber(), zoneMap);
+    }
+  }
+
+  /**
+  * Retrieves a partition and pins it, so it won't be evicted until it is unpinned.
+  * Every call to pin should be followed by a call to unpin. The partition file
+  * is read without the lock of the pool, so partitions are loaded by several
+  * threads at once, a thread that pins a partition another thread is loading
+  * waits for it.
+  * @param  partitionNumber   The ID of the partition
+  * @throws HarambException   If there is an error reading or writing a partition file
+  * @return                   The pinned partition
+  */
+  Partition<PrimaryKey> pin(int partitionNumber) throws HarambException {
+    synchronized (this) {
+      Frame<PrimaryKey> frame = loaded(partitionNumber);
+      if (frame != null) {
+        frame.pins++;
+        return frame.partition;
+      }
+      loading.add(partitionNumber);
+    }
+    Partition<PrimaryKey> partition = null;
+    try {
+      partition = read(partitionNumber);
+    } finally {
+      synchronized (this) {
+        loading.remove(partitionNumber);
+        notifyAll();
+        if (partition != null) {
+          bind(partition);
+          frame(partition).pins++;
+        }
+      }
+    }
+    return partition;
+  }
+
+  /**
+  * Retrieves a partition without pinning it, the partition may be evicted at any
+  * time after this call but it remains usable by the caller.
+  * @param  partitionNumber   The ID of the partition
+  * @throws HarambException   If there is an error reading or writing a partition file
+  * @return                   The partition
+  */
+  Partition<PrimaryKey> get(int partitionNumber) throws HarambException {
+    Partition<PrimaryKey> partition = pin(partitionNumber);
+    unpin(partition);
+    return partition;
+  }
+
+  /**
+  * Adds a newly created partition to the pool, the partition is pinned.
+  * @param  partition         The new partition
+  * @throws HarambException   If there is an error writing an evicted partition
+  */
+  void admit(Partition<PrimaryKey> partition) throws HarambException {
+    ArrayLinearList<Partition<PrimaryKey>> evicted;
+    synchronized (this) {
+      Frame<PrimaryKey> frame = new Frame<>(partition);
+      frame.pins++;
+      frame.referenced = true;
+      frames.add(frame);
+      resident.add(partition.partitionNumber(), frame);
+      partition.setListener(new PartitionListener(partition));
+      storeZoneMap(partition);
+      evicted = evict();
+    }
+    write(evicted);
+  }
+
+  /**
+  * Releases a pin obtained with pin or admit
+  * @param  partition         The pinned partition
+  * @throws HarambException   If there is an error writing an evicted partition, or
+  *                           an evicted partition could not be written behind
+  */
+  void unpin(Partition<PrimaryKey> partition) throws HarambException {
+    ArrayLinearList<Partition<PrimaryKey>> evicted;
+    synchronized (this) {
+      Frame<PrimaryKey> frame = resident.getValue(partition.partitionNumber());
+      if (frame != null && frame.pins > 0) {
+        frame.pins--;
+      }
+      evicted = evict();
+    }
+    write(evicted);
+    synchronized (this) {
+      if (deferrals == 0) {
+        rethrow();
+      }
+    }
+  }
+
+  /**
+  * Defers the evictions until resumeEvictions, so pinning a resident partition
+  * and unpinning it writes no partition file and throws no error. The pool
+  * grows past its bounds meanwhile.
+  */
+  synchronized void deferEvictions() {
+    deferrals++;
+  }
+
+  /**
+  * Ends a deferral started by deferEvictions, the pool is brought back to its
+  * bounds by the next call to unpin or admit
+  */
+  synchronized void resumeEvictions() {
+    if (deferrals > 0) {
+      deferrals--;
+    }
+  }
+
+  /**
+  * Writes every dirty partition in the pool to its partition file, after
+  * waiting for the evicted partitions that are being written. The partitions
+  * that could not be written behind are written again. The dirty partitions
+  * are written without the lock of the pool and can't be pinned until they
+  * are written, like the partitions written behind.
+  * @throws HarambException   If there is an error writing a partition file, an evicted
+  *                           partition could not be written behind or the thread is interrupted while it waits
+  */
+  void flush() throws HarambException {
+    ArrayLinearList<Partition<PrimaryKey>> dirty = new ArrayLinearList<>();
+    synchronized (this) {
+      while (!writing.isEmpty()) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new HarambException(e);
+        }
+      }
+      for (Frame<PrimaryKey> frame : frames) {
+        if (frame.partition.isDirty()) {
+          dirty.add(frame.partition);
+          writing.add(frame.partition.partitionNumber(), frame.partition);
+        }
+      }
+    }
+    HarambException error = null;
+    for (Partition<PrimaryKey> partition : dirty) {
+      HarambException failed = null;
+      try {
+        partition.save();
+      } catch (HarambException e) {
+        failed = e;
+      } catch (RuntimeException e) {
+        failed = new HarambException(e);
+      }
+      synchronized (this) {
+        writing.remove(partition.partitionNumber());
+        if (failed == null) {
+          written(partition);
+        } else if (error == null) {
+          error = failed;
+        }
+        notifyAll();
+      }
+    }
+    synchronized (this) {
+      if (error != null) {
+        throw error;
+      }
+      rethrow();
+    }
+  }
+
+  /**
+  * Writes a partition to its file now, it is used when the file must be on the
+  * disk before other partitions are written
+  * @param  partition         The pinned partition
+  * @throws HarambException   If there is an error writing the partition file
+  */
+  void save(Partition<PrimaryKey> partition) throws HarambException {
+    save(partition, true);
+  }
+
+  /**
+  * Writes a partition to its file now, without the lock of the pool
+  * @param  partition         The pinned partition
+  * @param  force             If the file is forced to the disk, see Partition.save
+  * @throws HarambException   If there is an error writing the partition file
+  */
+  void save(Partition<PrimaryKey> partition, boolean force) throws HarambException {
+    partition.save(force);
+    synchronized (this) {
+      written(partition);
+    }
+  }
+
+  /**
+  * Stores the zone map of a partition that was written and updates the size
+  * of its frame, if it is in the pool
+  * @param  partition   The written partition
+  */
+  private void written(Partition<PrimaryKey> partition) {
+    storeZoneMap(partition);
+    Frame<PrimaryKey> frame = resident.getValue(partition.partitionNumber());
+    if (frame != null && frame.partition == partition) {
+      bytes += fileSize(partition) - frame.bytes;
+      frame.bytes = fileSize(partition);
+    }
+  }
+
+  /**
+  * Removes a partition that is no longer in the table from the pool, even if
+  * it is pinned, without saving it. Its file is deleted by deleteDiscarded.
+  * @param  partition   The partition to discard
+  */
+  synchronized void discard(Partition<PrimaryKey> partition) {
+    int partitionNumber = partition.partitionNumber();
+    Frame<PrimaryKey> frame = resident.getValue(partitionNumber);
+    if (frame != null) {
+      for (int i = 0; i < frames.size(); i++) {
+        if (frames.get(i) == frame) {
+          frames.remove(i);
+          if (hand > i) {
+            hand--;
+          }
+          break;
+        }
+      }
+      resident.remove(partitionNumber);
+      bytes -= frame.bytes;
+    }
+    if (detached.getValue(partitionNumber) != null) {
+      detached.remove(partitionNumber);
+    }
+    partition.setListener(null);
+    if (zoneMaps != null) {
+      zoneMaps.remove(partitionNumber);
+    }
+    discarded.add(partition.path());
+  }
+
+  /**
+  * Deletes the files of the discarded partitions, it should be called after
+  * the table file is saved
+  * @throws HarambException   If there is an error deleting a file
+  */
+  synchronized void deleteDiscarded() throws HarambException {
+    try {
+      while (!discarded.empty()) {
+        Files.deleteIfExists(Paths.get(discarded.get(discarded.size() - 1)));
+        discarded.remove(discarded.size() - 1);
+      }
+    } catch (Exception e) {
+      throw new HarambException(e);
+    }
+  }
+
+  /**
+  * Called when a clean partition becomes dirty, if the partition has been
+  * evicted it is loaded again so the change is not lost
+  * @param  partition         The modified partition
+  * @throws HarambException   If there is an error writing an evicted partition
+  */
+  void changed(Partition<PrimaryKey> partition) throws HarambException {
+    ArrayLinearList<Partition<PrimaryKey>> evicted;
+    synchronized (this) {
+      int partitionNumber = partition.partitionNumber();
+      if (resident.getValue(partitionNumber) != null) {
+        return;
+      }
+      if (detached.getValue(partitionNumber) != null) {
+        detached.remove(partitionNumber);
+      }
+      frame(partition);
+      evicted = evict();
+    }
+    write(evicted);
+  }
+
+  /**
+  * Returns the frame of a partition that is in memory, the partition is loaded
+  * again into the pool if it was evicted but is still reachable. If another
+  * thread is reading or writing the partition file it waits until it is done.
+  * @param  partitionNumber   The ID of the partition
+  * @throws HarambException   If the thread is interrupted while it waits
+  * @return                   The frame of the partition, null if the partition file must be read
+  */
+  private Frame<PrimaryKey> loaded(int partitionNumber) throws HarambException {
+    while (loading.contains(partitionNumber) || writing.getValue(partitionNumber) != null) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new HarambException(e);
+      }
+    }
+    Frame<PrimaryKey> frame = resident.getValue(partitionNumber);
+    if (frame != null) {
+      frame.referenced = true;
+      return frame;
+    }
+    expunge();
+    DetachedPartition<PrimaryKey> ref = detached.getValue(partitionNumber);
+    if (ref != null) {
+      detached.remove(partitionNumber);
+      Partition<PrimaryKey> partition = ref.get();
+      if (partition != null) {
+        storeZoneMap(partition);
+        return frame(partition);
+      }
+    }
+    return null;
+  }
+
+  /**
+  * Adds a frame for a partition that is not in the pool
+  * @param  partition   The partition
+  * @return             The frame of the partition
+  */
+  private Frame<PrimaryKey> frame(Partition<PrimaryKey> partition) {
+    Frame<PrimaryKey> frame = new Frame<>(partition);
+    frame.bytes = fileSize(partition);
+    frame.referenced = true;
+    bytes += frame.bytes;
+    frames.add(frame);
+    resident.add(partition.partitionNumber(), frame);
+    return frame;
+  }
+
+  /**
+  * Reads a partition from its partition file, it is called without the lock
+  * of the pool. If the rows are decoded and no zone map is stored for the
+  * partition one is computed from its rows.
+  * @param  partitionNumber   The ID of the partition
+  * @throws HarambException   If there is an error reading the partition file
+  * @return                   The partition
+  */
+  private Partition<PrimaryKey> read(int partitionNumber) throws HarambException {
+    boolean mapped;
+    Map<Integer, ZoneMap> zoneMaps;
+    synchronized (this) {
+      mapped = this.mapped;
+      zoneMaps = this.zoneMaps;
+    }
+    long start = System.nanoTime();
+    Partition<PrimaryKey> partition = Partition.load(tablePath, partitionNumber, columns, keyType, mapped);
+    sizer.loaded(fileSize(partition), System.nanoTime() - start);
+    if (!mapped && (zoneMaps == null || zoneMaps.get(partitionNumber) == null)) {
+      partition.setZoneMap(ZoneMap.of(partition.rows(), columns));
+    }
+    return partition;
+  }
+
+  /**
+  * Listens to the changes of a partition read from its file and gives it the
+  * zone map stored for it, or stores the one computed from its rows
+  * @param  partition   The partition
+  */
+  private void bind(Partition<PrimaryKey> partition) {
+    partition.setListener(new PartitionListener(partition));
+    ZoneMap zoneMap = zoneMaps != null ? zoneMaps.get(partition.partitionNumber()) : null;
+    if (zoneMap != null) {
+      partition.setZoneMap(zoneMap);
+    } else {
+      storeZoneMap(partition);
+    }
+  }
+
+  /**
+  * Tells if the pool holds more partitions than it should
+  * @return If some partition should be evicted
+  */
+  private boolean overCapacity() {
+    return frames.size() > maxPartitions || (maxBytes > 0 && bytes > maxBytes && frames.size() > 1);
+  }
+
+  /**
+  * Evicts unpinned partitions using the CLOCK algorithm until the pool is within
+  * its bounds or every remaining partition is pinned, the dirty partitions are
+  * written behind unless too many are waiting to be written. Then they are
+  * returned to be written by the caller with write, once it releases the lock.
+  * @return The evicted partitions the caller must write, null if there are none
+  */
+  private ArrayLinearList<Partition<PrimaryKey>> evict() {
+    ArrayLinearList<Partition<PrimaryKey>> owed = null;
+    if (deferrals > 0) {
+      return owed;
+    }
+    int steps = frames.size() * 2;
+    while (overCapacity() && steps-- > 0) {
+      if (hand >= frames.size()) {
+        hand = 0;
+      }
+      Frame<PrimaryKey> frame = frames.get(hand);
+      if (frame.pins > 0 || writing.getValue(frame.partition.partitionNumber()) != null) {
+        // a partition loaded again while it is written is evicted once it is written
+        hand++;
+      } else if (frame.referenced) {
+        frame.referenced = false;
+        hand++;
+      } else {
+        Partition<PrimaryKey> partition = frame.partition;
+        frames.remove(hand);
+        resident.remove(partition.partitionNumber());
+        bytes -= frame.bytes;
+        if (!partition.isDirty()) {
+          detached.add(partition.partitionNumber(), new DetachedPartition<>(partition, collected));
+        } else if (writing.getSize() < MAX_PENDING_WRITES) {
+          writing.add(partition.partitionNumber(), partition);
+          flushThreads.execute(() -> writeBehind(partition));
+        } else {
+          // the writers are behind, the partition is written by this thread
+          writing.add(partition.partitionNumber(), partition);
+          if (owed == null) {
+            owed = new ArrayLinearList<>();
+          }
+          owed.add(partition);
+        }
+      }
+    }
+    return owed;
+  }
+
+  /**
+  * Writes the partitions an eviction left to the calling thread, which must
+  * not hold the lock of the pool, and throws the error of a partition that
+  * could not be written
+  * @param  evicted           The partitions returned by evict, null if there are none
+  * @throws HarambException   If there is an error writing an evicted partition
+  */
+  private void write(ArrayLinearList<Partition<PrimaryKey>> evicted) throws HarambException {
+    if (evicted == null) {
+      return;
+    }
+    for (Partition<PrimaryKey> partition : evicted) {
+      writeBehind(partition);
+    }
+    synchronized (this) {
+      rethrow();
+    }
+  }
+
+  /**
+  * Writes an evicted partition in a flusher thread or in the thread that
+  * evicted it, without holding the lock of the pool. The partition can't be pinned until it is written, and every
+  * row is encoded holding its lock, so the rows changed through references
+  * held by the users of the table are written either before or after the
+  * change. If the partition can't be written it is loaded again into the pool,
+  * still dirty, and the error is thrown by the next call to unpin or flush.
+  * @param  partition   The evicted partition
+  */
+  private void writeBehind(Partition<PrimaryKey> partition) {
+    HarambException error = null;
+    try {
+      partition.save();
+    } catch (HarambException e) {
+      error = e;
+    } catch (RuntimeException e) {
+      error = new HarambException(e);
+    }
+    synchronized (this) {
+      int partitionNumber = partition.partitionNumber();
+      writing.remove(partitionNumber);
+      if (error != null && failure == null) {
+        failure = error;
+      }
+      if (error == null) {
+        storeZoneMap(partition);
+      }
+      if (resident.getValue(partitionNumber) != null) {
+        // one of its rows changed while it was written
+      } else if (error == null) {
+        detached.add(partitionNumber, new DetachedPartition<>(partition, collected));
+      } else {
+        frame(partition);
+      }
+      notifyAll();
+    }
+  }
+
+  /**
+  * Throws the error of the last evicted partition that could not be written behind, once
+  * @throws HarambException   If an evicted partition could not be written behind
+  */
+  private void rethrow() throws HarambException {
+    if (failure != null) {
+      HarambException error = failure;
+      failure = null;
+      throw error;
+    }
+  }
+
+  /**
+  * Removes the collected partitions from the detached dictionary
+  */
+  @SuppressWarnings("unchecked")
+  private void expunge() {
+    Reference<? extends Partition<PrimaryKey>> ref;
+    while ((ref = collected.poll()) != null) {
+      DetachedPartition<PrimaryKey> partition = (DetachedPartition<PrimaryKey>) ref;
+      if (detached.getValue(partition.partitionNumber) == partition) {
+        detached.remove(partition.partitionNumber);
+      }
+    }
+  }
+
+  /**
+  * The estimated size of a partition, which is the size of its partition file
+  * @param  partition The partition
+  * @return           The estimated size in bytes of the partition
+  */
+  private static long fileSize(Partition<?> partition) {
+    return new File(partition.path()).length();
+  }
+}
@@ -0,0 +1,224 @@
+package hdb.table;
+
+import java.io.Serializable;
+
+/**
+* Decides when a partition is big enough to be divided and when neighbouring
+* partitions are small enough to be merged. The size of the
+* partitions of a table can be bounded by a number of rows, by a target size in
+* bytes of the partition file, or adaptively, in which case the target size is
+* chosen from the measured latency of loading partition files.
+*
+* Measuring the size of a partition requires encoding its rows, so it is not
+* done on every insertion: the sizer keeps the average size of a row from the
+* last measurement and only measures a partition again once it has more rows
+* than that average allows. The settings are stored in the table file, the
+* measurements are not.
+*
+* A partition is underfilled when it holds a quarter of its size or less, and
+* two neighbouring partitions are merged only if the result holds three
+* quarters of the size or less, so a merged partition is not divided again by
+* the next insertions.
+*
+* In the adaptive mode every partition load is timed and a line is fitted to the
+* load latency as a function of the file size, the target size is the one that
+* makes the fixed cost of a load a tenth of the total load latency. Until there
+* are enough loads to fit the line the default target size is used.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     Table
+* @see     Table.PartitionSizing
+*/
+class PartitionSizer implements Serializable {
+
+  /**
+  * The default maximum number of rows in a partition
+  */
+  static final int DEFAULT_ROWS = 50;
+
+  /**
+  * The default target size in bytes of a partition file
+  */
+  static final long DEFAULT_BYTES = 64 * 1024;
+
+  /**
+  * Bounds of the target size chosen by the adaptive mode
+  */
+  static final long MIN_ADAPTIVE_BYTES = 16 * 1024, MAX_ADAPTIVE_BYTES = 4 * 1024 * 1024;
+
+  /**
+  * Bounds of the number of rows of a partition sized by bytes
+  */
+  static final int MIN_ROWS = 8, MAX_ROWS = 1 << 16;
+
+  /**
+  * The number of timed loads needed before the adaptive mode uses them
+  */
+  private static final int MIN_SAMPLES = 4;
+
+  /**
+  * How partitions are sized
+  */
+  private Table.PartitionSizing mode = Table.PartitionSizing.ROWS;
+
+  /**
+  * The maximum number of rows in a partition when sizing by rows
+  */
+  private int maxRows = DEFAULT_ROWS;
+
+  /**
+  * The target size in bytes of a partition file when sizing by bytes
+  */
+  private long targetBytes = DEFAULT_BYTES;
+
+  /**
+  * The number of rows a partition can hold before it is measured again
+  */
+  private transient int estimatedRows;
+
+  /**
+  * Sums used to fit the load latency to the file size: number of samples,
+  * sum of sizes, sum of latencies, sum of squared sizes and sum of products
+  */
+  private transient double n, sx, sy, sxx, sxy;
+  private static final long serialVersionUID = 31L;
+
+  /**
+  * Sizes partitions by a number of rows
+  * @param  maxRows   The maximum number of rows in a partition
+  */
+  synchronized void byRows(int maxRows) {
+    this.mode = Table.PartitionSizing.ROWS;
+    this.maxRows = maxRows;
+  }
+
+  /**
+  * Sizes partitions by the size of their files
+  * @param  targetBytes   The target size in bytes of a partition file
+  */
+  synchronized void byBytes(long targetBytes) {
+    this.mode = Table.PartitionSizing.BYTES;
+    this.targetBytes = targetBytes;
+    this.estimatedRows = 0;
+  }
+
+  /**
+  * Sizes partitions by a target size chosen from the measured load latency
+  */
+  synchronized void adaptive() {
+    this.mode = Table.PartitionSizing.ADAPTIVE;
+    this.estimatedRows = 0;
+  }
+
+  /**
+  * {@link PartitionSizer#mode}
+  * @return How partitions are sized
+  */
+  Table.PartitionSizing mode() {
+    return mode;
+  }
+
+  /**
+  * Records the latency of loading a partition file
+  * @param  bytes   The size of the partition file
+  * @param  nanos   The time it took to load the partition
+  */
+  synchronized void loaded(long bytes, long nanos) {
+    n++;
+    sx += bytes;
+    sy += nanos;
+    sxx += (double) bytes * bytes;
+    sxy += (double) bytes * nanos;
+  }
+
+  /**
+  * The target size in bytes of a partition file
+  * @return The target size in bytes, from the settings or from the load latency
+  */
+  synchronized long targetBytes() {
+    if (mode != Table.PartitionSizing.ADAPTIVE) {
+      return targetBytes;
+    }
+    double denominator = n * sxx - sx * sx;
+    if (n < MIN_SAMPLES || denominator <= 0) {
+      return DEFAULT_BYTES;
+    }
+    double nanosPerByte = (n * sxy - sx * sy) / denominator;
+    double fixedNanos = (sy - nanosPerByte * sx) / n;
+    if (nanosPerByte <= 0 || fixedNanos <= 0) {
+      return DEFAULT_BYTES;
+    }
+    long target = (long) (9 * fixedNanos / nanosPerByte);
+    return Math.max(MIN_ADAPTIVE_BYTES, Math.min(MAX_ADAPTIVE_BYTES, target));
+  }
+
+  /**
+  * Tells if a partition has grown past its size and should be divided
+  * @param  partition         The pinned partition
+  * @return                   If the partition should be divided
+  */
+  synchronized boolean shouldDivide(Partition<?> partition) {
+    int rows = partition.size();
+    if (mode == Table.PartitionSizing.ROWS) {
+      return rows > maxRows;
+    }
+    if (rows <= MIN_ROWS || rows <= estimatedRows) {
+      return false;
+    }
+    if (rows > MAX_ROWS) {
+      return true;
+    }
+    long bytes = partition.byteSize();
+    long target = targetBytes();
+    double rowBytes = Math.max(1.0, (double) bytes / rows);
+    estimatedRows = (int) Math.min(MAX_ROWS, target / rowBytes);
+    return bytes > target;
+  }
+
+  /**
+  * Estimates how many rows of a partition fit in a partition of the right size
+  * @param  partition   The pinned partition
+  * @return             The maximum number of rows of a partition like this one
+  */
+  synchronized int maxRows(Partition<?> partition) {
+    if (mode == Table.PartitionSizing.ROWS) {
+      return maxRows;
+    }
+    int rows = Math.max(1, partition.size());
+    double rowBytes = Math.max(1.0, (double) partition.byteSize() / rows);
+    return (int) Math.max(MIN_ROWS, Math.min(MAX_ROWS, targetBytes() / rowBytes));
+  }
+
+  /**
+  * Tells if a partition has so few rows that it should be merged with one of
+  * its neighbours
+  * @param  partition   The pinned partition
+  * @return             If the partition is underfilled
+  */
+  synchronized boolean underfilled(Partition<?> partition) {
+    if (mode == Table.PartitionSizing.ROWS) {
+      return partition.size() <= maxRows / 4;
+    } else if (estimatedRows > 0) {
+      return partition.size() <= estimatedRows / 4;
+    }
+    return partition.byteSize() <= targetBytes() / 4;
+  }
+
+  /**
+  * Tells if two neighbouring partitions fit together in a single partition
+  * @param  left    The pinned partition with the smaller keys
+  * @param  right   The pinned partition with the bigger keys
+  * @return         If the partitions should be merged
+  */
+  synchronized boolean canMerge(Partition<?> left, Partition<?> right) {
+    if (mode == Table.PartitionSizing.ROWS) {
+      return left.size() + right.size() <= maxRows * 3 / 4;
+    }
+    return left.byteSize() + right.byteSize() <= targetBytes() * 3 / 4;
+  }
+}
@@ -0,0 +1,142 @@
+package hdb.table;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.Collection;
+import java.util.Collections;
+import hdb.table.row.Row;
+
+/**
+* The previous versions of the rows of a table that the open snapshots may
+* need. Before a row is changed, added or removed, while a snapshot is open, a
+* copy of the row as it was is kept with the version of the change, null if the
+* row did not exist. A snapshot reads a row as the copy kept by the first change
+* after the snapshot was taken, or as the row in the table if it has not
+* changed since then.
+*
+* The versions of every row are kept from the newest to the oldest, they are
+* reclaimed when the snapshots that need them are closed, see Versions.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     Versions
+* @see     Snapshot
+*/
+class RowHistory<PrimaryKey extends Comparable<? super PrimaryKey>> {
+
+  /**
+  * A previous version of a row
+  */
+  private static class Version {
+    final long stamp;
+    final Row image;
+    volatile Version older;
+
+    Version(long stamp, Row image) {
+      this.stamp = stamp;
+      this.image = image;
+    }
+  }
+
+  /**
+  * A dictionary of primary keys mapping to the newest previous version of their rows
+  */
+  private final ConcurrentSkipListMap<PrimaryKey, Version> versions = new ConcurrentSkipListMap<>();
+
+  /**
+  * Keeps a row as it was before a change
+  * @param  key     The primary key of the row
+  * @param  stamp   The version of the change
+  * @param  image   A copy of the row before the change, null if it did not exist
+  */
+  void record(PrimaryKey key, long stamp, Row image) {
+    versions.compute(key, (k, newest) -> {
+      Version version = new Version(stamp, image);
+      if (newest == null || newest.stamp < stamp) {
+        version.older = newest;
+        return version;
+      }
+      // a change stamped earlier was recorded later
+      Version previous = newest;
+      while (previous.older != null && previous.older.stamp > stamp) {
+        previous = previous.older;
+      }
+      version.older = previous.older;
+      previous.older = version;
+      return newest;
+    });
+  }
+
+  /**
+  * Reads a row as a snapshot sees it, if the row is in the table the caller
+  * must hold the lock of the row so it is not changed meanwhile
+  * @param  key       The primary key of the row
+  * @param  snapshot  The version of the snapshot
+  * @param  current   The row in the table, null if it is not in the table
+  * @return           A copy of the row as the snapshot sees it, null if it did not exist
+  */
+  Row read(PrimaryKey key, long snapshot, Row current) {
+    Version first = null;
+    for (Version version = versions.get(key); version != null && version.stamp > snapshot; version = version.older) {
+      first = version;
+    }
+    Row row = first != null ? first.image : current;
+    return row != null ? row.copy() : null;
+  }
+
+  /**
+  * Tells if a row was changed, added or removed after a snapshot was taken,
+  * the snapshot must still be open
+  * @param  key       The primary key of the row
+  * @param  snapshot  The version of the snapshot
+  * @return           If a change of the row was stamped after the snapshot
+  */
+  boolean changedAfter(PrimaryKey key, long snapshot) {
+    Version newest = versions.get(key);
+    return newest != null && newest.stamp > snapshot;
+  }
+
+  /**
+  * The primary keys of the rows with previous versions in a range, from a key,
+  * inclusive, to another, exclusive
+  * @param  from  The lower bound of the keys, null for no lower bound
+  * @param  to    The upper bound of the keys, null for no upper bound
+  * @return       The keys in ascending order
+  */
+  Collection<PrimaryKey> keys(PrimaryKey from, PrimaryKey to) {
+    if (versions.isEmpty()) {
+      return Collections.emptySet();
+    } else if (from == null && to == null) {
+      return versions.keySet();
+    } else if (from == null) {
+      return versions.headMap(to).keySet();
+    } else if (to == null) {
+      return versions.tailMap(from).keySet();
+    }
+    return versions.subMap(from, to).keySet();
+  }
+
+  /**
+  * Forgets the versions no open snapshot needs
+  * @param  bound   The versions of the changes stamped up to this version are
+  *                 forgotten, every open snapshot is of a later version
+  */
+  void prune(long bound) {
+    for (PrimaryKey key : versions.keySet()) {
+      versions.computeIfPresent(key, (k, newest) -> {
+        if (newest.stamp <= bound) {
+          return null;
+        }
+        Version version = newest;
+        while (version.older != null && version.older.stamp > bound) {
+          version = version.older;
+        }
+        version.older = null;
+        return newest;
+      });
+    }
+  }
+}
@@ -0,0 +1,299 @@
+package hdb.table;
+
+import java.nio.file.StandardCopyOption;
+import structures.list.SortedArrayList;
+import structures.node.KeyValueNode;
+import java.io.ObjectOutputStream;
+import java.io.ObjectInputStream;
+import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.Serializable;
+import java.io.IOException;
+import hdb.HarambException;
+import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import structures.tree.AVL;
+import java.util.HashMap;
+import java.io.File;
+
+/**
+* An index of the values of a column of a table. It maps every value to the
+* sorted primary keys of the rows that have it, null values are not indexed.
+* Hash indexes keep the values in a hash table, ordered indexes keep them in an
+* AVL tree, so they can also find the rows with values in a range, in the order
+* of the values.
+*
+* The definition of the index is stored in the table file, its entries are
+* stored in a .hbix file in the table directory when the table is saved. The
+* entries are updated on every change of the column, but the index file may be
+* older or newer than the partitions after a crash, so an index can have entries
+* of values the rows no longer have: the table checks the rows it reads through
+* the index and removes the stale entries it finds. An index never lacks the
+* entry of a value a row has.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     Table
+* @see     Table.IndexType
+*/
+class SecondaryIndex<PrimaryKey extends Comparable<? super PrimaryKey>> implements Serializable {
+
+  /**
+  * The extension of the index files
+  */
+  static final String extension = ".hbix";
+
+  /**
+  * The name of the indexed column
+  */
+  private final String columnName;
+
+  /**
+  * The kind of index
+  */
+  private final Table.IndexType type;
+
+  /**
+  * A dictionary of values mapping to the primary keys of the rows that have
+  * them, null if the index is ordered
+  */
+  private transient HashMap<Object, SortedArrayList<PrimaryKey>> entries;
+
+  /**
+  * A tree of values mapping to the primary keys of the rows that have them,
+  * null if the index is a hash index
+  */
+  private transient AVL<Comparable<Object>, SortedArrayList<PrimaryKey>> ordered;
+
+  /**
+  * If the entries changed since the index file was written
+  */
+  private transient boolean dirty;
+  private static final long serialVersionUID = 41L;
+
+  /**
+  * Creates an empty index
+  * @param  columnName  The name of the indexed column
+  * @param  type        The kind of index
+  */
+  SecondaryIndex(String columnName, Table.IndexType type) {
+    this.columnName = columnName;
+    this.type = type;
+    this.dirty = true;
+    create();
+  }
+
+  /**
+  * Creates the empty structure of the entries for the kind of index
+  */
+  private void create() {
+    if (type == Table.IndexType.ORDERED) {
+      ordered = new AVL<>();
+    } else {
+      entries = new HashMap<>();
+    }
+  }
+
+  /**
+  * Looks for the primary keys of the rows with a value
+  * @param  value   The value of the indexed column
+  * @return         The sorted primary keys, null if no row has the value
+  */
+  @SuppressWarnings("unchecked")
+  private SortedArrayList<PrimaryKey> keys(Object value) {
+    return ordered != null ? ordered.get((Comparable<Object>) value) : entries.get(value);
+  }
+
+  /**
+  * {@link SecondaryIndex#columnName}
+  * @return The name of the indexed column
+  */
+  String columnName() {
+    return columnName;
+  }
+
+  /**
+  * {@link SecondaryIndex#type}
+  * @return The kind of index
+  */
+  Table.IndexType type() {
+    return type;
+  }
+
+  /**
+  * Adds the entry of a row, nothing is done if the value is null or the entry exists
+  * @param  value   The value of the indexed column in the row
+  * @param  key     The primary key of the row
+  */
+  @SuppressWarnings("unchecked")
+  synchronized void add(Object value, PrimaryKey key) {
+    if (value == null) {
+      return;
+    }
+    SortedArrayList<PrimaryKey> keys = keys(value);
+    if (keys == null) {
+      keys = new SortedArrayList<>(1);
+      if (ordered != null) {
+        ordered.add((Comparable<Object>) value, keys);
+      } else {
+        entries.put(value, keys);
+      }
+    }
+    int position = keys.search(key);
+    if (position < 0) {
+      keys.add(-(position + 1), key);
+      dirty = true;
+    }
+  }
+
+  /**
+  * Removes the entry of a row, nothing is done if there is no such entry
+  * @param  value   The value of the indexed column in the row
+  * @param  key     The primary key of the row
+  */
+  @SuppressWarnings("unchecked")
+  synchronized void remove(Object value, PrimaryKey key) {
+    if (value == null) {
+      return;
+    }
+    SortedArrayList<PrimaryKey> keys = keys(value);
+    int position = keys != null ? keys.search(key) : -1;
+    if (position >= 0) {
+      keys.remove(position);
+      if (keys.empty() && ordered != null) {
+        ordered.remove((Comparable<Object>) value);
+      } else if (keys.empty()) {
+        entries.remove(value);
+      }
+      dirty = true;
+    }
+  }
+
+  /**
+  * Looks for the rows with a value
+  * @param  value   The value of the indexed column
+  * @return         The pairs of the value and the primary keys of the rows that have it, in ascending order of the keys
+  */
+  synchronized ArrayList<KeyValueNode<Object, PrimaryKey>> find(Object value) {
+    ArrayList<KeyValueNode<Object, PrimaryKey>> found = new ArrayList<>();
+    SortedArrayList<PrimaryKey> keys = keys(value);
+    if (keys != null) {
+      for (PrimaryKey key : keys) {
+        found.add(new KeyValueNode<>(value, key));
+      }
+    }
+    return found;
+  }
+
+  /**
+  * Looks for the rows with values in a range, the index must be ordered
+  * @param  from            The lower bound of the values, null for no lower bound
+  * @param  fromInclusive   If the lower bound is in the range
+  * @param  to              The upper bound of the values, null for no upper bound
+  * @param  toInclusive     If the upper bound is in the range
+  * @param  descending      If the values are visited from the upper bound to the lower bound
+  * @return                 The pairs of values and primary keys in the order of the values,
+  *                         the keys of the same value are in ascending order
+  */
+  synchronized ArrayList<KeyValueNode<Object, PrimaryKey>> findRange(Comparable<Object> from, boolean fromInclusive,
+  Comparable<Object> to, boolean toInclusive, boolean descending) {
+    ArrayList<KeyValueNode<Object, PrimaryKey>> found = new ArrayList<>();
+    KeyValueNode<Comparable<Object>, SortedArrayList<PrimaryKey>> node;
+    if (descending) {
+      node = to == null ? ordered.last() : (toInclusive && ordered.contains(to) ? ordered.getClosest(to) : ordered.lower(to));
+    } else {
+      node = from == null ? ordered.first() : (fromInclusive && ordered.contains(from) ? ordered.getClosest(from) : ordered.higher(from));
+    }
+    while (node != null) {
+      Comparable<Object> value = node.getKey();
+      if (descending ? from != null && (from.compareTo(value) > 0 || (!fromInclusive && from.compareTo(value) == 0))
+        : to != null && (to.compareTo(value) < 0 || (!toInclusive && to.compareTo(value) == 0))) {
+        break;
+      }
+      for (PrimaryKey key : node.getValue()) {
+        found.add(new KeyValueNode<>(value, key));
+      }
+      node = descending ? ordered.lower(value) : ordered.higher(value);
+    }
+    return found;
+  }
+
+  /**
+  * Removes every entry of the index
+  */
+  synchronized void clear() {
+    create();
+    dirty = true;
+  }
+
+  /**
+  * Writes the entries to the index file if they changed since it was written
+  * @param  tablePath         The path to the table directory
+  * @throws HarambException   If there is an error writing the file
+  */
+  synchronized void save(String tablePath) throws HarambException {
+    if (!dirty) {
+      return;
+    }
+    String path = tablePath + columnName + extension;
+    try {
+      try (FileOutputStream file = new FileOutputStream(path + ".tmp");
+      ObjectOutputStream oos = new ObjectOutputStream(file)) {
+        oos.writeObject(ordered != null ? ordered : entries);
+        oos.flush();
+        file.getFD().sync();
+      }
+      Files.move(Paths.get(path + ".tmp"), Paths.get(path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (Exception e) {
+      throw new HarambException(e);
+    }
+    dirty = false;
+  }
+
+  /**
+  * Reads the entries from the index file
+  * @param  tablePath   The path to the table directory
+  * @return             If the entries were read, false if the file is missing or can't be read
+  */
+  @SuppressWarnings("unchecked")
+  synchronized boolean load(String tablePath) {
+    File file = new File(tablePath + columnName + extension);
+    if (!file.exists()) {
+      return false;
+    }
+    try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+      Object read = ois.readObject();
+      if (type == Table.IndexType.ORDERED) {
+        ordered = (AVL<Comparable<Object>, SortedArrayList<PrimaryKey>>) read;
+      } else {
+        entries = (HashMap<Object, SortedArrayList<PrimaryKey>>) read;
+      }
+      dirty = false;
+      return true;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  /**
+  * Deletes the index file
+  * @param  tablePath   The path to the table directory
+  */
+  void delete(String tablePath) {
+    new File(tablePath + columnName + extension).delete();
+  }
+
+  /**
+  * Reads the definition of the index from the table file, the entries are
+  * read from the index file by load
+  */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    create();
+  }
+}
@@ -0,0 +1,89 @@
+package hdb.table;
+
+import java.lang.ref.Reference;
+
+/**
+* A consistent view of the rows of some tables at a point in time. Reading the
+* rows through a snapshot, with Table.tryGetRow, scan, rows or stream, returns
+* the rows as they were when the snapshot was taken, even if they are changed
+* or removed while they are read. Snapshot reads only take the locks of the
+* partitions for as long as a partition is read, like any other read, so
+* they never stall the writers of the table.
+*
+* The rows read through a snapshot are copies that are not bound to the table,
+* changing them does not change the table. A snapshot must be closed when it is
+* no longer needed, so the old versions of the rows can be reclaimed.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     Versions
+* @see     Table
+*/
+public class Snapshot implements AutoCloseable {
+
+  /**
+  * The versions of the tables of the snapshot
+  */
+  private final Versions versions;
+
+  /**
+  * The version of the clock when the snapshot was taken
+  */
+  private final long version;
+
+  /**
+  * The reference of the versions to this snapshot, null once it is closed
+  */
+  volatile Reference<Snapshot> reference;
+
+  /**
+  * Creates an open snapshot
+  * @param  versions  The versions of the tables of the snapshot
+  * @param  version   The version of the clock when the snapshot is taken
+  */
+  Snapshot(Versions versions, long version) {
+    this.versions = versions;
+    this.version = version;
+  }
+
+  /**
+  * {@link Snapshot#version}
+  * @return The version of the clock when the snapshot was taken
+  */
+  public long version() {
+    return version;
+  }
+
+  /**
+  * Tells if the snapshot sees the rows of a table
+  * @param  versions  The versions of the table
+  * @return           If the snapshot was taken from those versions
+  */
+  boolean of(Versions versions) {
+    return this.versions == versions;
+  }
+
+  /**
+  * Tells if the snapshot has been closed
+  * @return If the snapshot can't be read anymore
+  */
+  public boolean isClosed() {
+    return reference == null;
+  }
+
+  /**
+  * Closes the snapshot, the versions of the rows only it needed are reclaimed.
+  * Closing a closed snapshot does nothing.
+  */
+  public void close() {
+    Reference<Snapshot> reference = this.reference;
+    if (reference != null) {
+      this.reference = null;
+      versions.release(reference);
+    }
+  }
+}
@@ -1,23 +1,46 @@
 package hdb.table;
 
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import structures.list.SortedArrayList;
 import structures.list.ArrayLinearList;
 import structures.node.KeyValueNode;
+import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import hdb.table.relation.Relation;
 import java.io.BufferedInputStream;
 import structures.dict.LinkedDict;
 import java.io.ObjectOutputStream;
 import java.io.ObjectInputStream;
-import java.io.FileOutputStream;
 import java.lang.reflect.Array;
 import java.io.FileInputStream;
+import hdb.log.WriteAheadLog;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import structures.dict.Dict;
 import structures.list.List;
 import structures.tree.AVL;
 import hdb.HarambException;
+import hdb.log.LogRecord;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
 import hdb.table.column.*;
+import java.util.NoSuchElementException;
 import java.util.Iterator;
+import java.util.Objects;
 import java.util.Arrays;
 import hdb.table.row.*;
 import java.io.File;
@@ -34,9 +57,14 @@ import hdb.Database;
 * the partition. The minimum value is used to determine in which partition a
 * certain row should be stored or retrieved from.
 *
-* The THRESHOLD constant is the maximum number of elements a partition can store
-* before another partition is automatically created, feel free to modify this
-* value as you need.
+* A partition is divided when it grows past the partition size of the table,
+* see PartitionSizing and SplitPolicy, and merged with a neighbour when it
+* becomes underfilled. The loaded partitions are kept in a bounded buffer pool.
+*
+* A table can be used by many threads at once, the directory of partitions is
+* guarded by a read/write lock and every partition by one of a set of striped
+* read/write locks. The changes of the tables of a database are written to its
+* log, so they are recovered after a crash.
 *
 * <p>This class is a member of the
 * <a href="{@docRoot}/index.html" target="_top">
@@ -51,179 +79,2772 @@ import hdb.Database;
 * @see     Row
 */
 public class Table<PrimaryKey extends Comparable<? super PrimaryKey>> implements Serializable, Iterable<PrimaryKey> {
+
+  /**
+  * An enumeration of the ways a partition file can be read
+  */
+  public static enum ReadMode implements Serializable {
+    /**
+    * The whole partition is deserialized into the heap when it is loaded
+    */
+    EAGER,
+
+    /**
+    * The partition file is mapped into memory and every row is deserialized the
+    * first time it is retrieved, the OS page cache holds the file content
+    */
+    MAPPED;
+  }
+
+  /**
+  * An enumeration of the ways the size of the partitions can be bounded
+  */
+  public static enum PartitionSizing implements Serializable {
+    /**
+    * A partition is divided when it has more rows than a maximum
+    */
+    ROWS,
+
+    /**
+    * A partition is divided when its file would be bigger than a target size
+    */
+    BYTES,
+
+    /**
+    * Like BYTES, but the target size is chosen from the measured load latency
+    * of the partition files
+    */
+    ADAPTIVE;
+  }
+
+  /**
+  * An enumeration of the ways a full partition is divided when a row is added
+  * at the right edge of the table, other partitions are always cut in half
+  */
+  public static enum SplitPolicy implements Serializable {
+    /**
+    * The partition is always cut in half
+    */
+    HALF,
+
+    /**
+    * Only the new row is moved to the new partition, the full partition is
+    * left as it is, like in the bulk appends of a B-tree
+    */
+    APPEND,
+
+    /**
+    * A tenth of the rows is moved to the new partition when most of the recent
+    * rows were added at the right edge, otherwise the partition is cut in half
+    */
+    AUTO;
+  }
+
+  /**
+  * An enumeration of the kinds of secondary indexes on the columns of a table
+  */
+  public static enum IndexType implements Serializable {
+    /**
+    * A hash index, it finds the rows with a value of the column
+    */
+    HASH,
+
+    /**
+    * An ordered index, it also finds the rows with values of the column in a
+    * range, in the order of the values. The column must be Comparable.
+    */
+    ORDERED;
+  }
+
+  /**
+  * avl tree containing the ID and minimum value of the diferent partitions of the table
+  */
+  private AVL<PrimaryKey, Integer> partitions;
+
+  /**
+  * Path to the table directory
+  */
+  private final String path;
+
+  /**
+  * Number of current partitions in the table
+  */
+  private int partitionCount;
+
+  /**
+  * Dict of columns and their indexes
+  */
+  private ColumnList columns;
+
+  /**
+  * The buffer pool holding the loaded partitions of the table
+  */
+  private transient PartitionPool<PrimaryKey> pool;
+
+  /**
+  * Maximum number of partitions in the buffer pool
+  */
+  private int poolPartitions = PartitionPool.DEFAULT_CAPACITY;
+
+  /**
+  * Maximum estimated size in bytes of the partitions in the buffer pool, 0 if unbounded
+  */
+  private long poolBytes;
+
+  /**
+  * How the partition files are read, null in tables created by older versions
+  * @see Table.ReadMode
+  */
+  private ReadMode readMode = ReadMode.EAGER;
+
+  /**
+  * The content of the table file when it was last read or written, the file is
+  * only written again if the table has changed
+  */
+  private transient byte[] savedState;
+
+  /**
+  * The class of the primaryKeyType
+  */
+  private final Class<?> primaryKeyType;
+
+  /**
+  * Decides when a partition is divided, null in tables created by older versions
+  */
+  private PartitionSizer sizer = new PartitionSizer();
+
+  /**
+  * How partitions are divided, null in tables created by older versions
+  * @see Table.SplitPolicy
+  */
+  private SplitPolicy splitPolicy = SplitPolicy.AUTO;
+
+  /**
+  * The secondary indexes of the columns, null in tables created by older
+  * versions. The list is replaced instead of modified, so the changes of the
+  * rows can be indexed without the lock of the table.
+  */
+  private volatile ArrayList<SecondaryIndex<PrimaryKey>> indexes = new ArrayList<>();
+
+  /**
+  * A dictionary of partition IDs mapping to the statistics of the columns of
+  * the partitions, null in tables created by older versions
+  */
+  private ConcurrentHashMap<Integer, ZoneMap> zoneMaps = new ConcurrentHashMap<>();
+
+  /**
+  * The number of consecutive rows added at the right edge of the table, it is
+  * updated by addRow holding the write lock of any partition
+  */
+  private transient AtomicInteger appendRun = new AtomicInteger();
+
+  /**
+  * The log of the database the changes are written to, null if they are not logged
+  */
+  private transient WriteAheadLog log;
+
+  /**
+  * The sequence number of the last logged change that is in the table and
+  * partition files, the recovery only replays the changes after it
+  */
+  private long logPosition;
+
+  /**
+  * The sequence number of the last change of this table appended to the log
+  */
+  private transient AtomicLong lastLogged = new AtomicLong();
+
+  /**
+  * If the log is being replayed, partitions are only divided and merged by
+  * their own records while it is replayed
+  */
+  private transient boolean replaying;
+
+  /**
+  * The lock of the directory of partitions, the operations that change the
+  * directory or the whole table hold its write lock, the rest hold its read lock
+  */
+  private transient ReentrantReadWriteLock directoryLock = new ReentrantReadWriteLock();
+
+  /**
+  * The striped locks of the partitions, the partition with ID n is guarded by
+  * the lock n % lockStripes. They are taken holding the read lock of the
+  * directory, and a thread holds at most one of them.
+  */
+  private transient ReentrantReadWriteLock[] partitionLocks = partitionLocks();
+
+  /**
+  * The versions of the rows of the table, shared with the other tables of its
+  * database, every change of a row is stamped with the next version
+  */
+  private transient Versions versions = new Versions();
+
+  /**
+  * The rows as they were before every change the open snapshots may need
+  */
+  private transient RowHistory<PrimaryKey> history = new RowHistory<>();
+
+  /**
+  * The thread applying a committed transaction to the table, the changes of the
+  * rows it makes are not logged one by one, the transaction is a single record
+  */
+  private transient volatile Thread committing;
+
+  /**
+  * The partitions pinned by prepareCommit until endCommit
+  */
+  private transient ArrayList<Partition<PrimaryKey>> commitPins;
+
+  /**
+  * The number of striped locks of the partitions
+  */
+  private static final int lockStripes = 64;
+  private static final long serialVersionUID = 05L;
+
+  /**
+  * The threads that load the partitions ahead of the iterators of the tables
+  */
+  private static final ExecutorService readAheadThreads = Executors.newCachedThreadPool(task -> {
+    Thread thread = new Thread(task, "HarambeDB read-ahead");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+  * The extension of the table file
+  */
+  public transient static final String extension = ".hbtb";
+
+  /**
+  * Name of the table and the PrimaryKey Column
+  */
+  String tableName;
+
+  /**
+  * Name of the primary key column
+  */
+  String pkName;
+
+  /**
+  * Creates a new table within the specified database directory
+  * @param  dbPath          The path to the database directory this table belongs to
+  * @param  tableName       The name of the tablle
+  * @param  primaryKeyType  The Class of the primary key
+  * @param  primaryKeyName  The name of the primary key column
+  * @throws HarambException If there is an error creating the table file or if a database with the same name already exists
+  */
+  public Table(String dbPath, String tableName, Class<?> primaryKeyType, String primaryKeyName) throws HarambException {
+    this.pkName = primaryKeyName;
+    this.path = dbPath + tableName + '/';
+    this.tableName = tableName;
+    this.primaryKeyType = primaryKeyType;
+    File tableDir = new File(this.path);
+    if (tableDir.exists()) {
+      throw new HarambException("Table " + tableName + " already exists");
+    }
+    tableDir.mkdir();
+    partitions = new AVL<>();
+    this.columns = new HarambeColumnList();
+    pool = new PartitionPool<>(this.path, columns, primaryKeyType, sizer, poolPartitions, poolBytes);
+    pool.setChangeListener(new ChangeListener());
+    pool.setZoneMaps(zoneMaps);
+    versions.track(history);
+    Partition<PrimaryKey> firstPartition = new HarambePartition<PrimaryKey>(this.path, partitionCount, columns, primaryKeyType);
+    pool.admit(firstPartition);
+    pool.unpin(firstPartition);
+    // the log of the database replays the changes of the table over these files
+    save();
+  }
+
+  /**
+  * Changes the bounds of the buffer pool of the table, the new bounds are
+  * stored in the table file.
+  * @param  maxPartitions     The maximum number of partitions loaded at the same time
+  * @param  maxBytes          The maximum estimated size in bytes of the loaded partitions, 0 if unbounded
+  * @throws HarambException   If maxPartitions is less than one or there is an error writing an evicted partition
+  */
+  public void setBufferPoolSize(int maxPartitions, long maxBytes) throws HarambException {
+    directoryLock.writeLock().lock();
+    try {
+      pool.resize(maxPartitions, maxBytes);
+      this.poolPartitions = maxPartitions;
+      this.poolBytes = maxBytes;
+    } finally {
+      directoryLock.writeLock().unlock();
+    }
+  }
+
+  /**
+  * Changes how the partition files of this table are read, the partitions
+  * already loaded are not affected. The read mode is stored in the table file.
+  * @param  mode  The new read mode
+  */
+  public void setReadMode(ReadMode mode) {
+    pool.setMapped(mode == ReadMode.MAPPED);
+    this.readMode = mode;
+  }
+
+  /**
+  * {@link Table#readMode}
+  * @return How the partition files of this table are read
+  */
+  public ReadMode getReadMode() {
+    return readMode != null ? readMode : ReadMode.EAGER;
+  }
+
+  /**
+  * Bounds the partitions of this table by a number of rows. The setting is
+  * stored in the table file, existing partitions are divided when a row is
+  * added to them.
+  * @param  maxRows           The maximum number of rows in a partition
+  * @throws HarambException   If maxRows is less than one
+  */
+  public void setPartitionRows(int maxRows) throws HarambException {
+    if (maxRows < 1) {
+      throw new HarambException("A partition must hold at least one row");
+    }
+    sizer.byRows(maxRows);
+  }
+
+  /**
+  * Bounds the partitions of this table by the size of their files. The setting
+  * is stored in the table file, existing partitions are divided when a row is
+  * added to them.
+  * @param  targetBytes       The target size in bytes of a partition file
+  * @throws HarambException   If targetBytes is not positive
+  */
+  public void setPartitionBytes(long targetBytes) throws HarambException {
+    if (targetBytes < 1) {
+      throw new HarambException("The target size of a partition must be positive");
+    }
+    sizer.byBytes(targetBytes);
+  }
+
+  /**
+  * Bounds the partitions of this table by a size in bytes chosen from the
+  * measured latency of loading its partition files. The setting is stored in
+  * the table file.
+  */
+  public void setAdaptivePartitionSize() {
+    sizer.adaptive();
+  }
+
+  /**
+  * {@link PartitionSizer#mode}
+  * @return How the size of the partitions of this table is bounded
+  */
+  public PartitionSizing getPartitionSizing() {
+    return sizer.mode();
+  }
+
+  /**
+  * Changes how the partitions of this table are divided, the policy is stored
+  * in the table file
+  * @param  policy  The new split policy
+  */
+  public void setSplitPolicy(SplitPolicy policy) {
+    this.splitPolicy = policy;
+  }
+
+  /**
+  * {@link Table#splitPolicy}
+  * @return How the partitions of this table are divided
+  */
+  public SplitPolicy getSplitPolicy() {
+    return splitPolicy != null ? splitPolicy : SplitPolicy.AUTO;
+  }
+
+  /**
+  * Sets the log the changes of this table are written to, it is called by the
+  * database when the table is created or loaded
+  * @param  log   The log of the database, null to stop logging the changes
+  */
+  public void setLog(WriteAheadLog log) {
+    this.log = log;
+  }
+
+  /**
+  * Sets the versions the changes of this table are stamped with, it is called
+  * by the database when the table is created or loaded so a snapshot of the
+  * database sees all its tables at the same point in time
+  * @param  versions  The versions of the database
+  */
+  public void setVersions(Versions versions) {
+    directoryLock.writeLock().lock();
+    try {
+      this.versions.untrack(history);
+      this.versions = versions;
+      versions.track(history);
+    } finally {
+      directoryLock.writeLock().unlock();
+    }
+  }
+
+  /**
+  * Takes a snapshot of the table, the rows read through it are the rows as
+  * they were when it was taken. The snapshot must be closed when it is no
+  * longer needed, see Snapshot.
+  * @return The open snapshot
+  */
+  public Snapshot snapshot() {
+    return versions.snapshot();
+  }
+
+  /**
+  * Stamps a change of a row with the next version and keeps the row as it was
+  * if a snapshot is open. It is called before the change is made, holding the
+  * lock readers take to read the row: the write lock of its partition for
+  * added and removed rows and the lock of the row for changed fields.
+  * @param  key   The primary key of the row
+  * @param  row   The row before the change, null if it is being added
+  */
+  private void changing(PrimaryKey key, Row row) {
+    long stamp = versions.stamp();
+    if (versions.recording()) {
+      history.record(key, stamp, row != null ? row.copy() : null);
+    }
+  }
+
+  /**
+  * Stamps the addition of a row to a partition, the row is kept as absent if
+  * a snapshot is open and the key is not in the partition already
+  * @param  partition   The partition the row is added to
+  * @param  key         The primary key of the row
+  */
+  private void adding(Partition<PrimaryKey> partition, PrimaryKey key) {
+    long stamp = versions.stamp();
+    if (versions.recording() && partition.getRow(key) == null) {
+      history.record(key, stamp, null);
+    }
+  }
+
+  /**
+  * The log the changes of the rows are written to
+  * @return The log of the database, null if the changes are not logged or the
+  *         calling thread is applying a transaction
+  */
+  private WriteAheadLog rowLog() {
+    return committing != Thread.currentThread() ? log : null;
+  }
+
+  /**
+  * {@link Table#log}
+  * @return The log of the database, null if the changes are not logged
+  */
+  WriteAheadLog log() {
+    return log;
+  }
+
+  /**
+  * Creates a row with the columns of the table that is not in the table
+  * @return The new row
+  */
+  Row newRow() {
+    return new HarambeRow(this.columns);
+  }
+
+  /**
+  * Takes the write lock of the directory to commit a transaction, the changes
+  * of the rows the thread makes until endCommit are not logged
+  */
+  void beginCommit() {
+    directoryLock.writeLock().lock();
+    committing = Thread.currentThread();
+  }
+
+  /**
+  * Pins the partitions of the rows a transaction changes before it is logged
+  * and defers the evictions of the pool until endCommit, so applying the
+  * transaction reads and writes no partition file and can't fail once its
+  * record is durable. The caller holds the lock taken by beginCommit.
+  * @param  keys              The primary keys of the changed rows
+  * @throws HarambException   If there is an error reading a partition file
+  */
+  void prepareCommit(Collection<PrimaryKey> keys) throws HarambException {
+    commitPins = new ArrayList<>();
+    pool.deferEvictions();
+    HashSet<Integer> pinned = new HashSet<>();
+    for (PrimaryKey key : keys) {
+      int partitionNumber = partitions.isEmpty() ? partitionCount : locatePartition(key).getValue();
+      if (pinned.add(partitionNumber)) {
+        commitPins.add(pool.pin(partitionNumber));
+      }
+    }
+  }
+
+  /**
+  * Releases the partitions pinned by prepareCommit and the write lock taken by
+  * beginCommit. The partitions the transaction filled or emptied are divided or
+  * merged by the next change of their rows.
+  * @param  lsn   The sequence number of the logged transaction, 0 if it was not logged
+  */
+  void endCommit(long lsn) {
+    try {
+      if (lsn > 0) {
+        logged(lsn);
+      }
+      committing = null;
+      if (commitPins != null) {
+        for (Partition<PrimaryKey> partition : commitPins) {
+          pool.unpin(partition);
+        }
+        commitPins = null;
+        pool.resumeEvictions();
+      }
+    } finally {
+      directoryLock.writeLock().unlock();
+    }
+  }
+
+  /**
+  * Tells if the partitions are only divided and merged by the records of the
+  * log, while it is replayed, or not at all, while a transaction is applied
+  * @return If the partitions must not be divided nor merged
+  */
+  private boolean fixedDirectory() {
+    return replaying || committing == Thread.currentThread();
+  }
+
+  /**
+  * Tells if a row was changed after a snapshot was taken, the snapshot must be open
+  * @param  key       The primary key of the row
+  * @param  snapshot  The snapshot
+  * @return           If the row was changed, added or removed after the snapshot was taken
+  */
+  boolean changedSince(PrimaryKey key, Snapshot snapshot) {
+    return history.changedAfter(key, version(snapshot));
+  }
+
+  /**
+  * Adds the records of the change of a row made by a transaction to its batch,
+  * the change is the difference between the row before and after the transaction
+  * @param  batch     The records of the transaction
+  * @param  key       The primary key of the row
+  * @param  original  The row before the transaction, null if it did not exist
+  * @param  image     The row after the transaction, null if it was removed
+  */
+  void logCommitted(WriteAheadLog.Batch batch, PrimaryKey key, Row original, Row image) {
+    if (image == null) {
+      if (original != null) {
+        batch.remove(tableName, key);
+      }
+      return;
+    } else if (original == null) {
+      batch.add(tableName, key);
+    }
+    for (Column column : columns) {
+      Object value = image.get(column);
+      if (!Objects.equals(original != null ? original.get(column) : null, value)) {
+        batch.set(tableName, key, column.index(), value);
+      }
+    }
+  }
+
+  /**
+  * Applies the change of a row made by a committed transaction, the caller holds
+  * the lock taken by beginCommit. The fields are changed through the row, so
+  * the indexes and zone maps are updated as for any other change.
+  * @param  key               The primary key of the row
+  * @param  image             The row after the transaction, null if it was removed
+  * @throws HarambException   If there is an error reading or writing a partition file
+  */
+  void applyCommitted(PrimaryKey key, Row image) throws HarambException {
+    Row row = findRow(key, null);
+    if (image == null) {
+      if (row != null) {
+        removeFromDirectory(key);
+      }
+      return;
+    } else if (row == null) {
+      row = new HarambeRow(this.columns);
+      addToDirectory(key, row);
+    }
+    setFields(row, image);
+  }
+
+  /**
+  * Sets in a row the fields of another that are different
+  * @param  row     The row bound to the table
+  * @param  image   The new fields of the row
+  */
+  private void setFields(Row row, Row image) {
+    for (Column column : columns) {
+      Object value = image.get(column);
+      if (Objects.equals(row.get(column), value)) {
+        continue;
+      } else if (value == null) {
+        row.remove(column);
+      } else {
+        row.set(column, value);
+      }
+    }
+  }
+
+  /**
+  * The version a snapshot reads of the rows of this table
+  * @param  snapshot          The snapshot
+  * @throws HarambException   If the snapshot is closed or it was taken from another database
+  * @return                   The version of the snapshot
+  */
+  private long version(Snapshot snapshot) throws HarambException {
+    if (!snapshot.of(versions)) {
+      throw new HarambException("The snapshot was not taken from the database of table " + tableName);
+    } else if (snapshot.isClosed()) {
+      throw new HarambException("The snapshot is closed");
+    }
+    return snapshot.version();
+  }
+
+  /**
+  * Reads a row as a snapshot sees it, the caller holds the read lock of the
+  * partition of the row
+  * @param  key       The primary key of the row
+  * @param  row       The row in the table, null if it is not in the table
+  * @param  version   The version of the snapshot
+  * @return           A copy of the row as the snapshot sees it, null if it did not exist
+  */
+  private Row read(PrimaryKey key, Row row, long version) {
+    if (row == null) {
+      return history.read(key, version, null);
+    }
+    synchronized (row) {
+      return history.read(key, version, row);
+    }
+  }
+
+  /**
+  * The listener of the changes of the fields of the rows in the partitions of
+  * the table, it updates the secondary indexes and writes the changes to the log
+  */
+  private class ChangeListener implements RowListener {
+    public void rowChanged(Row row) {
+      // only the changes of the fields are indexed and logged
+    }
+
+    @SuppressWarnings("unchecked")
+    public void fieldChanging(Object key, Row row, Column column, Object value) {
+      if (key != null) {
+        changing((PrimaryKey) key, row);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void fieldChanged(Object key, Row row, Column column, Object previous, Object value) {
+      if (key == null) {
+        return;
+      }
+      SecondaryIndex<PrimaryKey> index = index(column);
+      if (index != null) {
+        index.remove(previous, (PrimaryKey) key);
+        index.add(value, (PrimaryKey) key);
+      }
+      WriteAheadLog log = rowLog();
+      if (log != null) {
+        log.commit(logged(log.logSet(tableName, key, column.index(), value)));
+      }
+    }
+  }
+
+  /**
+  * Remembers the last change of this table appended to the log
+  * @param  lsn   The sequence number of the logged change
+  * @return       The same sequence number
+  */
+  private long logged(long lsn) {
+    lastLogged.accumulateAndGet(lsn, Math::max);
+    return lsn;
+  }
+
+  /**
+  * {@link Table#logPosition}
+  * @return The sequence number of the last logged change stored in the table files
+  */
+  public long getLogPosition() {
+    return this.logPosition;
+  }
+
+  /**
+  * Marks the changes logged up to a record as stored in the table files and
+  * saves the table, the database calls it when the table is created so the
+  * records of a dropped table with the same name are not replayed into it
+  * @param  lsn               The sequence number of the last record in the log
+  * @throws HarambException   If there is an error writing the table file
+  */
+  public void setLogPosition(long lsn) throws HarambException {
+    logged(lsn);
+    save();
+  }
+
+  /**
+  * Waits until a logged change is on the disk if the log is synchronous, it
+  * must be called without holding the lock of the table
+  * @param  lsn               The sequence number of the logged change, 0 if it was not logged
+  * @throws HarambException   If there is an error writing the log
+  */
+  private void commit(long lsn) throws HarambException {
+    if (lsn > 0) {
+      log.commit(lsn);
+    }
+  }
+
+  /**
+  * Creates the striped locks of the partitions
+  * @return The locks
+  */
+  private static ReentrantReadWriteLock[] partitionLocks() {
+    ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[lockStripes];
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new ReentrantReadWriteLock();
+    }
+    return locks;
+  }
+
+  /**
+  * Finds the striped lock of a partition
+  * @param  partitionNumber   The ID of the partition
+  * @return                   The read/write lock that guards the partition
+  */
+  private ReentrantReadWriteLock partitionLock(int partitionNumber) {
+    return partitionLocks[partitionNumber % lockStripes];
+  }
+
+  /**
+  * {@link Table#primaryKeyType}
+  * @return The data type of the primary key
+  */
+  public Class<?> getPrimaryKeyType() {
+    return this.primaryKeyType;
+  }
+
+  /**
+  * Adds a new column to the table
+  * @param  name  The name of the new column
+  * @param  type  The data type that the column will store
+  * @return       The new column
+  */
+  public Column addColumn(String name, Class<?> type) {
+    Column newCol;
+    long lsn = 0;
+    directoryLock.writeLock().lock();
+    try {
+      newCol = new Column(columns.size(), type);
+      columns.add(name, newCol);
+      if (log != null) {
+        lsn = logged(log.logColumn(tableName, name, type));
+      }
+    } finally {
+      directoryLock.writeLock().unlock();
+    }
+    commit(lsn);
+    return newCol;
+  }
+
+  /**
+  * Cuts a sorted partition, creates a new partition with its bigger keys and
+  * pushes it to the AVL partition tree
+  * @param  partition       The pinned partition to divide
+  * @param  from            The position of the first key moved to the new partition
+  * @throws HarambException If there is an error reading or writing partition files
+  */
+  private void dividePartition(Partition<PrimaryKey> partition, int from) throws HarambException {
+    Partition<PrimaryKey> newPartition = new HarambePartition<>(this.path, partitionCount, columns, primaryKeyType);
+    pool.admit(newPartition);
+
+    // move the bigger values in the partition to the new partition
+    try {
+      partition.moveRows(from, newPartition);
+      PrimaryKey minimumKey = newPartition.getKeys().get(0);
+      partitions.add(minimumKey, partitionCount++);
+      // the moved rows and the record must be on the disk before the divided partition is written
+      pool.save(newPartition);
+      if (log != null) {
+        logged(log.logSplit(tableName, minimumKey, newPartition.partitionNumber(), partition.partitionNumber()));
+        log.sync();
+      }
+    } finally {
+      pool.unpin(newPartition);
+    }
+  }
+
+  /**
+  * Logs the removal of a partition from the directory, the partition that
+  * received its rows is written once the record is on the disk
+  * @param  key               The key of the removed partition in the directory
+  * @param  partitionNumber   The ID of the removed partition
+  * @param  into              The pinned partition that received its rows, null if it was empty
+  * @throws HarambException   If there is an error writing the log or the partition file
+  */
+  private void merged(PrimaryKey key, int partitionNumber, Partition<PrimaryKey> into) throws HarambException {
+    if (log == null) {
+      return;
+    }
+    logged(log.logMerge(tableName, key, partitionNumber, into != null ? into.partitionNumber() : -1));
+    if (into != null) {
+      log.sync();
+      pool.save(into);
+    }
+  }
+
+  /**
+  * Chooses where a full partition is cut according to the split policy
+  * @param  partition   The full partition
+  * @param  rightEdge   If the last row was added at the right edge of the table
+  * @return             The position of the first key moved to the new partition
+  */
+  private int splitPosition(Partition<PrimaryKey> partition, boolean rightEdge) {
+    int size = partition.size();
+    SplitPolicy policy = getSplitPolicy();
+    if (!rightEdge || policy == SplitPolicy.HALF) {
+      return size / 2;
+    } else if (policy == SplitPolicy.APPEND) {
+      return size - 1;
+    }
+    return appendRun.get() >= size / 2 ? size - Math.max(1, size / 10) : size / 2;
+  }
+
+  /**
+  * Removes a row from the table. The row is removed holding the write lock of
+  * its partition, unless it is the minimum key or the last row of the
+  * partition, then it is removed holding the write lock of the directory.
+  * @param  key               The value of the primary key of the row
+  * @throws HarambException   If the table is empty, there is no such row or there is an error reading a partition file
+  */
+  public void removeRow(PrimaryKey key) throws HarambException {
+    long lsn = 0;
+    boolean removed = false;
+    // the key in the directory of the partition left underfilled
+    PrimaryKey underfilled = null;
+    directoryLock.readLock().lock();
+    try {
+      if (partitions.isEmpty()) {
+        throw new HarambException("Table " + tableName + " is empty");
+      }
+      KeyValueNode<PrimaryKey,Integer> partitionInfo = locatePartition(key);
+      PrimaryKey minimumKey = partitionInfo.getKey();
+      Lock lock = partitionLock(partitionInfo.getValue()).writeLock();
+      lock.lock();
+      try {
+        Partition<PrimaryKey> partition = pool.pin(partitionInfo.getValue());
+        try {
+          if (key.compareTo(minimumKey) != 0 && partition.size() > 1) {
+            Row row = partition.getRow(key);
+            if (!indexes.isEmpty()) {
+              unindex(key, row);
+            }
+            changing(key, row);
+            partition.removeRow(key);
+            removed = true;
+            if (!fixedDirectory() && sizer.underfilled(partition)) {
+              underfilled = minimumKey;
+            }
+            if (log != null) {
+              lsn = logged(log.logRemove(tableName, key));
+            }
+          }
+        } finally {
+          pool.unpin(partition);
+        }
+      } finally {
+        lock.unlock();
+      }
+    } finally {
+      directoryLock.readLock().unlock();
+    }
+    if (!removed || underfilled != null) {
+      directoryLock.writeLock().lock();
+      try {
+        if (!removed) {
+          lsn = removeFromDirectory(key);
+        } else {
+          mergeUnderfilled(underfilled);
+        }
+      } finally {
+        directoryLock.writeLock().unlock();
+      }
+    }
+    commit(lsn);
+  }
+
+  /**
+  * Removes a row that changes the directory of partitions, holding the write
+  * lock of the directory
+  * @param  key               The value of the primary key of the row
+  * @throws HarambException   If the table is empty, there is no such row or there is an error reading a partition file
+  * @return                   The sequence number of the logged removal, 0 if it was not logged
+  */
+  private long removeFromDirectory(PrimaryKey key) throws HarambException {
+    if (partitions.isEmpty()) {
+      throw new HarambException("Table " + tableName + " is empty");
+    }
+    // the AVL tree may reuse its nodes, so keep the key and the ID of the partition
+    KeyValueNode<PrimaryKey,Integer> partitionInfo = locatePartition(key);
+    PrimaryKey minimumKey = partitionInfo.getKey();
+    Partition<PrimaryKey> partition = pool.pin(partitionInfo.getValue());
+    try {
+      Row row = partition.getRow(key);
+      if (!indexes.isEmpty()) {
+        unindex(key, row);
+      }
+      changing(key, row);
+      boolean removedMinimum = partition.removeRow(key);
+      if (partition.size() == 0) {
+        // drop the empty partition unless it is the only one
+        if (!fixedDirectory() && (partitions.higher(minimumKey) != null || partitions.lower(minimumKey) != null)) {
+          partitions.remove(minimumKey);
+          pool.discard(partition);
+          merged(minimumKey, partition.partitionNumber(), null);
+        }
+      } else {
+        // if the smallest key is removed update the avl tree
+        if (removedMinimum) {
+          partitions.remove(minimumKey);
+          partitions.add(partition.getKeys().get(0), partition.partitionNumber());
+        }
+        if (!fixedDirectory() && sizer.underfilled(partition)) {
+          mergeWithNeighbour(partition);
+        }
+      }
+    } finally {
+      pool.unpin(partition);
+    }
+    WriteAheadLog log = rowLog();
+    return log != null ? logged(log.logRemove(tableName, key)) : 0;
+  }
+
+  /**
+  * Merges a partition with a neighbour if it is still underfilled, it is
+  * called holding the write lock of the directory after a row was removed
+  * from the partition holding only its read lock
+  * @param  minimumKey        The key of the partition in the directory
+  * @throws HarambException   If there is an error reading or writing partition files
+  */
+  private void mergeUnderfilled(PrimaryKey minimumKey) throws HarambException {
+    KeyValueNode<PrimaryKey,Integer> partitionInfo = partitions.getClosest(minimumKey);
+    if (partitionInfo == null || partitionInfo.getKey().compareTo(minimumKey) != 0) {
+      return;
+    }
+    Partition<PrimaryKey> partition = pool.pin(partitionInfo.getValue());
+    try {
+      if (partition.size() > 0 && sizer.underfilled(partition)) {
+        mergeWithNeighbour(partition);
+      }
+    } finally {
+      pool.unpin(partition);
+    }
+  }
+
+  /**
+  * Merges an underfilled partition with the next partition or, if they don't
+  * fit together, with the previous one
+  * @param  partition         The pinned underfilled partition, it must not be empty
+  * @throws HarambException   If there is an error reading or writing partition files
+  */
+  private void mergeWithNeighbour(Partition<PrimaryKey> partition) throws HarambException {
+    PrimaryKey minimumKey = partition.getKeys().get(0);
+    KeyValueNode<PrimaryKey,Integer> next = partitions.higher(minimumKey);
+    if (next != null && merge(partition, next.getKey(), next.getValue())) {
+      return;
+    }
+    KeyValueNode<PrimaryKey,Integer> previous = partitions.lower(minimumKey);
+    if (previous != null) {
+      PrimaryKey previousKey = previous.getKey();
+      Partition<PrimaryKey> left = pool.pin(previous.getValue());
+      try {
+        if (sizer.canMerge(left, partition)) {
+          partition.moveRows(0, left);
+          partitions.remove(minimumKey);
+          pool.discard(partition);
+          merged(minimumKey, partition.partitionNumber(), left);
+        }
+      } finally {
+        pool.unpin(left);
+      }
+    }
+  }
+
+  /**
+  * Moves the rows of a partition into its previous partition if they fit together
+  * @param  left              The pinned previous partition
+  * @param  rightKey          The key of the partition in the AVL tree
+  * @param  rightNumber       The ID of the partition
+  * @throws HarambException   If there is an error reading or writing partition files
+  * @return                   If the partitions were merged
+  */
+  private boolean merge(Partition<PrimaryKey> left, PrimaryKey rightKey, int rightNumber) throws HarambException {
+    Partition<PrimaryKey> right = pool.pin(rightNumber);
+    try {
+      if (!sizer.canMerge(left, right)) {
+        return false;
+      }
+      right.moveRows(0, left);
+      partitions.remove(rightKey);
+      pool.discard(right);
+      merged(rightKey, rightNumber, left);
+      return true;
+    } finally {
+      pool.unpin(right);
+    }
+  }
+
+  /**
+  * Merges every pair of neighbouring partitions that fit together in a single
+  * partition, the files of the merged partitions are deleted when the table is
+  * saved. It can be called periodically on tables with many deletions.
+  * @throws HarambException   If there is an error reading or writing partition files
+  */
+  public void compact() throws HarambException {
+    directoryLock.writeLock().lock();
+    try {
+      KeyValueNode<PrimaryKey,Integer> current = partitions.first();
+      while (current != null) {
+        PrimaryKey key = current.getKey();
+        Partition<PrimaryKey> partition = pool.pin(current.getValue());
+        try {
+          KeyValueNode<PrimaryKey,Integer> next;
+          while ((next = partitions.higher(key)) != null && merge(partition, next.getKey(), next.getValue()));
+        } finally {
+          pool.unpin(partition);
+        }
+        current = partitions.higher(key);
+      }
+    } finally {
+      directoryLock.writeLock().unlock();
+    }
+  }
+
+  /**
+  * Adds a row to the table, it returns the new row so you can chain set calls.
+  * The row is added holding the write lock of its partition, the write lock of
+  * the directory is only taken if the key is smaller than the minimum key of
+  * the partition or the partition has to be divided.
+  * @param  key               The value of the primary key of the row
+  * @throws HarambException   If there is an error reading a partition file
+  * @return The added row
+  */
+  public Row addRow(PrimaryKey key) throws HarambException {
+    Row row = new HarambeRow(this.columns);
+    long lsn = 0;
+    boolean added = false, full = false;
+    directoryLock.readLock().lock();
+    try {
+      KeyValueNode<PrimaryKey,Integer> partitionInfo = partitions.getClosest(key);
+      if (partitionInfo != null && key.compareTo(partitionInfo.getKey()) >= 0) {
+        Lock lock = partitionLock(partitionInfo.getValue()).writeLock();
+        lock.lock();
+        try {
+          Partition<PrimaryKey> partition = pool.pin(partitionInfo.getValue());
+          try {
+            adding(partition, key);
+            partition.addRow(key, row);
+            added = true;
+            appended(rightEdge(partition, key));
+            full = !fixedDirectory() && sizer.shouldDivide(partition);
+            if (log != null) {
+              lsn = logged(log.logAdd(tableName, key));
+            }
+          } finally {
+            pool.unpin(partition);
+          }
+        } finally {
+          lock.unlock();
+        }
+      }
+    } finally {
+      directoryLock.readLock().unlock();
+    }
+    if (!added || full) {
+      directoryLock.writeLock().lock();
+      try {
+        if (!added) {
+          lsn = addToDirectory(key, row);
+        } else {
+          divideFull(key);
+        }
+      } finally {
+        directoryLock.writeLock().unlock();
+      }
+    }
+    commit(lsn);
+    return row;
+  }
+
+  /**
+  * Adds a row that changes the directory of partitions, holding the write lock
+  * of the directory
+  * @param  key               The value of the primary key of the row
+  * @param  row               The new row
+  * @throws HarambException   If the key already exists or there is an error reading a partition file
+  * @return                   The sequence number of the logged addition, 0 if it was not logged
+  */
+  private long addToDirectory(PrimaryKey key, Row row) throws HarambException {
+    if (partitions.isEmpty()) {
+      partitions.add(key, partitionCount++);
+    }
+
+    KeyValueNode<PrimaryKey,Integer> partitionInfo = locatePartition(key);
+    PrimaryKey minimumKey = partitionInfo.getKey();
+    Partition<PrimaryKey> partition = pool.pin(partitionInfo.getValue());
+    try {
+      if (key.compareTo(minimumKey) < 0) {
+        partitions.remove(minimumKey);
+        partitions.add(key, partition.partitionNumber());
+      }
+
+      adding(partition, key);
+      partition.addRow(key, row);
+      boolean rightEdge = rightEdge(partition, key);
+      appended(rightEdge);
+      if (!fixedDirectory() && sizer.shouldDivide(partition)) {
+        dividePartition(partition, splitPosition(partition, rightEdge));
+      }
+    } finally {
+      pool.unpin(partition);
+    }
+    WriteAheadLog log = rowLog();
+    return log != null ? logged(log.logAdd(tableName, key)) : 0;
+  }
+
+  /**
+  * Divides the partition of a key if it is still full, it is called holding the
+  * write lock of the directory after a row was added to the partition holding
+  * only its read lock
+  * @param  key               The value of the primary key of the added row
+  * @throws HarambException   If there is an error reading or writing partition files
+  */
+  private void divideFull(PrimaryKey key) throws HarambException {
+    Partition<PrimaryKey> partition = pool.pin(locatePartition(key).getValue());
+    try {
+      if (sizer.shouldDivide(partition)) {
+        dividePartition(partition, splitPosition(partition, rightEdge(partition, key)));
+      }
+    } finally {
+      pool.unpin(partition);
+    }
+  }
+
+  /**
+  * Counts a row added at the right edge of the table, or starts counting again
+  * @param  rightEdge   If the row was added at the right edge of the table
+  */
+  private void appended(boolean rightEdge) {
+    if (rightEdge) {
+      appendRun.incrementAndGet();
+    } else {
+      appendRun.set(0);
+    }
+  }
+
+  /**
+  * Tells if a key is the greatest key of the table
+  * @param  partition   The pinned partition of the key
+  * @param  key         The key
+  * @return             If the key is at the right edge of the table
+  */
+  private boolean rightEdge(Partition<PrimaryKey> partition, PrimaryKey key) {
+    return partitions.last().getValue() == partition.partitionNumber()
+      && partition.getKeys().get(partition.size() - 1).compareTo(key) == 0;
+  }
+
+  /**
+  * Adds a batch of rows to the table, the fields of every row are copied to a
+  * new row of the table. The batch is sorted by key and the rows that go to the
+  * same partition are added to it at once, so every touched partition is
+  * divided once at the end if it grew too big. If a key already exists no
+  * row of the batch is added.
+  * @param  rows              A dictionary of primary keys mapping to the rows to add
+  * @throws HarambException   If a field has the wrong type, a key already exists or there is an error reading or writing a partition file
+  */
+  public void addRows(Map<PrimaryKey, ? extends Row> rows) throws HarambException {
+    ArrayList<KeyValueNode<PrimaryKey, Row>> batch = new ArrayList<>(rows.size());
+    for (Map.Entry<PrimaryKey, ? extends Row> entry : rows.entrySet()) {
+      batch.add(new KeyValueNode<>(entry.getKey(), entry.getValue()));
+    }
+    addBatch(batch);
+  }
+
+  /**
+  * Adds a batch of rows to the table, the fields of every row are copied to a
+  * new row of the table. The batch is sorted by key and the rows that go to the
+  * same partition are added to it at once, so every touched partition is
+  * divided once at the end if it grew too big. If a key already exists no
+  * row of the batch is added. The batch can be read from another table with
+  * scan or rows.
+  * @param  rows              The pairs of primary keys and rows to add
+  * @throws HarambException   If a field has the wrong type, a key is repeated or already exists or there is an error reading or writing a partition file
+  */
+  public void addRows(Iterable<? extends KeyValueNode<PrimaryKey, ? extends Row>> rows) throws HarambException {
+    ArrayList<KeyValueNode<PrimaryKey, Row>> batch = new ArrayList<>();
+    for (KeyValueNode<PrimaryKey, ? extends Row> node : rows) {
+      batch.add(new KeyValueNode<>(node.getKey(), node.getValue()));
+    }
+    addBatch(batch);
+  }
+
+  /**
+  * Adds a batch of rows, the rows and their keys are checked before the table is
+  * changed, so a batch with a wrong field or an existing key adds nothing. If
+  * there is an error reading or writing a partition file the rows added before
+  * it are kept, and their records are committed before the error is thrown.
+  * @param  batch             The pairs of primary keys and rows to add
+  * @throws HarambException   If a field has the wrong type, a key is repeated or already exists or there is an error reading or writing a partition file
+  */
+  private void addBatch(ArrayList<KeyValueNode<PrimaryKey, Row>> batch) throws HarambException {
+    if (batch.isEmpty()) {
+      return;
+    }
+    long lsn = 0;
+    boolean adding = false;
+    RuntimeException error = null;
+    directoryLock.writeLock().lock();
+    try {
+      for (int i = 0; i < batch.size(); i++) {
+        KeyValueNode<PrimaryKey, Row> node = batch.get(i);
+        if (node.getKey() == null || node.getValue() == null) {
+          throw new HarambException("The batch has a null key or row");
+        }
+        node.setValue(copyRow(node.getValue()));
+      }
+      batch.sort((a, b) -> a.getKey().compareTo(b.getKey()));
+      for (int i = 1; i < batch.size(); i++) {
+        if (batch.get(i - 1).getKey().compareTo(batch.get(i).getKey()) == 0) {
+          throw new HarambException("Key already exists: " + batch.get(i).getKey());
+        }
+      }
+
+      if (partitions.isEmpty()) {
+        partitions.add(batch.get(0).getKey(), partitionCount++);
+      } else {
+        checkAbsent(batch);
+      }
+      adding = true;
+      int start = 0;
+      while (start < batch.size()) {
+        KeyValueNode<PrimaryKey,Integer> partitionInfo = locatePartition(batch.get(start).getKey());
+        int end = groupEnd(batch, start, partitionInfo);
+        lsn = Math.max(lsn, addToPartition(partitionInfo, batch, start, end));
+        start = end;
+      }
+    } catch (RuntimeException e) {
+      if (adding) {
+        // the rows added before the error stay in the table
+        lsn = Math.max(lsn, lastLogged.get());
+      }
+      error = e;
+    } finally {
+      directoryLock.writeLock().unlock();
+    }
+    commit(lsn);
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  /**
+  * Checks that no key of a sorted batch is in the table, every partition the
+  * batch goes to is loaded once
+  * @param  batch             The sorted pairs of primary keys and rows to add
+  * @throws HarambException   If a key already exists or there is an error reading a partition file
+  */
+  private void checkAbsent(ArrayList<KeyValueNode<PrimaryKey, Row>> batch) throws HarambException {
+    int start = 0;
+    while (start < batch.size()) {
+      KeyValueNode<PrimaryKey,Integer> partitionInfo = locatePartition(batch.get(start).getKey());
+      int end = groupEnd(batch, start, partitionInfo);
+      Partition<PrimaryKey> partition = pool.pin(partitionInfo.getValue());
+      try {
+        for (int i = start; i < end; i++) {
+          if (partition.getRow(batch.get(i).getKey()) != null) {
+            throw new HarambException("Key already exists: " + batch.get(i).getKey());
+          }
+        }
+      } finally {
+        pool.unpin(partition);
+      }
+      start = end;
+    }
+  }
+
+  /**
+  * Finds the rows of a sorted batch that go to the same partition
+  * @param  batch           The sorted pairs of primary keys and rows to add
+  * @param  start           The position of the first row of the partition in the batch
+  * @param  partitionInfo   The node of the AVL tree with the minimum key and the ID of the partition
+  * @return                 The position after the last row of the partition in the batch
+  */
+  private int groupEnd(ArrayList<KeyValueNode<PrimaryKey, Row>> batch, int start, KeyValueNode<PrimaryKey,Integer> partitionInfo) {
+    KeyValueNode<PrimaryKey,Integer> next = partitions.higher(partitionInfo.getKey());
+    int end = start + 1;
+    while (end < batch.size() && (next == null || batch.get(end).getKey().compareTo(next.getKey()) < 0)) {
+      end++;
+    }
+    return end;
+  }
+
+  /**
+  * Adds the rows of a sorted batch that go to the same partition, then divides
+  * the partition in as many partitions as needed
+  * @param  partitionInfo     The node of the AVL tree with the minimum key and the ID of the partition
+  * @param  batch             The sorted pairs of primary keys and rows of the table
+  * @param  start             The position of the first row of the partition in the batch
+  * @param  end               The position after the last row of the partition in the batch
+  * @throws HarambException   If there is an error reading or writing a partition file
+  * @return                   The sequence number of the last logged change, 0 if nothing was logged
+  */
+  private long addToPartition(KeyValueNode<PrimaryKey,Integer> partitionInfo, ArrayList<KeyValueNode<PrimaryKey, Row>> batch,
+  int start, int end) throws HarambException {
+    long lsn = 0;
+    Partition<PrimaryKey> partition = pool.pin(partitionInfo.getValue());
+    try {
+      PrimaryKey minimumKey = partitionInfo.getKey();
+      if (batch.get(start).getKey().compareTo(minimumKey) < 0) {
+        partitions.remove(minimumKey);
+        partitions.add(batch.get(start).getKey(), partition.partitionNumber());
+      }
+
+      WriteAheadLog log = this.log;
+      for (int i = start; i < end; i++) {
+        PrimaryKey key = batch.get(i).getKey();
+        Row row = batch.get(i).getValue();
+        changing(key, null);
+        partition.addRow(key, row);
+        if (log != null) {
+          lsn = logged(log.logAdd(tableName, key));
+        }
+        for (Column col : columns) {
+          Object value = row.get(col);
+          if (value == null) {
+            continue;
+          }
+          SecondaryIndex<PrimaryKey> index = index(col);
+          if (index != null) {
+            index.add(value, key);
+          }
+          if (log != null) {
+            lsn = logged(log.logSet(tableName, key, col.index(), value));
+          }
+        }
+      }
+
+      if (!fixedDirectory() && sizer.shouldDivide(partition)) {
+        int size = partition.size();
+        int pieces = Math.max(2, (size + sizer.maxRows(partition) - 1) / sizer.maxRows(partition));
+        // the biggest keys are moved first, so the partition keeps the smallest ones
+        for (int piece = pieces - 1; piece > 0; piece--) {
+          dividePartition(partition, (int) ((long) size * piece / pieces));
+        }
+      }
+    } finally {
+      pool.unpin(partition);
+    }
+    return lsn;
+  }
+
+  /**
+  * Loads rows sorted by key into new partitions after the last partition of
+  * the table, the keys must be greater than every key in the table. Every
+  * partition is filled up to the partition size and written once, in key
+  * order, and the directory of partitions is built as they are written. The
+  * files are forced to the disk together at the end instead of one by one. The
+  * rows are not written to the log, the table is saved when the load ends, so
+  * after a crash during the load the table has none of the loaded rows.
+  * @param  rows              The pairs of primary keys and rows, in ascending order of the keys
+  * @throws HarambException   If the keys are not in ascending order or not greater than the keys
+  *                           in the table, a field has the wrong type or there is an error
+  *                           writing a file, the rows before it are kept
+  * @return                   The number of loaded rows
+  */
+  public long bulkLoad(Iterable<? extends KeyValueNode<PrimaryKey, ? extends Row>> rows) throws HarambException {
+    directoryLock.writeLock().lock();
+    try {
+      return loadSorted(rows);
+    } finally {
+      directoryLock.writeLock().unlock();
+    }
+  }
+
+  /**
+  * Loads rows sorted by key into new partitions, holding the write lock of the directory
+  * @param  rows              The pairs of primary keys and rows, in ascending order of the keys
+  * @throws HarambException   If the keys are not in ascending order or not greater than the keys
+  *                           in the table, a field has the wrong type or there is an error
+  *                           writing a file, the rows before it are kept
+  * @return                   The number of loaded rows
+  */
+  private long loadSorted(Iterable<? extends KeyValueNode<PrimaryKey, ? extends Row>> rows) throws HarambException {
+    Iterator<? extends KeyValueNode<PrimaryKey, ? extends Row>> iterator = rows.iterator();
+    if (!iterator.hasNext()) {
+      return 0;
+    }
+    PrimaryKey last = null;
+    Partition<PrimaryKey> partition = null;
+    if (partitions.isEmpty()) {
+      // the first partition of a new table is empty and not in the directory
+      partition = pool.pin(partitionCount);
+    } else {
+      KeyValueNode<PrimaryKey,Integer> lastPartition = partitions.last();
+      last = lastPartition.getKey();
+      Partition<PrimaryKey> lastRows = pool.pin(lastPartition.getValue());
+      try {
+        if (lastRows.size() > 0) {
+          last = lastRows.getKeys().get(lastRows.size() - 1);
+        }
+      } finally {
+        pool.unpin(lastRows);
+      }
+    }
+
+    long loaded = 0;
+    // the full partitions are forced to the disk together before the table file is saved
+    ArrayList<String> written = new ArrayList<>();
+    try {
+      while (iterator.hasNext()) {
+        KeyValueNode<PrimaryKey, ? extends Row> node = iterator.next();
+        PrimaryKey key = node.getKey();
+        if (key == null || node.getValue() == null) {
+          throw new HarambException("The bulk load has a null key or row");
+        } else if (last != null && key.compareTo(last) <= 0) {
+          throw new HarambException("Key " + key + " is not greater than " + last);
+        }
+        Row row = copyRow(node.getValue());
+        if (partition == null) {
+          partition = new HarambePartition<>(this.path, partitionCount, columns, primaryKeyType);
+          pool.admit(partition);
+          partitions.add(key, partitionCount++);
+        } else if (partitions.isEmpty()) {
+          partitions.add(key, partitionCount++);
+        }
+        changing(key, null);
+        partition.addRow(key, row);
+        for (Column col : columns) {
+          SecondaryIndex<PrimaryKey> index = index(col);
+          if (index != null) {
+            index.add(row.get(col), key);
+          }
+        }
+        last = key;
+        loaded++;
+
+        if (sizer.shouldDivide(partition)) {
+          // the row that filled the partition starts the next one
+          Partition<PrimaryKey> next = new HarambePartition<>(this.path, partitionCount, columns, primaryKeyType);
+          pool.admit(next);
+          partition.moveRows(partition.size() - 1, next);
+          partitions.add(key, partitionCount++);
+          Partition<PrimaryKey> full = partition;
+          partition = next;
+          try {
+            pool.save(full, false);
+            written.add(full.path());
+          } finally {
+            pool.unpin(full);
+          }
+        }
+      }
+    } finally {
+      if (partition != null) {
+        pool.unpin(partition);
+      }
+      if (loaded > 0) {
+        for (String path : written) {
+          PartitionFile.sync(path);
+        }
+        save();
+      }
+    }
+    return loaded;
+  }
+
+  /**
+  * Copies the fields of a row to a new row of the table
+  * @param  row               The row to copy
+  * @throws HarambException   If a field does not agree with the data type of its column
+  * @return                   The new row
+  */
+  private Row copyRow(Row row) throws HarambException {
+    int size = 0;
+    for (Column col : columns) {
+      size = Math.max(size, col.index() + 1);
+    }
+    Object[] fields = new Object[size];
+    for (Column col : columns) {
+      Object value = row.get(col);
+      if (value != null && value.getClass() != col.type()) {
+        throw new HarambException("Element's type of '" + value + "' does not agree with column data type:" + col.type());
+      }
+      fields[col.index()] = value;
+    }
+    return new HarambeRow(fields);
+  }
+
+  /**
+  * Retrieves a single row in the table
+  * @param  key             The value of the primary key of the row
+  * @throws HarambException If there is an error reading a partition file or there is no row with the specified primary key
+  * @return                 The row with primary key equals to key
+  */
+  public Row getRow(PrimaryKey key) throws HarambException {
+    Row row = findRow(key, null);
+    if (row == null) {
+      throw new HarambException("No such row: " + key);
+    }
+    return row;
+  }
+
+  /**
+  * Retrieves a single row in the table if it exists, a missing row is usually
+  * told apart without reading its partition file
+  * @param  key             The value of the primary key of the row
+  * @throws HarambException If there is an error reading a partition file
+  * @return                 The row with primary key equals to key, null if there is no such row
+  */
+  public Row tryGetRow(PrimaryKey key) throws HarambException {
+    return findRow(key, null);
+  }
+
+  /**
+  * Retrieves a single row as it was when a snapshot was taken, the row is a
+  * copy that is not bound to the table
+  * @param  key             The value of the primary key of the row
+  * @param  snapshot        The snapshot the row is read from
+  * @throws HarambException If the snapshot is closed, it is not of this table or there is an error reading a partition file
+  * @return                 A copy of the row with primary key equals to key, null if there was no such row
+  */
+  public Row tryGetRow(PrimaryKey key, Snapshot snapshot) throws HarambException {
+    return findRow(key, snapshot);
+  }
+
+  /**
+  * Changes a row only if it has not changed since its version was read. The
+  * version is checked and the mutator runs holding the lock of the row, so no
+  * other change of the row is made meanwhile, the changes are logged after the
+  * lock is released. The mutator must not change other rows. The changes the
+  * mutator made before throwing an exception are kept.
+  * @param  key               The value of the primary key of the row
+  * @param  expectedVersion   The version of the row, see Row.version
+  * @param  mutator           Sets or removes the fields of the row
+  * @throws HarambException   If there is no such row or there is an error reading a partition file
+  * @return                   If the row was changed, false if its version was not the expected one
+  */
+  public boolean compareAndSet(PrimaryKey key, long expectedVersion, Consumer<Row> mutator) throws HarambException {
+    return getRow(key).compareAndSet(expectedVersion, mutator);
+  }
+
+  /**
+  * Changes a row from its current fields without holding its lock while the
+  * new fields are computed. The function changes a copy of the row, and the
+  * fields it changed are set in the row if the row has not changed meanwhile,
+  * otherwise it runs again with a new copy, so it may run many times and
+  * should have no other effects.
+  * @param  key               The value of the primary key of the row
+  * @param  function          Sets or removes the fields of a copy of the row
+  * @throws HarambException   If there is no such row or there is an error reading a partition file
+  * @return                   The row
+  */
+  public Row compute(PrimaryKey key, Consumer<Row> function) throws HarambException {
+    while (true) {
+      Row row = getRow(key);
+      // the version is read before the copy, a change in between only makes the update fail
+      long version = row.version();
+      Row image = row.copy();
+      function.accept(image);
+      if (compareAndSet(key, version, current -> setFields(current, image))) {
+        return row;
+      }
+    }
+  }
+
+  /**
+  * Retrieves many rows in the table at once. The keys are sorted and grouped
+  * by the partition they belong to, every partition is pinned once for all of
+  * its keys, and the partitions are locked one at a time. Partitions whose
+  * key filters tell that they have none of the keys of their group are not loaded.
+  * @param  keys              The values of the primary keys of the rows
+  * @throws HarambException   If there is an error reading a partition file
+  * @return                   The rows in the order of the keys, with null for
+  *                           every key that is null or has no row
+  */
+  public ArrayList<Row> getRows(Collection<? extends PrimaryKey> keys) throws HarambException {
+    ArrayList<PrimaryKey> requested = new ArrayList<>(keys);
+    ArrayList<Row> rows = new ArrayList<>(Collections.nCopies(requested.size(), (Row) null));
+    ArrayList<Integer> order = new ArrayList<>(requested.size());
+    for (int i = 0; i < requested.size(); i++) {
+      if (requested.get(i) != null) {
+        order.add(i);
+      }
+    }
+    order.sort((a, b) -> requested.get(a).compareTo(requested.get(b)));
+
+    int start = 0;
+    while (start < order.size()) {
+      directoryLock.readLock().lock();
+      try {
+        if (partitions.isEmpty()) {
+          break;
+        }
+        KeyValueNode<PrimaryKey,Integer> partitionInfo = locatePartition(requested.get(order.get(start)));
+        KeyValueNode<PrimaryKey,Integer> next = partitions.higher(partitionInfo.getKey());
+        int end = start + 1;
+        while (end < order.size() && (next == null || requested.get(order.get(end)).compareTo(next.getKey()) < 0)) {
+          end++;
+        }
+        readGroup(partitionInfo.getValue(), requested, order, start, end, rows);
+        start = end;
+      } finally {
+        directoryLock.readLock().unlock();
+      }
+    }
+    return rows;
+  }
+
+  /**
+  * Reads the rows of a group of keys of the same partition holding its read
+  * lock, the partition is not loaded if its key filter tells that it has none of them
+  * @param  partitionNumber   The ID of the partition
+  * @param  requested         The requested keys
+  * @param  order             The positions of the requested keys sorted by key
+  * @param  start             The position in order of the first key of the group
+  * @param  end               The position in order after the last key of the group
+  * @param  rows              The rows found, by position of their key
+  * @throws HarambException   If there is an error reading the partition file
+  */
+  private void readGroup(int partitionNumber, ArrayList<PrimaryKey> requested, ArrayList<Integer> order,
+  int start, int end, ArrayList<Row> rows) throws HarambException {
+    Lock lock = partitionLock(partitionNumber).readLock();
+    lock.lock();
+    ZoneMap zoneMap = zoneMaps.get(partitionNumber);
+    Partition<PrimaryKey> partition = null;
+    try {
+      for (int i = start; i < end; i++) {
+        PrimaryKey key = requested.get(order.get(i));
+        if (zoneMap != null && !zoneMap.mayContainKey(key)) {
+          continue;
+        }
+        if (partition == null) {
+          partition = pool.pin(partitionNumber);
+        }
+        rows.set(order.get(i), partition.getRow(key));
+      }
+    } finally {
+      if (partition != null) {
+        pool.unpin(partition);
+      }
+      lock.unlock();
+    }
+  }
+
+  /**
+  * Looks for a row in the table holding the read locks of the directory and of
+  * the partition, the partition where the row should be is not loaded if the
+  * filter of its keys tells that the row is not there
+  * @param  key               The value of the primary key of the row
+  * @param  snapshot          The snapshot the row is read from, null to read the row in the table
+  * @throws HarambException   If the snapshot can't be read or there is an error reading a partition file
+  * @return                   The row, or a copy of it if it is read from a snapshot, null if there is no row with that key
+  */
+  private Row findRow(PrimaryKey key, Snapshot snapshot) throws HarambException {
+    long version = snapshot != null ? version(snapshot) : 0;
+    directoryLock.readLock().lock();
+    try {
+      if (partitions.isEmpty()) {
+        return snapshot != null ? read(key, null, version) : null;
+      }
+      int partitionNumber = locatePartition(key).getValue();
+      Lock lock = partitionLock(partitionNumber).readLock();
+      lock.lock();
+      try {
+        ZoneMap zoneMap = zoneMaps.get(partitionNumber);
+        // a snapshot may see a row removed since then
+        if (snapshot == null && zoneMap != null && !zoneMap.mayContainKey(key)) {
+          return null;
+        }
+        Partition<PrimaryKey> partition = pool.pin(partitionNumber);
+        try {
+          Row row = partition.getRow(key);
+          return snapshot != null ? read(key, row, version) : row;
+        } finally {
+          pool.unpin(partition);
+        }
+      } finally {
+        lock.unlock();
+      }
+    } finally {
+      directoryLock.readLock().unlock();
+    }
+  }
+
+  /**
+  * Creates a secondary index on a column, the index is filled with the rows in
+  * the table and updated on every change of the column. It is stored in the
+  * table directory when the table is saved.
+  * @param  columnName        The name of the column
+  * @param  type              The kind of index
+  * @throws HarambException   If there is no such column, it is an array column, it is already indexed or there is an error reading a partition file
+  */
+  public void createIndex(String columnName, IndexType type) throws HarambException {
+    directoryLock.writeLock().lock();
+    try {
+      Column column = getColumn(columnName);
+      if (column == null) {
+        throw new HarambException("No such column: " + columnName);
+      } else if (column.type().isArray()) {
+        throw new HarambException("Array columns can't be indexed: " + columnName);
+      } else if (type == IndexType.ORDERED && !Comparable.class.isAssignableFrom(column.type())) {
+        throw new HarambException("Column " + columnName + " is not Comparable");
+      } else if (index(column) != null) {
+        throw new HarambException("Column " + columnName + " is already indexed");
+      }
+      SecondaryIndex<PrimaryKey> index = new SecondaryIndex<>(columnName, type);
+      ArrayList<SecondaryIndex<PrimaryKey>> indexes = new ArrayList<>(this.indexes);
+      indexes.add(index);
+      this.indexes = indexes;
+      fill(index, column);
+    } finally {
+      directoryLock.writeLock().unlock();
+    }
+  }
+
+  /**
+  * Removes the secondary index of a column and deletes its file
+  * @param  columnName        The name of the column
+  * @throws HarambException   If the column is not indexed
+  */
+  public void dropIndex(String columnName) throws HarambException {
+    directoryLock.writeLock().lock();
+    try {
+      Column column = getColumn(columnName);
+      SecondaryIndex<PrimaryKey> index = column != null ? index(column) : null;
+      if (index == null) {
+        throw new HarambException("Column " + columnName + " is not indexed");
+      }
+      ArrayList<SecondaryIndex<PrimaryKey>> indexes = new ArrayList<>(this.indexes);
+      indexes.remove(index);
+      this.indexes = indexes;
+      index.delete(this.path);
+    } finally {
+      directoryLock.writeLock().unlock();
+    }
+  }
+
+  /**
+  * Tells the kind of secondary index of a column
+  * @param  columnName  The name of the column
+  * @return             The kind of index of the column, null if it is not indexed
+  */
+  public IndexType getIndexType(String columnName) {
+    Column column = getColumn(columnName);
+    SecondaryIndex<PrimaryKey> index = column != null ? index(column) : null;
+    return index != null ? index.type() : null;
+  }
+
+  /**
+  * Finds the rows with a value in a column. If the column has a secondary index
+  * only the partitions of the matching rows are read, otherwise every row of the
+  * table is read.
+  * @param  columnName        The name of the column
+  * @param  value             The value of the column, null to find the rows without a value
+  * @throws HarambException   If there is no such column or there is an error reading a partition file
+  * @return                   The pairs of keys and rows with that value in ascending order of their keys
+  */
+  public ArrayList<KeyValueNode<PrimaryKey, Row>> findBy(String columnName, Object value) throws HarambException {
+    Column column = getColumn(columnName);
+    if (column == null) {
+      throw new HarambException("No such column: " + columnName);
+    }
+    SecondaryIndex<PrimaryKey> index = index(column);
+    if (value != null && !column.type().isInstance(value)) {
+      return new ArrayList<>();
+    } else if (value != null && index == null && Comparable.class.isAssignableFrom(column.type())) {
+      // a range takes null bounds as unbounded, so the rows without a value are found with a full scan
+      ArrayList<KeyValueNode<PrimaryKey, Row>> found = new ArrayList<>();
+      for (KeyValueNode<PrimaryKey, Row> row : scanWhere(columnRange(columnName, value, true, value, true))) {
+        found.add(row);
+      }
+      return found;
+    } else if (index == null || value == null) {
+      ArrayList<KeyValueNode<PrimaryKey, Row>> found = new ArrayList<>();
+      for (KeyValueNode<PrimaryKey, Row> row : rows()) {
+        Object field = row.getValue().get(column);
+        if (value == null ? field == null : value.equals(field)) {
+          found.add(row);
+        }
+      }
+      return found;
+    }
+    return readIndexed(index, column, index.find(value));
+  }
+
+  /**
+  * Finds the rows with values of a column from a value, inclusive, to another,
+  * exclusive, in ascending order of the values
+  * @param  columnName        The name of the column, it must be Comparable
+  * @param  from              The lower bound of the values, null for no lower bound
+  * @param  to                The upper bound of the values, null for no upper bound
+  * @throws HarambException   If there is no such column, it is not Comparable, the bounds are not values of the column or there is an error reading a partition file
+  * @return                   The pairs of keys and rows in the order of the values, the rows with the same value are in ascending order of their keys
+  */
+  public ArrayList<KeyValueNode<PrimaryKey, Row>> findRange(String columnName, Object from, Object to) throws HarambException {
+    return findRange(columnName, from, true, to, false, false);
+  }
+
+  /**
+  * Finds the rows with values of a column in a range, in the order of the
+  * values. Rows without a value are never in the range. If the column has an
+  * ordered index only the partitions of the matching rows are read, otherwise
+  * every row of the table is read and the matching rows are sorted.
+  * @param  columnName        The name of the column, it must be Comparable
+  * @param  from              The lower bound of the values, null for no lower bound
+  * @param  fromInclusive     If the lower bound is in the range
+  * @param  to                The upper bound of the values, null for no upper bound
+  * @param  toInclusive       If the upper bound is in the range
+  * @param  descending        If the rows are ordered from the upper bound to the lower bound
+  * @throws HarambException   If there is no such column, it is not Comparable, the bounds are not values of the column or there is an error reading a partition file
+  * @return                   The pairs of keys and rows in the order of the values, the rows with the same value are in ascending order of their keys
+  */
+  public ArrayList<KeyValueNode<PrimaryKey, Row>> findRange(String columnName, Object from, boolean fromInclusive,
+  Object to, boolean toInclusive, boolean descending) throws HarambException {
+    ColumnRange range = columnRange(columnName, from, fromInclusive, to, toInclusive);
+    Column column = range.column;
+    SecondaryIndex<PrimaryKey> index = index(column);
+    if (index != null && index.type() == IndexType.ORDERED) {
+      return readIndexed(index, column, index.findRange(range.from, fromInclusive, range.to, toInclusive, descending));
+    }
+    ArrayList<KeyValueNode<PrimaryKey, Row>> found = new ArrayList<>();
+    for (KeyValueNode<PrimaryKey, Row> row : scanWhere(range)) {
+      found.add(row);
+    }
+    // the sort is stable, so the rows with the same value keep the order of their keys
+    found.sort((a, b) -> {
+      Comparable<Object> value = a.getValue().get(column);
+      return descending ? -value.compareTo(b.getValue().get(column)) : value.compareTo(b.getValue().get(column));
+    });
+    return found;
+  }
+
+  /**
+  * Reads the rows with values of a column from a value, inclusive, to another,
+  * exclusive, in ascending order of their keys
+  * @param  columnName        The name of the column, it must be Comparable
+  * @param  from              The lower bound of the values, null for no lower bound
+  * @param  to                The upper bound of the values, null for no upper bound
+  * @throws HarambException   If there is no such column, it is not Comparable or the bounds are not values of the column
+  * @return                   The pairs of keys and rows in the range, they are read as they are iterated
+  */
+  public Iterable<KeyValueNode<PrimaryKey, Row>> scanWhere(String columnName, Object from, Object to) throws HarambException {
+    return scanWhere(columnName, from, true, to, false);
+  }
+
+  /**
+  * Reads the rows with values of a column in a range, in ascending order of
+  * their keys. Rows without a value are never in the range. The partitions
+  * whose zone maps show that none of their rows is in the range are skipped
+  * without loading them.
+  * @param  columnName        The name of the column, it must be Comparable
+  * @param  from              The lower bound of the values, null for no lower bound
+  * @param  fromInclusive     If the lower bound is in the range
+  * @param  to                The upper bound of the values, null for no upper bound
+  * @param  toInclusive       If the upper bound is in the range
+  * @throws HarambException   If there is no such column, it is not Comparable or the bounds are not values of the column
+  * @return                   The pairs of keys and rows in the range, they are read as they are iterated
+  */
+  public Iterable<KeyValueNode<PrimaryKey, Row>> scanWhere(String columnName, Object from, boolean fromInclusive,
+  Object to, boolean toInclusive) throws HarambException {
+    return scanWhere(columnRange(columnName, from, fromInclusive, to, toInclusive));
+  }
+
+  /**
+  * Reads the rows with values of a column in a range
+  * @param  range   The range of values of the column
+  * @return         The pairs of keys and rows in the range, they are read as they are iterated
+  */
+  private Iterable<KeyValueNode<PrimaryKey, Row>> scanWhere(ColumnRange range) {
+    return () -> new TableIterator(null, true, null, true, false, range);
+  }
+
+  /**
+  * Checks a range of values of a column
+  * @param  columnName        The name of the column
+  * @param  from              The lower bound of the values, null for no lower bound
+  * @param  fromInclusive     If the lower bound is in the range
+  * @param  to                The upper bound of the values, null for no upper bound
+  * @param  toInclusive       If the upper bound is in the range
+  * @throws HarambException   If there is no such column, it is not Comparable or the bounds are not values of the column
+  * @return                   The range
+  */
+  @SuppressWarnings("unchecked")
+  private ColumnRange columnRange(String columnName, Object from, boolean fromInclusive, Object to, boolean toInclusive) throws HarambException {
+    Column column = getColumn(columnName);
+    if (column == null) {
+      throw new HarambException("No such column: " + columnName);
+    } else if (!Comparable.class.isAssignableFrom(column.type())) {
+      throw new HarambException("Column " + columnName + " is not Comparable");
+    } else if ((from != null && !column.type().isInstance(from)) || (to != null && !column.type().isInstance(to))) {
+      throw new HarambException("The bounds of the range do not agree with column data type: " + column.type());
+    }
+    return new ColumnRange(column, (Comparable<Object>) from, fromInclusive, (Comparable<Object>) to, toInclusive);
+  }
+
+  /**
+  * A range of values of a Comparable column
+  */
+  private static class ColumnRange {
+    final Column column;
+    final Comparable<Object> from, to;
+    final boolean fromInclusive, toInclusive;
+
+    ColumnRange(Column column, Comparable<Object> from, boolean fromInclusive, Comparable<Object> to, boolean toInclusive) {
+      this.column = column;
+      this.from = from;
+      this.fromInclusive = fromInclusive;
+      this.to = to;
+      this.toInclusive = toInclusive;
+    }
+
+    /**
+    * Tells if a row has a value in the range
+    * @param  row   The row
+    * @return       If the value of the column of the row is in the range
+    */
+    boolean matches(Row row) {
+      Object value = row != null ? row.get(column) : null;
+      if (value == null) {
+        return false;
+      } else if (from != null) {
+        int cmp = from.compareTo(value);
+        if (cmp > 0 || (cmp == 0 && !fromInclusive)) {
+          return false;
+        }
+      }
+      if (to != null) {
+        int cmp = to.compareTo(value);
+        if (cmp < 0 || (cmp == 0 && !toInclusive)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+    * Tells if a partition may have rows with values in the range
+    * @param  zoneMap   The zone map of the partition
+    * @return           False if no row of the partition has a value in the range
+    */
+    boolean mayContain(ZoneMap zoneMap) {
+      return zoneMap.mayContain(column, from, fromInclusive, to, toInclusive);
+    }
+  }
+
+  /**
+  * Reads the rows of the entries taken from a secondary index, consecutive rows
+  * of the same partition pin and lock it once. The stale entries of the index,
+  * whose rows no longer exist or no longer have the value, are removed.
+  * @param  index             The index the entries were taken from
+  * @param  column            The indexed column
+  * @param  entries           The pairs of indexed values and primary keys
+  * @throws HarambException   If there is an error reading a partition file
+  * @return                   The pairs of keys and rows of the entries that are not stale, in the same order
+  */
+  private ArrayList<KeyValueNode<PrimaryKey, Row>> readIndexed(SecondaryIndex<PrimaryKey> index, Column column,
+  ArrayList<KeyValueNode<Object, PrimaryKey>> entries) throws HarambException {
+    ArrayList<KeyValueNode<PrimaryKey, Row>> found = new ArrayList<>();
+    directoryLock.readLock().lock();
+    Partition<PrimaryKey> partition = null;
+    Lock lock = null;
+    try {
+      if (partitions.isEmpty()) {
+        return found;
+      }
+      for (KeyValueNode<Object, PrimaryKey> entry : entries) {
+        PrimaryKey key = entry.getValue();
+        int partitionNumber = locatePartition(key).getValue();
+        if (partition == null || partition.partitionNumber() != partitionNumber) {
+          if (partition != null) {
+            pool.unpin(partition);
+            partition = null;
+            lock.unlock();
+          }
+          lock = partitionLock(partitionNumber).readLock();
+          lock.lock();
+          partition = pool.pin(partitionNumber);
+        }
+        Row row = partition.getRow(key);
+        if (row != null && entry.getKey().equals(row.get(column))) {
+          found.add(new KeyValueNode<>(key, row));
+        } else {
+          index.remove(entry.getKey(), key);
+        }
+      }
+    } finally {
+      if (partition != null) {
+        pool.unpin(partition);
+      }
+      if (lock != null) {
+        lock.unlock();
+      }
+      directoryLock.readLock().unlock();
+    }
+    return found;
+  }
+
   /**
-  * avl tree containing the ID and minimum value of the diferent partitions of the table
+  * Finds the secondary index of a column
+  * @param  column  The column
+  * @return         The index of the column, null if it is not indexed
   */
-  private AVL<PrimaryKey, Integer> partitions;
+  private SecondaryIndex<PrimaryKey> index(Column column) {
+    ArrayList<SecondaryIndex<PrimaryKey>> indexes = this.indexes;
+    for (int i = 0; i < indexes.size(); i++) {
+      SecondaryIndex<PrimaryKey> index = indexes.get(i);
+      if (getColumn(index.columnName()) == column) {
+        return index;
+      }
+    }
+    return null;
+  }
 
   /**
-  * Path to the table directory
+  * Adds the entries of every row of the table to an empty index
+  * @param  index             The index
+  * @param  column            The indexed column
+  * @throws HarambException   If there is an error reading a partition file
   */
-  private final String path;
+  private void fill(SecondaryIndex<PrimaryKey> index, Column column) throws HarambException {
+    for (KeyValueNode<PrimaryKey, Row> row : rows()) {
+      index.add(row.getValue().get(column), row.getKey());
+    }
+  }
 
   /**
-  * Number of current partitions in the table
+  * Removes the entries of a row from every secondary index
+  * @param  key   The primary key of the row
+  * @param  row   The row, nothing is done if it is null
   */
-  private int partitionCount;
+  private void unindex(PrimaryKey key, Row row) {
+    if (row == null) {
+      return;
+    }
+    for (SecondaryIndex<PrimaryKey> index : indexes) {
+      index.remove(row.get(getColumn(index.columnName())), key);
+    }
+  }
 
   /**
-  * Dict of columns and their indexes
+  * Reads the rows with keys from fromKey, inclusive, to toKey, exclusive, in
+  * ascending order
+  * @param  fromKey   The lower bound of the keys, null for no lower bound
+  * @param  toKey     The upper bound of the keys, null for no upper bound
+  * @return           The pairs of keys and rows in the range, they are read as they are iterated
   */
-  private ColumnList columns;
+  public Iterable<KeyValueNode<PrimaryKey, Row>> scan(PrimaryKey fromKey, PrimaryKey toKey) {
+    return scan(fromKey, true, toKey, false, false);
+  }
 
   /**
-  * Partition of the table, dictionary of rows
+  * Reads the rows with keys in a range in ascending order
+  * @param  fromKey         The lower bound of the keys, null for no lower bound
+  * @param  fromInclusive   If the lower bound is in the range
+  * @param  toKey           The upper bound of the keys, null for no upper bound
+  * @param  toInclusive     If the upper bound is in the range
+  * @return                 The pairs of keys and rows in the range, they are read as they are iterated
   */
-  private transient Partition<PrimaryKey> currentPartition;
+  public Iterable<KeyValueNode<PrimaryKey, Row>> scan(PrimaryKey fromKey, boolean fromInclusive, PrimaryKey toKey, boolean toInclusive) {
+    return scan(fromKey, fromInclusive, toKey, toInclusive, false);
+  }
 
   /**
-  * The class of the primaryKeyType
+  * Reads the rows with keys in a range. The partitions are read one at a time
+  * as the rows are iterated, starting at the partition found in the AVL tree,
+  * so only the partitions that overlap the range are loaded. Every partition is
+  * read holding its read lock, so its rows are a consistent view of it, but
+  * the table may change between two partitions.
+  * @param  fromKey         The lower bound of the keys, null for no lower bound
+  * @param  fromInclusive   If the lower bound is in the range
+  * @param  toKey           The upper bound of the keys, null for no upper bound
+  * @param  toInclusive     If the upper bound is in the range
+  * @param  descending      If the rows are read from the upper bound to the lower bound
+  * @return                 The pairs of keys and rows in the range, they are read as they are iterated
   */
-  private final Class<?> primaryKeyType;
+  public Iterable<KeyValueNode<PrimaryKey, Row>> scan(PrimaryKey fromKey, boolean fromInclusive, PrimaryKey toKey, boolean toInclusive, boolean descending) {
+    return () -> new TableIterator(fromKey, fromInclusive, toKey, toInclusive, descending);
+  }
 
   /**
-  * Maximum number of entries before partitioning the table
+  * Reads the rows with keys in a range as they were when a snapshot was taken,
+  * the rows are copies that are not bound to the table. The partitions are read
+  * as in any other scan, but the rows changed, added or removed after the
+  * snapshot was taken are read from the history of the table.
+  * @param  fromKey           The lower bound of the keys, null for no lower bound
+  * @param  fromInclusive     If the lower bound is in the range
+  * @param  toKey             The upper bound of the keys, null for no upper bound
+  * @param  toInclusive       If the upper bound is in the range
+  * @param  descending        If the rows are read from the upper bound to the lower bound
+  * @param  snapshot          The snapshot the rows are read from, it must be open while they are iterated
+  * @throws HarambException   If the snapshot is closed or it is not of this table
+  * @return                   The pairs of keys and rows in the range, they are read as they are iterated
   */
-  private transient static final int THRESHOLD = 50;
-  private static final long serialVersionUID = 05L;
+  public Iterable<KeyValueNode<PrimaryKey, Row>> scan(PrimaryKey fromKey, boolean fromInclusive, PrimaryKey toKey, boolean toInclusive, boolean descending,
+  Snapshot snapshot) throws HarambException {
+    version(snapshot);
+    return () -> new TableIterator(fromKey, fromInclusive, toKey, toInclusive, descending, null, snapshot);
+  }
 
   /**
-  * The extension of the table file
+  * Reads every row of the table in ascending order of their keys
+  * @return The pairs of keys and rows of the table, they are read as they are iterated
   */
-  public transient static final String extension = ".hbtb";
+  public Iterable<KeyValueNode<PrimaryKey, Row>> rows() {
+    return () -> new TableIterator(null, true, null, true, false);
+  }
 
   /**
-  * Name of the table and the PrimaryKey Column
+  * Reads every row of the table as it was when a snapshot was taken, in
+  * ascending order of their keys
+  * @param  snapshot          The snapshot the rows are read from, it must be open while they are iterated
+  * @throws HarambException   If the snapshot is closed or it is not of this table
+  * @return                   The pairs of keys and copies of the rows, they are read as they are iterated
   */
-  String tableName;
+  public Iterable<KeyValueNode<PrimaryKey, Row>> rows(Snapshot snapshot) throws HarambException {
+    return scan(null, true, null, true, false, snapshot);
+  }
 
   /**
-  * Name of the primary key column
+  * Counts the keys of a partition that are smaller than a key
+  * @param  keys        The sorted keys of the partition
+  * @param  key         The key to compare with
+  * @param  inclusive   If the keys equal to key are counted too
+  * @return             The number of keys smaller than key, or smaller or equal if inclusive
   */
-  String pkName;
+  private static <K extends Comparable<? super K>> int countBelow(List<K> keys, K key, boolean inclusive) {
+    int lower = 0, upper = keys.size();
+    while (lower < upper) {
+      int mid = (lower + upper) >>> 1;
+      int cmp = keys.get(mid).compareTo(key);
+      if (cmp < 0 || (inclusive && cmp == 0)) {
+        lower = mid + 1;
+      } else {
+        upper = mid;
+      }
+    }
+    return lower;
+  }
 
   /**
-  * Creates a new table within the specified database directory
-  * @param  dbPath          The path to the database directory this table belongs to
-  * @param  tableName       The name of the tablle
-  * @param  primaryKeyType  The Class of the primary key
-  * @param  primaryKeyName  The name of the primary key column
-  * @throws HarambException If there is an error creating the table file or if a database with the same name already exists
+  * A sequential stream of the rows of the table in ascending order of their keys
+  * @return The stream of pairs of keys and rows of the table
   */
-  public Table(String dbPath, String tableName, Class<?> primaryKeyType, String primaryKeyName) throws HarambException {
-    this.pkName = primaryKeyName;
-    this.path = dbPath + tableName + '/';
-    this.tableName = tableName;
-    this.primaryKeyType = primaryKeyType;
-    File tableDir = new File(this.path);
-    if (!tableDir.exists()) {
-      try {
-        tableDir.mkdir();
-        ObjectOutputStream oos = new ObjectOutputStream(
-          new FileOutputStream(this.path + tableName + extension));
-        oos.writeObject(this);
-        oos.close();
-      } catch (Exception e) {
-        throw new HarambException(e);
+  public Stream<KeyValueNode<PrimaryKey, Row>> stream() {
+    return StreamSupport.stream(() -> partitionSpliterator(null), PartitionSpliterator.CHARACTERISTICS, false);
+  }
+
+  /**
+  * A sequential stream of the rows of the table as they were when a snapshot
+  * was taken, see rows(Snapshot)
+  * @param  snapshot          The snapshot the rows are read from, it must be open while the stream is run
+  * @throws HarambException   If the snapshot is closed or it is not of this table
+  * @return                   The stream of pairs of keys and copies of the rows
+  */
+  public Stream<KeyValueNode<PrimaryKey, Row>> stream(Snapshot snapshot) throws HarambException {
+    version(snapshot);
+    return StreamSupport.stream(() -> partitionSpliterator(snapshot), PartitionSpliterator.CHARACTERISTICS, false);
+  }
+
+  /**
+  * A parallel stream of the rows of the table, the table is split along the
+  * partitions in the directory when the stream is run and every part is read
+  * by its own worker, loading its partitions independently of the others
+  * @return The stream of pairs of keys and rows of the table
+  */
+  public Stream<KeyValueNode<PrimaryKey, Row>> parallelStream() {
+    return StreamSupport.stream(() -> partitionSpliterator(null), PartitionSpliterator.CHARACTERISTICS, true);
+  }
+
+  /**
+  * A parallel stream of the rows of the table as they were when a snapshot was
+  * taken, the workers read the rows with the same snapshot, so they all see the
+  * table at the same point in time
+  * @param  snapshot          The snapshot the rows are read from, it must be open while the stream is run
+  * @throws HarambException   If the snapshot is closed or it is not of this table
+  * @return                   The stream of pairs of keys and copies of the rows
+  */
+  public Stream<KeyValueNode<PrimaryKey, Row>> parallelStream(Snapshot snapshot) throws HarambException {
+    version(snapshot);
+    return StreamSupport.stream(() -> partitionSpliterator(snapshot), PartitionSpliterator.CHARACTERISTICS, true);
+  }
+
+  /**
+  * Creates a spliterator over every partition in the directory
+  * @param  snapshot  The snapshot the rows are read from, null to read the rows in the table
+  * @return           The spliterator over the rows of the table
+  */
+  private Spliterator<KeyValueNode<PrimaryKey, Row>> partitionSpliterator(Snapshot snapshot) {
+    ArrayList<PrimaryKey> bounds = new ArrayList<>();
+    directoryLock.readLock().lock();
+    try {
+      for (KeyValueNode<PrimaryKey,Integer> node = partitions.first(); node != null; node = partitions.higher(bounds.get(bounds.size() - 1))) {
+        bounds.add(node.getKey());
       }
-    } else {
-      throw new HarambException("Table " + tableName + " already exists");
+    } finally {
+      directoryLock.readLock().unlock();
     }
-    partitions = new AVL<>();
-    currentPartition = new HarambePartition<PrimaryKey>(this.path, partitionCount);
-    this.columns = new HarambeColumnList();
+    return new PartitionSpliterator(bounds, 0, bounds.size(), snapshot);
   }
 
   /**
-  * {@link Table#primaryKeyType}
-  * @return The data type of the primary key
+  * A spliterator over the rows of a run of partitions of the directory. The
+  * keys of the partitions are taken when the stream is run, a spliterator
+  * reads the keys from the key of its first partition up to the key of the
+  * partition after its last one, so its rows are read correctly even if the
+  * partitions are divided or merged later. It is split in half by the number
+  * of partitions, a part is not split once it has started reading rows.
   */
-  public Class<?> getPrimaryKeyType() {
-    return this.primaryKeyType;
+  private class PartitionSpliterator implements Spliterator<KeyValueNode<PrimaryKey, Row>> {
+    static final int CHARACTERISTICS = ORDERED | DISTINCT | NONNULL;
+
+    /**
+    * The keys of the partitions in the directory
+    */
+    private final ArrayList<PrimaryKey> bounds;
+
+    /**
+    * The position of the first partition and of the partition after the last one
+    */
+    private int origin;
+    private final int fence;
+
+    /**
+    * The snapshot the rows are read from, null to read the rows in the table
+    */
+    private final Snapshot snapshot;
+
+    /**
+    * The iterator over the rows, null until the first row is read
+    */
+    private TableIterator rows;
+
+    PartitionSpliterator(ArrayList<PrimaryKey> bounds, int origin, int fence, Snapshot snapshot) {
+      this.bounds = bounds;
+      this.origin = origin;
+      this.fence = fence;
+      this.snapshot = snapshot;
+    }
+
+    public boolean tryAdvance(Consumer<? super KeyValueNode<PrimaryKey, Row>> action) {
+      if (rows == null) {
+        if (origin >= fence) {
+          return false;
+        }
+        // the first partition also holds the keys smaller than its key in the directory
+        rows = new TableIterator(origin > 0 ? bounds.get(origin) : null, true,
+          fence < bounds.size() ? bounds.get(fence) : null, false, false, null, snapshot);
+      }
+      if (!rows.hasNext()) {
+        return false;
+      }
+      action.accept(rows.next());
+      return true;
+    }
+
+    public Spliterator<KeyValueNode<PrimaryKey, Row>> trySplit() {
+      if (rows != null || fence - origin < 2) {
+        return null;
+      }
+      int middle = (origin + fence) >>> 1;
+      PartitionSpliterator prefix = new PartitionSpliterator(bounds, origin, middle, snapshot);
+      origin = middle;
+      return prefix;
+    }
+
+    /**
+    * The number of rows is not known without reading the partitions, the
+    * estimate is proportional to the number of partitions
+    */
+    public long estimateSize() {
+      return fence - origin;
+    }
+
+    public int characteristics() {
+      return CHARACTERISTICS;
+    }
   }
 
   /**
-  * Adds a new column to the table
-  * @param  name  The name of the new column
-  * @param  type  The data type that the column will store
-  * @return       The new column
+  * Loads a partition into the buffer pool on a read-ahead thread, if it is
+  * still in the directory. Errors are ignored, the partition is read again by
+  * the iterator that asked for it, which reports them.
+  * @param  minimumKey        The key of the partition in the directory
+  * @param  partitionNumber   The ID of the partition
   */
-  public Column addColumn(String name, Class<?> type) {
-    Column newCol = new Column(columns.size(), type);
-    columns.add(name, newCol);
-    return newCol;
+  private void readAhead(PrimaryKey minimumKey, int partitionNumber) {
+    readAheadThreads.execute(() -> {
+      directoryLock.readLock().lock();
+      try {
+        KeyValueNode<PrimaryKey,Integer> node = partitions.getClosest(minimumKey);
+        if (node == null || node.getValue() != partitionNumber || pool == null) {
+          return;
+        }
+        pool.unpin(pool.pin(partitionNumber));
+      } catch (HarambException e) {
+        // the iterator loads the partition again
+      } finally {
+        directoryLock.readLock().unlock();
+      }
+    });
   }
 
   /**
-  * Cuts a sorted partition in half, creates a new partition with it and pushes
-  * it to the AVL partition tree
-  * @throws HarambException If there is an error reading or writing partition files
+  * An iterator over the rows of a range of keys, the rows are read one
+  * partition at a time: every time the rows of a partition run out, the
+  * partition after the last key read is found in the AVL tree and its rows in
+  * the range are copied, meanwhile the partition that follows it is loaded on
+  * a read-ahead thread. Finding the partition by the last key read keeps the
+  * iterator correct if partitions are divided or merged while it is used.
+  *
+  * An iterator of a snapshot merges the keys of every partition with the keys
+  * in the history of the table in the range of the partition in the directory,
+  * and reads every row as the snapshot sees it.
   */
-  private void dividePartition() throws HarambException {
-    List<PrimaryKey> keys = currentPartition.getKeys();
-    Partition<PrimaryKey> newPartition = new HarambePartition<>(this.path, partitionCount);
+  public class TableIterator implements Iterator<KeyValueNode<PrimaryKey, Row>> {
+    private final PrimaryKey from, to;
+    private final boolean fromInclusive, toInclusive, descending;
+
+    /**
+    * The range of values of a column the rows must have, null to read every row
+    */
+    private final ColumnRange where;
+
+    /**
+    * The snapshot the rows are read from and its version, null to read the rows in the table
+    */
+    private final Snapshot snapshot;
+    private final long version;
+
+    /**
+    * The last key read, null until the first partition is read
+    */
+    private PrimaryKey last;
 
-    // move half of the bigger values in current partition to the new partition...
-    for (int i = keys.size()/2; i < keys.size(); i++) {
-      newPartition.addRow(keys.get(i), currentPartition.getRow(keys.get(i)));
-      currentPartition.removeRow(keys.get(i));
+    /**
+    * If there are no more rows in the range
+    */
+    private boolean finished;
+
+    /**
+    * The rows read from the current partition and the position of the next one
+    */
+    private final ArrayList<KeyValueNode<PrimaryKey, Row>> batch = new ArrayList<>();
+    private int position;
+
+    TableIterator(PrimaryKey from, boolean fromInclusive, PrimaryKey to, boolean toInclusive, boolean descending) {
+      this(from, fromInclusive, to, toInclusive, descending, null);
     }
-    partitions.add(newPartition.getKeys().get(0), partitionCount++);
-    newPartition.save();
-  }
 
-  public void removeRow(PrimaryKey key) throws HarambException {
-    if (partitions.isEmpty()) {
-      throw new HarambException("Table " + tableName + " is empty");
+    TableIterator(PrimaryKey from, boolean fromInclusive, PrimaryKey to, boolean toInclusive, boolean descending, ColumnRange where) {
+      this(from, fromInclusive, to, toInclusive, descending, where, null);
     }
-    loadPartition(key);
-    // if the smallest key is removed update the avl tree
-    if (currentPartition.removeRow(key)) {
-      Integer ptNumber = partitions.get(key);
-      partitions.remove(key);
-      partitions.add(key, ptNumber);
+
+    TableIterator(PrimaryKey from, boolean fromInclusive, PrimaryKey to, boolean toInclusive, boolean descending, ColumnRange where,
+    Snapshot snapshot) {
+      this.snapshot = snapshot;
+      this.version = snapshot != null ? version(snapshot) : 0;
+      this.from = from;
+      this.fromInclusive = fromInclusive;
+      this.to = to;
+      this.toInclusive = toInclusive;
+      this.descending = descending;
+      this.where = where;
+    }
+
+    public boolean hasNext() {
+      while (position >= batch.size() && !finished) {
+        readPartition();
+      }
+      return position < batch.size();
+    }
+
+    public KeyValueNode<PrimaryKey, Row> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return batch.get(position++);
+    }
+
+    /**
+    * Reads the rows in the range of the next partition that has any, holding
+    * the read lock of the directory and of every partition while it is read
+    */
+    private void readPartition() {
+      batch.clear();
+      position = 0;
+      if (snapshot != null && snapshot.isClosed()) {
+        throw new HarambException("The snapshot is closed");
+      }
+      directoryLock.readLock().lock();
+      try {
+        PrimaryKey start = last != null ? last : (descending ? to : from);
+        KeyValueNode<PrimaryKey,Integer> node = start != null ? partitions.getClosest(start)
+          : (descending ? partitions.last() : partitions.first());
+        PrimaryKey minimumKey = null;
+        while (node != null && batch.isEmpty()) {
+          // the AVL tree may reuse its nodes, so keep the key
+          minimumKey = node.getKey();
+          if (!skipped(node.getValue())) {
+            Lock lock = partitionLock(node.getValue()).readLock();
+            lock.lock();
+            try {
+              Partition<PrimaryKey> partition = pool.pin(node.getValue());
+              try {
+                List<PrimaryKey> keys = keys(partition, minimumKey);
+                if (!(descending ? readDescending(partition, keys) : readAscending(partition, keys))) {
+                  finished = true;
+                  return;
+                }
+              } finally {
+                pool.unpin(partition);
+              }
+            } finally {
+              lock.unlock();
+            }
+          }
+          node = descending ? partitions.lower(minimumKey) : partitions.higher(minimumKey);
+        }
+        finished = batch.isEmpty();
+        if (node != null && overlaps(node.getKey(), minimumKey) && !skipped(node.getValue())) {
+          readAhead(node.getKey(), node.getValue());
+        }
+      } finally {
+        directoryLock.readLock().unlock();
+      }
+    }
+
+    /**
+    * Tells if the zone map of a partition shows that no row of the partition
+    * has a value in the range of the column
+    * @param  partitionNumber   The ID of the partition
+    * @return                   If the partition doesn't have to be read
+    */
+    private boolean skipped(int partitionNumber) {
+      ZoneMap zoneMap = where != null && snapshot == null ? zoneMaps.get(partitionNumber) : null;
+      return zoneMap != null && !where.mayContain(zoneMap);
+    }
+
+    /**
+    * Tells if the partition that follows the last one read may have rows in the range
+    * @param  minimumKey    The key of the following partition in the directory
+    * @param  lastMinimum   The key of the last partition read in the directory
+    * @return               If the following partition overlaps the range
+    */
+    private boolean overlaps(PrimaryKey minimumKey, PrimaryKey lastMinimum) {
+      if (descending) {
+        // the keys of the following partition are smaller than lastMinimum
+        return from == null || from.compareTo(lastMinimum) < 0;
+      }
+      if (to == null) {
+        return true;
+      }
+      int cmp = minimumKey.compareTo(to);
+      return cmp < 0 || (cmp == 0 && toInclusive);
+    }
+
+    /**
+    * The keys of the rows of a partition, with the keys in the history of the
+    * table in the range of the partition if the rows are read from a snapshot
+    * @param  partition   The pinned partition
+    * @param  minimumKey  The key of the partition in the directory
+    * @return             The sorted keys
+    */
+    private List<PrimaryKey> keys(Partition<PrimaryKey> partition, PrimaryKey minimumKey) {
+      List<PrimaryKey> keys = partition.getKeys();
+      if (snapshot == null) {
+        return keys;
+      }
+      // the first partition also holds the keys smaller than its key in the directory
+      KeyValueNode<PrimaryKey,Integer> next = partitions.higher(minimumKey);
+      Collection<PrimaryKey> changed = history.keys(partitions.lower(minimumKey) != null ? minimumKey : null,
+        next != null ? next.getKey() : null);
+      if (changed.isEmpty()) {
+        return keys;
+      }
+      SortedArrayList<PrimaryKey> merged = new SortedArrayList<>(keys.size() + changed.size());
+      for (PrimaryKey key : keys) {
+        merged.add(key);
+      }
+      for (PrimaryKey key : changed) {
+        int index = merged.search(key);
+        if (index < 0) {
+          merged.add(-(index + 1), key);
+        }
+      }
+      return merged;
+    }
+
+    /**
+    * Copies the rows of a partition after the last key read and in the range
+    * @param  partition   The pinned partition
+    * @param  keys        The sorted keys of the partition
+    * @return             If the following partitions may have rows in the range
+    */
+    private boolean readAscending(Partition<PrimaryKey> partition, List<PrimaryKey> keys) {
+      int i = last != null ? countBelow(keys, last, true)
+        : (from != null ? countBelow(keys, from, !fromInclusive) : 0);
+      for (; i < keys.size(); i++) {
+        PrimaryKey key = keys.get(i);
+        if (to != null) {
+          int cmp = key.compareTo(to);
+          if (cmp > 0 || (cmp == 0 && !toInclusive)) {
+            return false;
+          }
+        }
+        add(partition, key);
+      }
+      return true;
+    }
+
+    /**
+    * Copies a row to the batch if it has a value in the range of the column
+    * @param  partition   The pinned partition
+    * @param  key         The primary key of the row
+    */
+    private void add(Partition<PrimaryKey> partition, PrimaryKey key) {
+      Row row = partition.getRow(key);
+      if (snapshot != null) {
+        row = read(key, row, version);
+      }
+      if (row != null && (where == null || where.matches(row))) {
+        batch.add(new KeyValueNode<>(key, row));
+      }
+      // the filtered rows are read too, so they are not read again
+      last = key;
+    }
+
+    /**
+    * Copies the rows of a partition before the last key read and in the range,
+    * in descending order
+    * @param  partition   The pinned partition
+    * @param  keys        The sorted keys of the partition
+    * @return             If the previous partitions may have rows in the range
+    */
+    private boolean readDescending(Partition<PrimaryKey> partition, List<PrimaryKey> keys) {
+      int i = last != null ? countBelow(keys, last, false) - 1
+        : (to != null ? countBelow(keys, to, toInclusive) - 1 : keys.size() - 1);
+      for (; i >= 0; i--) {
+        PrimaryKey key = keys.get(i);
+        if (from != null) {
+          int cmp = key.compareTo(from);
+          if (cmp < 0 || (cmp == 0 && !fromInclusive)) {
+            return false;
+          }
+        }
+        add(partition, key);
+      }
+      return true;
+    }
+  }
+
+  /**
+  * Applies the logged changes of this table that are not in its files, the
+  * database calls it when it is loaded after a crash. Rows and columns are
+  * changed as they were when the changes were logged, the partitions are only
+  * divided and merged by their own records, so the directory of partitions
+  * ends up as it was before the crash even if the table file is older.
+  * @param  records           The records of this table in the order they were logged
+  * @throws HarambException   If there is an error reading or writing a partition file
+  * @return                   The number of applied records
+  */
+  @SuppressWarnings("unchecked")
+  public int replay(Iterable<LogRecord> records) throws HarambException {
+    directoryLock.writeLock().lock();
+    try {
+      int applied = 0;
+      replaying = true;
+      try {
+        for (LogRecord record : records) {
+          if (record.lsn() <= logPosition) {
+            continue;
+          } else if (applied == 0) {
+            // the partitions may have been written after the table file, their
+            // zone maps are stored again when they are written
+            pool.forgetZoneMaps();
+          }
+          PrimaryKey key = (PrimaryKey) record.key();
+          switch (record.type()) {
+            case LogRecord.ADD:
+              redoAdd(key);
+              break;
+            case LogRecord.REMOVE:
+              if (findRow(key, null) != null) {
+                removeRow(key);
+              }
+              break;
+            case LogRecord.SET:
+              redoSet(key, record.column(), record.value());
+              break;
+            case LogRecord.COLUMN:
+              if (getColumn(record.name()) == null) {
+                addColumn(record.name(), Class.forName(record.className()));
+              }
+              break;
+            case LogRecord.SPLIT:
+              redoSplit(key, record.partition(), record.other());
+              break;
+            case LogRecord.MERGE:
+              redoMerge(record.partition(), record.other());
+              break;
+          }
+          logged(record.lsn());
+          applied++;
+        }
+      } catch (ClassNotFoundException e) {
+        throw new HarambException(e);
+      } finally {
+        replaying = false;
+      }
+      return applied;
+    } finally {
+      directoryLock.writeLock().unlock();
     }
   }
 
   /**
-  * Adds a row to the table, it returns the new row so you can chain set calls
+  * Replays the addition of a row, if the row is already in the table it was
+  * added again after being removed, so it starts again with no fields
   * @param  key               The value of the primary key of the row
   * @throws HarambException   If there is an error reading a partition file
-  * @return The added row
   */
-  public Row addRow(PrimaryKey key) throws HarambException {
+  private void redoAdd(PrimaryKey key) throws HarambException {
     if (partitions.isEmpty()) {
+      // the first partition may have been written after the table file
       partitions.add(key, partitionCount++);
-      currentPartition.addRow(key, new HarambeRow(this.columns));
-      return currentPartition.getRow(key);
     }
+    if (findRow(key, null) == null) {
+      addRow(key);
+      return;
+    }
+    Partition<PrimaryKey> partition = pool.pin(locatePartition(key).getValue());
+    try {
+      partition.removeRow(key);
+      partition.addRow(key, new HarambeRow(this.columns));
+    } finally {
+      pool.unpin(partition);
+    }
+  }
+
+  /**
+  * Replays the change of a field, the change is ignored if the row or the
+  * column no longer exist
+  * @param  key               The value of the primary key of the row
+  * @param  index             The index of the column
+  * @param  value             The new value of the field, null if it was removed
+  * @throws HarambException   If there is an error reading a partition file
+  */
+  private void redoSet(PrimaryKey key, int index, Object value) throws HarambException {
+    Row row = findRow(key, null);
+    Column column = null;
+    for (Column col : columns) {
+      if (col.index() == index) {
+        column = col;
+      }
+    }
+    if (row == null || column == null) {
+      return;
+    }
+    if (value == null) {
+      row.remove(column);
+    } else {
+      row.set(column, value);
+    }
+  }
 
-    loadPartition(key);
-    if (key.compareTo(currentPartition.getKeys().get(0)) < 0) {
-      partitions.remove(currentPartition.getKeys().get(0));
-      partitions.add(key, currentPartition.partitionNumber());
+  /**
+  * Replays the division of a partition. The new partition was written when it
+  * was created, the rows of the divided partition after the minimum key of the
+  * new partition are stale copies unless the new partition lacks them.
+  * @param  minimumKey        The minimum key of the new partition
+  * @param  partitionNumber   The ID of the new partition
+  * @param  divided           The ID of the divided partition
+  * @throws HarambException   If there is an error reading or writing a partition file
+  */
+  private void redoSplit(PrimaryKey minimumKey, int partitionNumber, int divided) throws HarambException {
+    partitionCount = Math.max(partitionCount, partitionNumber + 1);
+    Partition<PrimaryKey> target;
+    if (new File(this.path + "pt" + partitionNumber + Partition.extension).exists()) {
+      target = pool.pin(partitionNumber);
+    } else {
+      target = new HarambePartition<>(this.path, partitionNumber, columns, primaryKeyType);
+      pool.admit(target);
+    }
+    try {
+      Partition<PrimaryKey> source = pool.pin(divided);
+      try {
+        List<PrimaryKey> keys = source.getKeys();
+        int from = source.size();
+        while (from > 0 && keys.get(from - 1).compareTo(minimumKey) >= 0) {
+          from--;
+        }
+        absorb(source, from, target);
+      } finally {
+        pool.unpin(source);
+      }
+      if (!partitions.contains(minimumKey)) {
+        partitions.add(minimumKey, partitionNumber);
+      }
+    } finally {
+      pool.unpin(target);
     }
+  }
 
-    currentPartition.addRow(key, new HarambeRow(this.columns));
-    if (currentPartition.size() > THRESHOLD) {
-      dividePartition();
+  /**
+  * Replays the removal of a partition from the directory, its rows are moved to
+  * the partition that received them unless that partition already has them
+  * @param  partitionNumber   The ID of the removed partition
+  * @param  into              The ID of the partition that received its rows, -1 if it was empty
+  * @throws HarambException   If there is an error reading or writing a partition file
+  */
+  private void redoMerge(int partitionNumber, int into) throws HarambException {
+    PrimaryKey key = null;
+    for (KeyValueNode<PrimaryKey,Integer> node = partitions.first(); node != null; node = partitions.higher(node.getKey())) {
+      if (node.getValue() == partitionNumber) {
+        key = node.getKey();
+        break;
+      }
+    }
+    if (key == null || partitions.size() < 2) {
+      return;
+    }
+    Partition<PrimaryKey> partition = pool.pin(partitionNumber);
+    try {
+      if (into >= 0) {
+        Partition<PrimaryKey> left = pool.pin(into);
+        try {
+          absorb(partition, 0, left);
+        } finally {
+          pool.unpin(left);
+        }
+      }
+      partitions.remove(key);
+      pool.discard(partition);
+    } finally {
+      pool.unpin(partition);
     }
-    return this.getRow(key);
   }
 
   /**
-  * Retrieves a single row in the table
-  * @param  key             The value of the primary key of the row
-  * @throws HarambException If there is an error reading a partition file or there is no row with the specified primary key
-  * @return                 The row with primary key equals to key
+  * Moves the rows from a position of a partition up to its end to another
+  * partition while the log is replayed, the rows that the other partition
+  * already has were written after they were moved, so they are kept
+  * @param  from              The pinned partition the rows are taken from
+  * @param  index             The position of the first row to move
+  * @param  to                The pinned partition the rows are moved to
+  * @throws HarambException   If there is an error reading a partition file
   */
-  public Row getRow(PrimaryKey key) throws HarambException {
-    loadPartition(key);
-    Row row = currentPartition.getRow(key);
-    if (row == null) {
-      throw new HarambException("No such row: " + key);
+  private void absorb(Partition<PrimaryKey> from, int index, Partition<PrimaryKey> to) throws HarambException {
+    List<PrimaryKey> keys = from.getKeys();
+    for (int i = from.size() - 1; i >= index; i--) {
+      PrimaryKey key = keys.get(i);
+      Row row = from.getRow(key);
+      from.removeRow(key);
+      if (to.getRow(key) == null) {
+        to.addRow(key, row);
+      }
     }
-    return row;
   }
 
   /**
@@ -243,31 +2864,35 @@ public class Table<PrimaryKey extends Comparable<? super PrimaryKey>> implements
     rows.add(getRow(key));
     for (Column col : columns) {
       if (col.hasRelation())
-        if (col.relationType() == Relation.Type.oneToOne)
-          try {
-            if (rows.get(0).get(col) != null)
-              rows.add(col.getRelatedTable(db).getRow(rows.get(0).get(col)));
-          } catch (HarambException he) {
-            // If the endpoind of the relation does not exist, either it has been
-            // erased or it never existed, anyway, set the field of the column to null
-            rows.set(0, getRow(key).set(col, null));
+        if (col.relationType() == Relation.Type.oneToOne) {
+          if (rows.get(0).get(col) != null) {
+            Table<OtherPrimaryKey> related = col.getRelatedTable(db);
+            Row row = related.tryGetRow(rows.get(0).get(col));
+            if (row != null) {
+              rows.add(row);
+            } else {
+              // If the endpoind of the relation does not exist, either it has been
+              // erased or it never existed, anyway, set the field of the column to null
+              rows.get(0).remove(col);
+            }
           }
-        else {
+        } else {
           // it is guaranteed that every field in the related column holds an array.
-          Table<OtherPrimaryKey> related = col.getRelatedTable(db);
+          Table<OtherPrimaryKey> relatedTable = col.getRelatedTable(db);
           OtherPrimaryKey[] keys = rows.get(0).get(col);
           if (keys == null) continue;
           ArrayLinearList<OtherPrimaryKey> nonexistentEndpoints = new ArrayLinearList<>();
-          for (OtherPrimaryKey r : keys)
-            try {
-              if (r != null) {
-                rows.add(related.getRow(r));
+          ArrayList<Row> related = relatedTable.getRows(Arrays.asList(keys));
+          for (int i = 0; i < keys.length; i++)
+            if (keys[i] != null) {
+              if (related.get(i) != null) {
+                rows.add(related.get(i));
+              } else {
+                // If the endpoind of the relation does not exist, either it has been
+                // erased or it never existed, keep track of these values to remove
+                // them afterwards
+                nonexistentEndpoints.add(keys[i]);
               }
-            } catch (HarambException he) {
-              // If the endpoind of the relation does not exist, either it has been
-              // erased or it never existed, keep track of these values to remove
-              // them afterwards
-              nonexistentEndpoints.add(r);
             }
 
           // If there were nonexistentEndpoints then remove the bad keys >:c
@@ -346,22 +2971,18 @@ public class Table<PrimaryKey extends Comparable<? super PrimaryKey>> implements
   }
 
   /**
-  * Closes the current partition and saves it if necessary, then loads the
-  * partition where ketInRange should be
-  * @param  keyInRange        A value that helps to find the partition to load
-  * @throws HarambException   If there is an error reading or saving a partition file
+  * Finds the partition where keyInRange should be, the partition still has to
+  * be pinned in the buffer pool before using it
+  * @param  keyInRange        A value that helps to find the partition
+  * @throws HarambException   If the table is empty
+  * @return                   The node of the AVL tree with the minimum key and the ID of the partition
   */
-  private final void loadPartition(PrimaryKey keyInRange) throws HarambException {
+  private final KeyValueNode<PrimaryKey,Integer> locatePartition(PrimaryKey keyInRange) throws HarambException {
     KeyValueNode<PrimaryKey,Integer> partitionInfo = partitions.getClosest(keyInRange);
     if (partitionInfo == null) {
       throw new HarambException("Table " + tableName + " is empty");
     }
-    if (currentPartition == null) {
-      currentPartition = Partition.load(this.path, partitionInfo.getValue());
-    } else if (partitionInfo.getKey().compareTo(currentPartition.getKeys().get(0)) != 0) {
-      currentPartition.save();
-      currentPartition = Partition.load(this.path, partitionInfo.getValue());
-    }
+    return partitionInfo;
   }
 
   /**
@@ -374,16 +2995,37 @@ public class Table<PrimaryKey extends Comparable<? super PrimaryKey>> implements
   }
 
   /**
-  * Saves the actual state of the table in its corresponding .hbtb file
+  * Saves the dirty partitions and the actual state of the table in its
+  * corresponding .hbtb file, if the table has not changed since it was loaded or
+  * saved nothing is written
   * @throws HarambException If there is an IOException
   */
   public void save() throws HarambException {
-    currentPartition.save();
-    try (ObjectOutputStream oos = new ObjectOutputStream(
-    new FileOutputStream(this.path + tableName + extension))) {
-      oos.writeObject(this);
-    } catch (Exception e) {
-      throw new HarambException(e);
+    directoryLock.writeLock().lock();
+    try {
+      // every change logged up to here is in memory, so it is in the files after the flush
+      logPosition = Math.max(logPosition, lastLogged.get());
+      pool.flush();
+      for (SecondaryIndex<PrimaryKey> index : indexes) {
+        index.save(this.path);
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+        oos.writeObject(this);
+      } catch (Exception e) {
+        throw new HarambException(e);
+      }
+      byte[] state = bytes.toByteArray();
+      // a checkpoint deletes the log after the save, so the files and their directory entries must be on the disk
+      if (!Arrays.equals(state, savedState)) {
+        WriteAheadLog.writeDurably(this.path + tableName + extension, state);
+        savedState = state;
+      } else {
+        WriteAheadLog.syncDirectory(this.path);
+      }
+      pool.deleteDiscarded();
+    } finally {
+      directoryLock.writeLock().unlock();
     }
   }
 
@@ -490,43 +3132,59 @@ public class Table<PrimaryKey extends Comparable<? super PrimaryKey>> implements
 
   @SuppressWarnings("unchecked")
   public static final <T extends Comparable<? super T>> Table<T> load(final String dbPath, final String tableName) throws HarambException {
-    try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(
-      new FileInputStream(dbPath + tableName + '/' + tableName + extension)))) {
+    try {
+      byte[] state = Files.readAllBytes(Paths.get(dbPath + tableName + '/' + tableName + extension));
+      try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(state))) {
         Table<T> table = (Table<T>) ois.readObject();
-        table.currentPartition = Partition.load(table.path, 0);
+        table.savedState = state;
+        table.lastLogged = new AtomicLong();
+        table.appendRun = new AtomicInteger();
+        table.directoryLock = new ReentrantReadWriteLock();
+        table.partitionLocks = partitionLocks();
+        table.versions = new Versions();
+        table.history = new RowHistory<>();
+        table.versions.track(table.history);
+        int poolPartitions = table.poolPartitions > 0 ? table.poolPartitions : PartitionPool.DEFAULT_CAPACITY;
+        if (table.sizer == null) {
+          table.sizer = new PartitionSizer();
+        }
+        table.pool = new PartitionPool<>(table.path, table.columns, table.primaryKeyType, table.sizer, poolPartitions, table.poolBytes);
+        table.pool.setMapped(table.getReadMode() == ReadMode.MAPPED);
+        table.pool.setChangeListener(table.new ChangeListener());
+        if (table.zoneMaps == null) {
+          table.zoneMaps = new ConcurrentHashMap<>();
+        }
+        table.pool.setZoneMaps(table.zoneMaps);
+        if (table.indexes == null) {
+          table.indexes = new ArrayList<>();
+        }
+        for (SecondaryIndex<T> index : table.indexes) {
+          if (!index.load(table.path)) {
+            table.fill(index, table.getColumn(index.columnName()));
+          }
+        }
         return table;
+      }
     } catch (Exception e) {
       throw new HarambException(e);
     }
   }
 
-  public Iterator<PrimaryKey> iterator() {
-    return new TableIterator();
-  }
-
   /**
-  * A class to iterate over all primary keys of a table.
+  * Iterates over all primary keys of the table in ascending order, use rows()
+  * to read the rows as well, or rows(snapshot) to read them from a snapshot.
+  * @return An iterator over the primary keys of the table
   */
-  public class TableIterator implements Iterator<PrimaryKey> {
-    Iterator<Integer> pIter;
-    Partition<PrimaryKey> p;
-    Iterator<PrimaryKey> keysIter;
-
-    {
-      pIter = partitions.iterator();
-      p = (pIter.hasNext()) ? Partition.load(path, pIter.next()) : null;
-      keysIter = (p != null) ? p.getKeys().iterator() : null;
-    }
-
-    public PrimaryKey next() {
-      if (!keysIter.hasNext() && pIter.hasNext()) {
-        keysIter = p.getKeys().iterator();
+  public Iterator<PrimaryKey> iterator() {
+    TableIterator rows = new TableIterator(null, true, null, true, false, null, null);
+    return new Iterator<PrimaryKey>() {
+      public boolean hasNext() {
+        return rows.hasNext();
       }
-      return keysIter.next();
-    }
 
-    public boolean hasNext() {
-      return pIter.hasNext() || keysIter.hasNext();
-    }
+      public PrimaryKey next() {
+        return rows.next().getKey();
+      }
+    };
   }
 }
@@ -0,0 +1,376 @@
+package hdb.table;
+
+import java.util.concurrent.locks.Lock;
+import java.util.LinkedHashMap;
+import hdb.log.WriteAheadLog;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.Map;
+import java.util.HashSet;
+import hdb.HarambException;
+import hdb.table.row.Row;
+
+/**
+* A transaction over the tables of a database. The rows are read from a
+* snapshot taken when the transaction begins, and the changes are buffered in
+* memory without taking any lock until the transaction is committed, so the
+* rows the transaction reads and writes are seen as they were when it began,
+* plus its own changes.
+*
+* The commit is optimistic: it takes the write locks of the tables the
+* transaction used, in the order of their names, and fails if any row the
+* transaction read or changed was changed by someone else after the
+* transaction began. Otherwise every change is appended to the log of the
+* database as a single record, forced to the disk in the next group commit,
+* and applied to the tables, so after a crash the transaction is either
+* replayed whole or not at all. The partitions of the changed rows are loaded
+* before the record is logged, so applying it reads and writes no partition
+* file. Snapshots see all the changes of a committed transaction or none of
+* them.
+*
+* Only the rows read with getRow are checked for conflicts, the snapshot of a
+* transaction can be used to scan the tables but the scanned rows are not
+* checked. A transaction is used by a single thread.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     Snapshot
+* @see     Versions
+* @see     hdb.Database
+*/
+public class Transaction implements AutoCloseable {
+
+  /**
+  * The change of a row made by the transaction
+  */
+  private static class Write {
+    final Row original;
+    Row image;
+
+    Write(Row original, Row image) {
+      this.original = original;
+      this.image = image;
+    }
+  }
+
+  /**
+  * The rows a transaction read and changed in a table
+  */
+  private static class Changes<PrimaryKey extends Comparable<? super PrimaryKey>> {
+    final Table<PrimaryKey> table;
+
+    /**
+    * A dictionary of the primary keys of the changed rows mapping to their changes
+    */
+    final TreeMap<PrimaryKey, Write> writes = new TreeMap<>();
+
+    /**
+    * The primary keys of the rows read from the snapshot
+    */
+    final HashSet<PrimaryKey> reads = new HashSet<>();
+
+    Changes(Table<PrimaryKey> table) {
+      this.table = table;
+    }
+
+    /**
+    * Finds the first row read or changed by the transaction that was changed
+    * after the snapshot was taken
+    * @param  snapshot  The snapshot of the transaction
+    * @return           The primary key of the row, null if there is no conflict
+    */
+    PrimaryKey conflict(Snapshot snapshot) {
+      for (PrimaryKey key : reads) {
+        if (table.changedSince(key, snapshot)) {
+          return key;
+        }
+      }
+      for (PrimaryKey key : writes.keySet()) {
+        if (table.changedSince(key, snapshot)) {
+          return key;
+        }
+      }
+      return null;
+    }
+
+    /**
+    * Adds the records of the changes to the batch of the transaction
+    * @param  batch   The records of the transaction
+    */
+    void log(WriteAheadLog.Batch batch) {
+      for (Map.Entry<PrimaryKey, Write> write : writes.entrySet()) {
+        table.logCommitted(batch, write.getKey(), write.getValue().original, write.getValue().image);
+      }
+    }
+
+    /**
+    * Pins the partitions of the changed rows, holding the lock taken by beginCommit
+    * @throws HarambException   If there is an error reading a partition file
+    */
+    void prepare() throws HarambException {
+      table.prepareCommit(writes.keySet());
+    }
+
+    /**
+    * Applies the changes to the table, holding the lock taken by beginCommit,
+    * after prepare
+    * @throws HarambException   If there is an error reading or writing a partition file
+    */
+    void apply() throws HarambException {
+      for (Map.Entry<PrimaryKey, Write> write : writes.entrySet()) {
+        table.applyCommitted(write.getKey(), write.getValue().image);
+      }
+    }
+  }
+
+  /**
+  * The versions of the tables of the transaction
+  */
+  private final Versions versions;
+
+  /**
+  * The snapshot the rows are read from
+  */
+  private final Snapshot snapshot;
+
+  /**
+  * The tables used by the transaction mapping to their changes, in the order they were used
+  */
+  private final LinkedHashMap<Table<?>, Changes<?>> tables = new LinkedHashMap<>();
+
+  /**
+  * If the transaction has been committed or rolled back
+  */
+  private boolean finished;
+
+  /**
+  * Begins a transaction, see Database.beginTransaction
+  * @param  versions  The versions of the tables of the transaction
+  */
+  Transaction(Versions versions) {
+    this.versions = versions;
+    this.snapshot = versions.snapshot();
+  }
+
+  /**
+  * {@link Transaction#snapshot}
+  * @return The snapshot the transaction reads the rows from
+  */
+  public Snapshot snapshot() {
+    return snapshot;
+  }
+
+  /**
+  * Reads a row as the transaction sees it, the commit fails if the row is
+  * changed by someone else before the transaction is committed. The row is a
+  * copy that is not bound to the table, use updateRow to change it.
+  * @param  table             The table of the row
+  * @param  key               The value of the primary key of the row
+  * @param  <PrimaryKey>      The data type of the primary key of the table
+  * @throws HarambException   If the transaction is finished or there is an error reading a partition file
+  * @return                   The row, null if there is no such row
+  */
+  public <PrimaryKey extends Comparable<? super PrimaryKey>> Row getRow(Table<PrimaryKey> table, PrimaryKey key) throws HarambException {
+    Changes<PrimaryKey> changes = changes(table);
+    Write write = changes.writes.get(key);
+    if (write != null) {
+      return write.image;
+    }
+    changes.reads.add(key);
+    return table.tryGetRow(key, snapshot);
+  }
+
+  /**
+  * Adds a row to a table when the transaction is committed
+  * @param  table             The table of the row
+  * @param  key               The value of the primary key of the row
+  * @param  <PrimaryKey>      The data type of the primary key of the table
+  * @throws HarambException   If the transaction is finished, the transaction sees a row with the same key or there is an error reading a partition file
+  * @return                   The new row, its fields are set in the table when the transaction is committed
+  */
+  public <PrimaryKey extends Comparable<? super PrimaryKey>> Row addRow(Table<PrimaryKey> table, PrimaryKey key) throws HarambException {
+    Changes<PrimaryKey> changes = changes(table);
+    Write write = changes.writes.get(key);
+    if (write == null) {
+      if (table.tryGetRow(key, snapshot) != null) {
+        changes.reads.add(key);
+        throw new HarambException("Key already exists: " + key);
+      }
+      write = new Write(null, null);
+      changes.writes.put(key, write);
+    } else if (write.image != null) {
+      throw new HarambException("Key already exists: " + key);
+    }
+    // a row removed by the transaction is added again without its fields
+    write.image = table.newRow();
+    return write.image;
+  }
+
+  /**
+  * Changes a row of a table when the transaction is committed
+  * @param  table             The table of the row
+  * @param  key               The value of the primary key of the row
+  * @param  <PrimaryKey>      The data type of the primary key of the table
+  * @throws HarambException   If the transaction is finished, it sees no row with that key or there is an error reading a partition file
+  * @return                   A copy of the row as the transaction sees it, its fields are set in the table when the transaction is committed
+  */
+  public <PrimaryKey extends Comparable<? super PrimaryKey>> Row updateRow(Table<PrimaryKey> table, PrimaryKey key) throws HarambException {
+    Changes<PrimaryKey> changes = changes(table);
+    Write write = changes.writes.get(key);
+    if (write == null) {
+      Row original = table.tryGetRow(key, snapshot);
+      if (original == null) {
+        changes.reads.add(key);
+        throw new HarambException("No such row: " + key);
+      }
+      write = new Write(original, original.copy());
+      changes.writes.put(key, write);
+    } else if (write.image == null) {
+      throw new HarambException("No such row: " + key);
+    }
+    return write.image;
+  }
+
+  /**
+  * Removes a row from a table when the transaction is committed
+  * @param  table             The table of the row
+  * @param  key               The value of the primary key of the row
+  * @param  <PrimaryKey>      The data type of the primary key of the table
+  * @throws HarambException   If the transaction is finished, it sees no row with that key or there is an error reading a partition file
+  */
+  public <PrimaryKey extends Comparable<? super PrimaryKey>> void removeRow(Table<PrimaryKey> table, PrimaryKey key) throws HarambException {
+    Changes<PrimaryKey> changes = changes(table);
+    Write write = changes.writes.get(key);
+    if (write == null) {
+      Row original = table.tryGetRow(key, snapshot);
+      if (original == null) {
+        changes.reads.add(key);
+        throw new HarambException("No such row: " + key);
+      }
+      changes.writes.put(key, new Write(original, null));
+    } else if (write.image == null) {
+      throw new HarambException("No such row: " + key);
+    } else if (write.original == null) {
+      // the row was added by the transaction, it must still be missing when it is committed
+      changes.writes.remove(key);
+      changes.reads.add(key);
+    } else {
+      write.image = null;
+    }
+  }
+
+  /**
+  * Commits the transaction: the changes are checked for conflicts, logged as a
+  * single record and applied to the tables. The transaction is finished
+  * whether it succeeds or not.
+  * @throws HarambException   If a row the transaction read or changed was changed
+  *                           after it began, or there is an error writing the log or a partition file
+  */
+  public void commit() throws HarambException {
+    check();
+    finished = true;
+    ArrayList<Changes<?>> locked = new ArrayList<>(tables.values());
+    // the tables are always locked in the same order so commits don't deadlock
+    locked.sort((a, b) -> a.table.name().compareTo(b.table.name()) != 0 ? a.table.name().compareTo(b.table.name())
+      : Integer.compare(System.identityHashCode(a.table), System.identityHashCode(b.table)));
+    int taken = 0;
+    long lsn = 0;
+    try {
+      for (Changes<?> changes : locked) {
+        changes.table.beginCommit();
+        taken++;
+      }
+      for (Changes<?> changes : locked) {
+        Object key = changes.conflict(snapshot);
+        if (key != null) {
+          throw new HarambException("Row " + key + " of table " + changes.table.name() + " was changed by another transaction");
+        }
+      }
+      WriteAheadLog.Batch batch = new WriteAheadLog.Batch();
+      for (Changes<?> changes : locked) {
+        changes.log(batch);
+      }
+      if (batch.size() == 0) {
+        return;
+      }
+      // once the record is durable applying the changes must not fail, so no partition file is read or written then
+      for (Changes<?> changes : locked) {
+        changes.prepare();
+      }
+      WriteAheadLog log = locked.get(0).table.log();
+      if (log != null) {
+        lsn = log.logTransaction(batch);
+        log.sync();
+      }
+      Lock commits = versions.commitLock();
+      commits.lock();
+      try {
+        for (Changes<?> changes : locked) {
+          changes.apply();
+        }
+      } finally {
+        commits.unlock();
+      }
+    } finally {
+      for (int i = taken - 1; i >= 0; i--) {
+        locked.get(i).table.endCommit(lsn);
+      }
+      snapshot.close();
+    }
+  }
+
+  /**
+  * Discards the changes of the transaction, nothing is done if it is already finished
+  */
+  public void rollback() {
+    finished = true;
+    snapshot.close();
+  }
+
+  /**
+  * Rolls the transaction back unless it has been committed
+  */
+  public void close() {
+    rollback();
+  }
+
+  /**
+  * Tells if the transaction has been committed or rolled back
+  * @return If the transaction can't be used anymore
+  */
+  public boolean isFinished() {
+    return finished;
+  }
+
+  /**
+  * Finds the changes of the transaction in a table
+  * @param  table             The table
+  * @param  <PrimaryKey>      The data type of the primary key of the table
+  * @throws HarambException   If the transaction is finished
+  * @return                   The changes in the table
+  */
+  @SuppressWarnings("unchecked")
+  private <PrimaryKey extends Comparable<? super PrimaryKey>> Changes<PrimaryKey> changes(Table<PrimaryKey> table) throws HarambException {
+    check();
+    Changes<PrimaryKey> changes = (Changes<PrimaryKey>) tables.get(table);
+    if (changes == null) {
+      changes = new Changes<>(table);
+      tables.put(table, changes);
+    }
+    return changes;
+  }
+
+  /**
+  * Checks that the transaction can still be used
+  * @throws HarambException   If the transaction has been committed or rolled back
+  */
+  private void check() throws HarambException {
+    if (finished) {
+      throw new HarambException("The transaction is finished");
+    }
+  }
+}
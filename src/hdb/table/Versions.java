@@ -0,0 +1,213 @@
+package hdb.table;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.ref.Reference;
+import java.util.HashSet;
+import java.util.TreeMap;
+
+/**
+* The versions of the rows of a group of tables, usually the tables of a
+* database. Every change of a row, i.e. adding or removing it or changing one
+* of its fields, is stamped with the next version of a clock shared by the
+* tables, and a snapshot sees the changes stamped up to the version of the
+* clock when it was taken.
+*
+* While some snapshot is open the tables keep the rows as they were before
+* every change in their RowHistory, the versions no open snapshot needs are
+* reclaimed when a snapshot is closed. A snapshot that is not closed is
+* released once it is garbage collected, but the old versions are kept until
+* then, so snapshots should be closed as soon as they are not needed.
+*
+* The changes of a committed transaction are applied holding the write lock of
+* the commits, and snapshots are taken holding its read lock, so a snapshot sees
+* all the changes of a transaction or none of them.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     Snapshot
+* @see     RowHistory
+* @see     Table
+*/
+public class Versions {
+
+  /**
+  * A weak reference to an open snapshot that remembers its version, so the
+  * snapshot can be released once it has been collected
+  */
+  static class SnapshotReference extends WeakReference<Snapshot> {
+    final long version;
+
+    SnapshotReference(Snapshot snapshot, ReferenceQueue<Snapshot> queue) {
+      super(snapshot, queue);
+      this.version = snapshot.version();
+    }
+  }
+
+  /**
+  * The last version stamped on a change
+  */
+  private final AtomicLong clock = new AtomicLong();
+
+  /**
+  * The number of open snapshots, it is increased before a snapshot reads the
+  * clock and read after a change is stamped, so a change stamped after a
+  * snapshot was taken always sees it
+  */
+  private final AtomicInteger open = new AtomicInteger();
+
+  /**
+  * The references to the open snapshots
+  */
+  private final HashSet<SnapshotReference> snapshots = new HashSet<>();
+
+  /**
+  * A dictionary of the versions of the open snapshots mapping to the number of
+  * snapshots of every version
+  */
+  private final TreeMap<Long, Integer> versions = new TreeMap<>();
+
+  /**
+  * The queue where the collected snapshots are enqueued
+  */
+  private final ReferenceQueue<Snapshot> collected = new ReferenceQueue<>();
+
+  /**
+  * The histories of the tables that share the clock
+  */
+  private final CopyOnWriteArrayList<RowHistory<?>> histories = new CopyOnWriteArrayList<>();
+
+  /**
+  * The lock that keeps snapshots from being taken while a transaction is applied
+  */
+  private final ReentrantReadWriteLock commits = new ReentrantReadWriteLock();
+
+  /**
+  * Takes a snapshot of the tables, it sees every change made before this call
+  * and none of the changes made after it. It must be closed when it is no
+  * longer needed.
+  * @return The open snapshot
+  */
+  public Snapshot snapshot() {
+    expunge();
+    commits.readLock().lock();
+    try {
+      open.incrementAndGet();
+      synchronized (this) {
+        Snapshot snapshot = new Snapshot(this, clock.get());
+        SnapshotReference reference = new SnapshotReference(snapshot, collected);
+        snapshot.reference = reference;
+        snapshots.add(reference);
+        versions.merge(snapshot.version(), 1, Integer::sum);
+        return snapshot;
+      }
+    } finally {
+      commits.readLock().unlock();
+    }
+  }
+
+  /**
+  * Begins a transaction over the tables, see Transaction
+  * @return The new transaction
+  */
+  public Transaction transaction() {
+    return new Transaction(this);
+  }
+
+  /**
+  * The lock held while the changes of a committed transaction are applied,
+  * the caller holds the write locks of the tables it changes
+  * @return The write lock of the commits
+  */
+  ReentrantReadWriteLock.WriteLock commitLock() {
+    return commits.writeLock();
+  }
+
+  /**
+  * The last version stamped on a change
+  * @return The current version of the clock
+  */
+  public long version() {
+    return clock.get();
+  }
+
+  /**
+  * Stamps a change with the next version, it must be called before the change
+  * is made and holding the lock readers take to read the changed row
+  * @return The version of the change
+  */
+  long stamp() {
+    return clock.incrementAndGet();
+  }
+
+  /**
+  * Tells if the rows as they were before a change must be kept, it must be
+  * called after the change is stamped
+  * @return If some snapshot is open
+  */
+  boolean recording() {
+    if (open.get() == 0) {
+      return false;
+    }
+    expunge();
+    return open.get() > 0;
+  }
+
+  /**
+  * Reclaims the versions of the rows of a table with these versions
+  * @param  history   The history of the table
+  */
+  void track(RowHistory<?> history) {
+    histories.addIfAbsent(history);
+  }
+
+  /**
+  * Stops reclaiming the versions of the rows of a table
+  * @param  history   The history of the table
+  */
+  void untrack(RowHistory<?> history) {
+    histories.remove(history);
+  }
+
+  /**
+  * Releases a snapshot and reclaims the versions no open snapshot needs,
+  * nothing is done if the snapshot was already released
+  * @param  reference   The reference to the snapshot
+  */
+  void release(Reference<Snapshot> reference) {
+    long bound;
+    synchronized (this) {
+      if (!snapshots.remove(reference)) {
+        return;
+      }
+      long version = ((SnapshotReference) reference).version;
+      if (versions.merge(version, -1, Integer::sum) == 0) {
+        versions.remove(version);
+      }
+      open.decrementAndGet();
+      // the snapshots taken later see every change stamped up to now
+      bound = versions.isEmpty() ? clock.get() : Math.min(versions.firstKey(), clock.get());
+    }
+    for (RowHistory<?> history : histories) {
+      history.prune(bound);
+    }
+  }
+
+  /**
+  * Releases the snapshots that have been collected without being closed
+  */
+  private void expunge() {
+    Reference<? extends Snapshot> reference;
+    while ((reference = collected.poll()) != null) {
+      release((SnapshotReference) reference);
+    }
+  }
+}
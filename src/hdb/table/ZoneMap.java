@@ -0,0 +1,232 @@
+package hdb.table;
+
+import hdb.table.column.ColumnList;
+import hdb.table.column.Column;
+import structures.dict.Dict;
+import java.io.Serializable;
+import hdb.table.row.Row;
+import java.util.Arrays;
+
+/**
+* The statistics of the columns of a partition: the number of rows, a filter
+* of the primary keys, and for every column the number of rows without a value
+* and, if the column is Comparable, the minimum and maximum values. The zone
+* maps of the partitions are stored in the table file, so a scan filtered by
+* the values of a column can skip the partitions that have no row in the range
+* without loading them, and looking for a missing row seldom loads a partition.
+*
+* The statistics are updated on every change of the rows of a loaded
+* partition. The minimum and maximum values only grow apart, so after values
+* are changed or removed they may be wider than the actual values, and the
+* filter keeps the keys of removed rows, which is safe for skipping
+* partitions. They are computed again from the rows every time the partition
+* is written to its file.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     KeyFilter
+* @see     Partition
+* @see     Table
+*/
+class ZoneMap implements Serializable {
+
+  /**
+  * The number of rows of the partition
+  */
+  private int rows;
+
+  /**
+  * The filter of the primary keys of the rows, empty in a new zone map. It is
+  * null in a zone map read from a table file that stored no filter, then any
+  * key may be in the partition.
+  */
+  private KeyFilter keys = new KeyFilter(0);
+
+  /**
+  * The number of rows without a value of every column, by column index. The
+  * columns past the end of the array have no value in any row.
+  */
+  private int[] nulls = new int[0];
+
+  /**
+  * The minimum and maximum values of every Comparable column, by column index,
+  * null if no row has a value
+  */
+  private Object[] min = new Object[0], max = new Object[0];
+  private static final long serialVersionUID = 51L;
+
+  /**
+  * Computes the statistics of some rows
+  * @param  rows      A dictionary of primary keys mapping to the rows
+  * @param  columns   The columns of the table
+  * @return           The statistics of the rows
+  */
+  static ZoneMap of(Dict<?, Row> rows, ColumnList columns) {
+    ZoneMap zoneMap = new ZoneMap();
+    zoneMap.keys = KeyFilter.of(rows.keys(), rows.getSize());
+    for (Row row : rows.values()) {
+      zoneMap.added(null, row, columns);
+    }
+    return zoneMap;
+  }
+
+  /**
+  * Replaces the statistics with others
+  * @param  other   The new statistics
+  */
+  synchronized void set(ZoneMap other) {
+    synchronized (other) {
+      this.rows = other.rows;
+      this.keys = other.keys != null ? other.keys.copy() : null;
+      this.nulls = other.nulls.clone();
+      this.min = other.min.clone();
+      this.max = other.max.clone();
+    }
+  }
+
+  /**
+  * Counts a row added to the partition
+  * @param  key       The primary key of the new row, null if it is already in the filter
+  * @param  row       The new row
+  * @param  columns   The columns of the table
+  * @return           False if the filter of the keys is full, it should be
+  *                   built again with setKeys
+  */
+  synchronized boolean added(Object key, Row row, ColumnList columns) {
+    for (Column col : columns) {
+      Object value = row.get(col);
+      fit(col.index());
+      if (value == null) {
+        nulls[col.index()]++;
+      } else {
+        widen(col, value);
+      }
+    }
+    rows++;
+    return key == null || keys == null || keys.add(key);
+  }
+
+  /**
+  * Builds the filter of the primary keys again
+  * @param  keys  Every primary key of the partition
+  * @param  size  The number of keys
+  */
+  synchronized void setKeys(Iterable<?> keys, int size) {
+    this.keys = KeyFilter.of(keys, size);
+  }
+
+  /**
+  * Counts a row removed from the partition
+  * @param  row       The removed row
+  * @param  columns   The columns of the table
+  */
+  synchronized void removed(Row row, ColumnList columns) {
+    for (Column col : columns) {
+      fit(col.index());
+      if (row.get(col) == null) {
+        nulls[col.index()]--;
+      }
+    }
+    rows--;
+  }
+
+  /**
+  * Counts the change of a field of a row of the partition
+  * @param  column    The column of the field
+  * @param  previous  The value of the field before the change, null if it had none
+  * @param  value     The new value of the field, null if it was removed
+  */
+  synchronized void changed(Column column, Object previous, Object value) {
+    fit(column.index());
+    if (previous == null && value != null) {
+      nulls[column.index()]--;
+    } else if (previous != null && value == null) {
+      nulls[column.index()]++;
+    }
+    if (value != null) {
+      widen(column, value);
+    }
+  }
+
+  /**
+  * Tells if the partition may have a row
+  * @param  key   The primary key of the row
+  * @return       False if the partition has no row with that key
+  */
+  synchronized boolean mayContainKey(Object key) {
+    return rows > 0 && (keys == null || keys.mayContain(key));
+  }
+
+  /**
+  * Tells if the partition may have rows with values of a column in a range
+  * @param  column          The column
+  * @param  from            The lower bound of the values, null for no lower bound
+  * @param  fromInclusive   If the lower bound is in the range
+  * @param  to              The upper bound of the values, null for no upper bound
+  * @param  toInclusive     If the upper bound is in the range
+  * @return                 False if no row of the partition has a value in the range
+  */
+  @SuppressWarnings("unchecked")
+  synchronized boolean mayContain(Column column, Comparable<Object> from, boolean fromInclusive,
+  Comparable<Object> to, boolean toInclusive) {
+    int index = column.index();
+    if (rows == 0 || index >= nulls.length || nulls[index] >= rows) {
+      // no row has a value
+      return false;
+    } else if (min[index] == null) {
+      return true;
+    }
+    if (from != null) {
+      int cmp = from.compareTo(max[index]);
+      if (cmp > 0 || (cmp == 0 && !fromInclusive)) {
+        return false;
+      }
+    }
+    if (to != null) {
+      int cmp = to.compareTo(min[index]);
+      if (cmp < 0 || (cmp == 0 && !toInclusive)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+  * Makes room for the statistics of a column, the rows had no value in it
+  * @param  index   The index of the column
+  */
+  private void fit(int index) {
+    if (index < nulls.length) {
+      return;
+    }
+    int length = nulls.length;
+    nulls = Arrays.copyOf(nulls, index + 1);
+    Arrays.fill(nulls, length, nulls.length, rows);
+    min = Arrays.copyOf(min, index + 1);
+    max = Arrays.copyOf(max, index + 1);
+  }
+
+  /**
+  * Widens the minimum and maximum values of a column to include a value
+  * @param  column  The column
+  * @param  value   The value, it must not be null
+  */
+  @SuppressWarnings("unchecked")
+  private void widen(Column column, Object value) {
+    if (!Comparable.class.isAssignableFrom(column.type())) {
+      return;
+    }
+    int index = column.index();
+    Comparable<Object> comparable = (Comparable<Object>) value;
+    if (min[index] == null || comparable.compareTo(min[index]) < 0) {
+      min[index] = value;
+    }
+    if (max[index] == null || comparable.compareTo(max[index]) > 0) {
+      max[index] = value;
+    }
+  }
+}
@@ -0,0 +1,301 @@
+package hdb.table.column;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.io.ObjectOutputStream;
+import java.io.ObjectInputStream;
+import java.lang.reflect.Array;
+import java.io.DataOutput;
+import java.nio.ByteBuffer;
+import hdb.HarambException;
+import java.io.IOException;
+
+/**
+* The binary encodings used to store the values of a column in the HarambeDB
+* files. Every data type has a stable code that is written in the file headers,
+* so the codes of the existing types must never change.
+*
+* Boxed primitives and strings have their own compact encoding, arrays of those
+* types are stored as a component code, a length and the elements, each one
+* preceded by a null flag. Any other Serializable type falls back to Java
+* serialization.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     Column
+*/
+public enum ColumnType {
+  BOOLEAN(1, Boolean.class) {
+    public void write(DataOutput out, Object value) throws IOException {
+      out.writeBoolean((Boolean) value);
+    }
+    public Object read(ByteBuffer in) {
+      return in.get() != 0;
+    }
+    public int sizeOf(Object value) {
+      return 1;
+    }
+  },
+  BYTE(2, Byte.class) {
+    public void write(DataOutput out, Object value) throws IOException {
+      out.writeByte((Byte) value);
+    }
+    public Object read(ByteBuffer in) {
+      return in.get();
+    }
+    public int sizeOf(Object value) {
+      return 1;
+    }
+  },
+  SHORT(3, Short.class) {
+    public void write(DataOutput out, Object value) throws IOException {
+      out.writeShort((Short) value);
+    }
+    public Object read(ByteBuffer in) {
+      return in.getShort();
+    }
+    public int sizeOf(Object value) {
+      return 2;
+    }
+  },
+  CHARACTER(4, Character.class) {
+    public void write(DataOutput out, Object value) throws IOException {
+      out.writeChar((Character) value);
+    }
+    public Object read(ByteBuffer in) {
+      return in.getChar();
+    }
+    public int sizeOf(Object value) {
+      return 2;
+    }
+  },
+  INTEGER(5, Integer.class) {
+    public void write(DataOutput out, Object value) throws IOException {
+      out.writeInt((Integer) value);
+    }
+    public Object read(ByteBuffer in) {
+      return in.getInt();
+    }
+    public int sizeOf(Object value) {
+      return 4;
+    }
+  },
+  LONG(6, Long.class) {
+    public void write(DataOutput out, Object value) throws IOException {
+      out.writeLong((Long) value);
+    }
+    public Object read(ByteBuffer in) {
+      return in.getLong();
+    }
+    public int sizeOf(Object value) {
+      return 8;
+    }
+  },
+  FLOAT(7, Float.class) {
+    public void write(DataOutput out, Object value) throws IOException {
+      out.writeFloat((Float) value);
+    }
+    public Object read(ByteBuffer in) {
+      return in.getFloat();
+    }
+    public int sizeOf(Object value) {
+      return 4;
+    }
+  },
+  DOUBLE(8, Double.class) {
+    public void write(DataOutput out, Object value) throws IOException {
+      out.writeDouble((Double) value);
+    }
+    public Object read(ByteBuffer in) {
+      return in.getDouble();
+    }
+    public int sizeOf(Object value) {
+      return 8;
+    }
+  },
+  STRING(9, String.class) {
+    public void write(DataOutput out, Object value) throws IOException {
+      byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+    public Object read(ByteBuffer in) {
+      byte[] bytes = new byte[in.getInt()];
+      in.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+    public int sizeOf(Object value) {
+      String s = (String) value;
+      int length = 0;
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+          length++;
+        } else if (c < 0x800) {
+          length += 2;
+        } else if (Character.isHighSurrogate(c)) {
+          length += 4;
+          i++;
+        } else {
+          length += 3;
+        }
+      }
+      return 4 + length;
+    }
+  },
+  ARRAY(10, Object[].class) {
+    public void write(DataOutput out, Object value) throws IOException {
+      ColumnType component = of(value.getClass().getComponentType());
+      int length = Array.getLength(value);
+      out.writeByte(component.code);
+      out.writeInt(length);
+      for (int i = 0; i < length; i++) {
+        Object element = Array.get(value, i);
+        out.writeBoolean(element != null);
+        if (element != null) {
+          component.write(out, element);
+        }
+      }
+    }
+    public Object read(ByteBuffer in) {
+      ColumnType component = fromCode(in.get());
+      Object value = Array.newInstance(component.type, in.getInt());
+      for (int i = 0; i < Array.getLength(value); i++) {
+        if (in.get() != 0) {
+          Array.set(value, i, component.read(in));
+        }
+      }
+      return value;
+    }
+    public int sizeOf(Object value) {
+      ColumnType component = of(value.getClass().getComponentType());
+      int size = 5;
+      for (int i = 0; i < Array.getLength(value); i++) {
+        Object element = Array.get(value, i);
+        size += 1 + (element != null ? component.sizeOf(element) : 0);
+      }
+      return size;
+    }
+  },
+  OBJECT(11, Object.class) {
+    public void write(DataOutput out, Object value) throws IOException {
+      byte[] bytes = serialize(value);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+    public Object read(ByteBuffer in) {
+      byte[] bytes = new byte[in.getInt()];
+      in.get(bytes);
+      try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+        return ois.readObject();
+      } catch (Exception e) {
+        throw new HarambException(e);
+      }
+    }
+    public int sizeOf(Object value) {
+      try {
+        return 4 + serialize(value).length;
+      } catch (IOException e) {
+        throw new HarambException(e);
+      }
+    }
+  };
+
+  /**
+  * The code of the type in the HarambeDB files
+  */
+  private final byte code;
+
+  /**
+  * The class of the values encoded by this type
+  */
+  private final Class<?> type;
+
+  ColumnType(int code, Class<?> type) {
+    this.code = (byte) code;
+    this.type = type;
+  }
+
+  /**
+  * Writes a non null value
+  * @param  out           The output where the value is written
+  * @param  value         The value to write
+  * @throws IOException   If there is an error writing to the output
+  */
+  public abstract void write(DataOutput out, Object value) throws IOException;
+
+  /**
+  * Reads a value written by this type, the position of the buffer is moved
+  * after the value
+  * @param  in  The buffer where the value is read from
+  * @return     The value
+  */
+  public abstract Object read(ByteBuffer in);
+
+  /**
+  * Calculates the number of bytes a non null value takes once it is written
+  * @param  value The value
+  * @return       The size in bytes of the written value
+  */
+  public abstract int sizeOf(Object value);
+
+  /**
+  * {@link ColumnType#code}
+  * @return The code of the type in the HarambeDB files
+  */
+  public byte code() {
+    return this.code;
+  }
+
+  /**
+  * Obtains the encoding used for a data type
+  * @param  type  The data type of a column or a primary key
+  * @return       The encoding of that data type
+  */
+  public static ColumnType of(Class<?> type) {
+    if (type.isArray()) {
+      Class<?> component = type.getComponentType();
+      return !component.isPrimitive() && !component.isArray() && of(component) != OBJECT ? ARRAY : OBJECT;
+    }
+    for (ColumnType columnType : values()) {
+      if (columnType.type == type && columnType != ARRAY) {
+        return columnType;
+      }
+    }
+    return OBJECT;
+  }
+
+  /**
+  * Obtains the type with the specified code
+  * @param  code              The code of the type
+  * @throws HarambException   If there is no type with that code
+  * @return                   The type with the specified code
+  */
+  public static ColumnType fromCode(byte code) throws HarambException {
+    for (ColumnType columnType : values()) {
+      if (columnType.code == code) {
+        return columnType;
+      }
+    }
+    throw new HarambException("Unknown column type code: " + code);
+  }
+
+  /**
+  * Serializes an object using Java serialization
+  * @param  value         The object to serialize
+  * @throws IOException   If the object is not serializable
+  * @return               The serialized object
+  */
+  private static byte[] serialize(Object value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+      oos.writeObject(value);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -1,5 +1,7 @@
 package hdb.table.row;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import structures.list.ArrayLinearList;
 import hdb.HarambException;
 import hdb.table.column.*;
@@ -33,6 +35,34 @@ public class HarambeRow implements Row {
   * The row in which the fields are stored
   */
   private ArrayLinearList<Object> row;
+
+  /**
+  * The listener notified when the row is modified, it is not stored with the row
+  */
+  private transient RowListener listener;
+
+  /**
+  * The primary key told to the listener, it is not stored with the row
+  */
+  private transient Object key;
+
+  /**
+  * The version of the row, 0 until it is asked for after the row is created or
+  * changed, it is not stored with the row
+  */
+  private transient long version;
+
+  /**
+  * The changes made by the mutator of compareAndSet, the listener is told of
+  * them once the lock of the row is released. It is only used by the thread
+  * that holds the lock of the row, null if no mutator is running.
+  */
+  private transient ArrayLinearList<Object[]> deferred;
+
+  /**
+  * The last version given to a row
+  */
+  private static final AtomicLong versions = new AtomicLong();
   private static final long serialVersionUID = 16L;
 
   /**
@@ -43,30 +73,133 @@ public class HarambeRow implements Row {
     row = new ArrayLinearList<>(list.size());
   }
 
-  public <T> HarambeRow set(Column col, T element) throws HarambException {
-    while (col.index() >= row.size()) {
-      row.add(null);
+  /**
+  * Creates a row with the values of its fields, used to decode stored rows
+  * @param  fields  The values of the fields, ordered by column index
+  */
+  public HarambeRow(Object[] fields) {
+    row = new ArrayLinearList<>(Math.max(fields.length, 1));
+    for (Object field : fields) {
+      row.add(field);
     }
+  }
 
-    if ( col.type() != element.getClass() ) {
-      throw new HarambException("Element's type of '" + element + "' does not agree with column data type:" + col.type());
-    }
+  public <T> HarambeRow set(Column col, T element) throws HarambException {
+    Object previous;
+    synchronized (this) {
+      while (col.index() >= row.size()) {
+        row.add(null);
+      }
+
+      if ( col.type() != element.getClass() ) {
+        throw new HarambException("Element's type of '" + element + "' does not agree with column data type:" + col.type());
+      }
 
-    row.set(col.index(), element);
+      if (listener != null) {
+        listener.fieldChanging(key, this, col, element);
+      }
+      previous = row.get(col.index());
+      row.set(col.index(), element);
+      version = 0;
+      if (deferred != null) {
+        deferred.add(new Object[] {col, previous, element});
+        return this;
+      }
+    }
+    if (listener != null) {
+      listener.fieldChanged(key, this, col, previous, element);
+    }
 
     return this;
   }
 
   public void remove(Column col) {
-    while (col.index() > row.size()) {
-      row.add(null);
+    Object previous;
+    synchronized (this) {
+      while (col.index() >= row.size()) {
+        row.add(null);
+      }
+      if (listener != null) {
+        listener.fieldChanging(key, this, col, null);
+      }
+      previous = row.get(col.index());
+      row.set(col.index(), null);
+      version = 0;
+      if (deferred != null) {
+        deferred.add(new Object[] {col, previous, null});
+        return;
+      }
+    }
+    if (listener != null) {
+      listener.fieldChanged(key, this, col, previous, null);
+    }
+  }
+
+  /**
+  * The changes the mutator made before throwing an exception are kept, and the
+  * listener is told of them as well
+  */
+  public boolean compareAndSet(long expectedVersion, Consumer<Row> mutator) {
+    ArrayLinearList<Object[]> changes = new ArrayLinearList<>();
+    boolean matched;
+    try {
+      synchronized (this) {
+        matched = version() == expectedVersion;
+        if (matched) {
+          deferred = changes;
+          try {
+            mutator.accept(this);
+          } finally {
+            deferred = null;
+          }
+        }
+      }
+    } finally {
+      // the changes are logged without holding the lock of the row
+      RowListener listener = this.listener;
+      for (Object[] change : changes) {
+        if (listener != null) {
+          listener.fieldChanged(key, this, (Column) change[0], change[1], change[2]);
+        }
+      }
+    }
+    return matched;
+  }
+
+  /**
+  * Gives the row a new version the first time it is asked for after a change
+  */
+  public synchronized long version() {
+    if (version == 0) {
+      version = versions.incrementAndGet();
+    }
+    return version;
+  }
+
+  /**
+  * Copies the fields holding the lock of the row, so a field that is being
+  * set is copied either before or after the change
+  */
+  public synchronized HarambeRow copy() {
+    Object[] fields = new Object[row.size()];
+    for (int i = 0; i < fields.length; i++) {
+      fields[i] = row.get(i);
     }
-    row.set(col.index(), null);
+    return new HarambeRow(fields);
+  }
+
+  public void setListener(RowListener listener) {
+    setListener(listener, null);
+  }
+
+  public void setListener(RowListener listener, Object key) {
+    this.listener = listener;
+    this.key = key;
   }
 
   @SuppressWarnings("unchecked")
   public <T> T get(Column col) {
-    while (col.index() > row.size()) {
+    while (col.index() >= row.size()) {
       row.add(null);
     }
     return (T) row.get(col.index());
@@ -3,6 +3,7 @@ package hdb.table.row;
 import hdb.table.column.ColumnList;
 import hdb.table.column.Column;
 import hdb.HarambException;
+import java.util.function.Consumer;
 import java.io.Serializable;
 import java.util.List;
 
@@ -42,6 +43,32 @@ public interface Row extends Serializable, Iterable<Object> {
   */
   public <T> T get(Column column);
 
+  /**
+  * The version of the row, it changes every time a field of the row is set or
+  * removed. Versions are never reused, so a row that had a version does not
+  * have it again, but a row read again from its partition file gets a new one.
+  * @return The current version of the row
+  */
+  public long version();
+
+  /**
+  * Changes the row only if its version is the expected one. The version is
+  * checked and the mutator runs holding the lock of the row, the listener is
+  * told of the changes after the lock is released. The mutator must not change
+  * other rows.
+  * @param  expectedVersion   The version of the row, see version
+  * @param  mutator           Sets or removes the fields of the row
+  * @return                   If the row was changed, false if its version was not the expected one
+  */
+  public boolean compareAndSet(long expectedVersion, Consumer<Row> mutator);
+
+  /**
+  * Copies the row, the copy has the same fields but it is not bound to any
+  * table, changing it does not change this row nor notifies its listener
+  * @return A copy of the row
+  */
+  public Row copy();
+
   /**
   * Prints the row
   */
@@ -52,4 +79,19 @@ public interface Row extends Serializable, Iterable<Object> {
   * @return The size of the row
   */
   public int size();
+
+  /**
+  * Sets the listener notified every time the row is modified, there is only one
+  * listener per row
+  * @param  listener  The new listener, null to remove the current one
+  */
+  public void setListener(RowListener listener);
+
+  /**
+  * Sets the listener notified every time the row is modified and the primary
+  * key the listener is told along with every change
+  * @param  listener  The new listener, null to remove the current one
+  * @param  key       The primary key of the row
+  */
+  public void setListener(RowListener listener, Object key);
 }
@@ -0,0 +1,51 @@
+package hdb.table.row;
+
+import hdb.table.column.Column;
+
+/**
+* A listener that is notified every time a row is modified, it is used by the
+* partitions of a table to know if they have to be written back to their files,
+* and by the table to update its secondary indexes and to write the change to
+* the log of the database.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     Row
+*/
+public interface RowListener {
+
+  /**
+  * Called after a field of the row has been set or removed
+  * @param  row The modified row
+  */
+  public void rowChanged(Row row);
+
+  /**
+  * Called before a field of the row is set or removed, holding the lock of the
+  * row, so the row can't be copied by another thread until the change is
+  * done. By default it does nothing.
+  * @param  key     The primary key the row is bound to, null if it is unknown
+  * @param  row     The row about to be modified
+  * @param  column  The column of the field about to be modified
+  * @param  value   The new value of the field, null if it is removed
+  */
+  public default void fieldChanging(Object key, Row row, Column column, Object value) {
+  }
+
+  /**
+  * Called after a field of the row has been set or removed, with the details
+  * of the change. By default it calls rowChanged.
+  * @param  key       The primary key the row was bound to, null if it is unknown
+  * @param  row       The modified row
+  * @param  column    The column of the modified field
+  * @param  previous  The value of the field before the change, null if it had none
+  * @param  value     The new value of the field, null if it was removed
+  */
+  public default void fieldChanged(Object key, Row row, Column column, Object previous, Object value) {
+    rowChanged(row);
+  }
+}
@@ -0,0 +1,218 @@
+package structures.list;
+
+import java.util.NoSuchElementException;
+import java.util.Iterator;
+import java.util.Arrays;
+
+/**
+* A list of comparable elements kept in ascending order inside a gap buffer.
+*
+* The elements are stored in a single array with a gap of free slots, the gap
+* is moved to the position of every insertion or removal, so consecutive
+* changes around the same position only move the elements between them. Reading
+* a position costs O(1) and searching an element costs O(log n).
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+*/
+@SuppressWarnings("unchecked")
+public class SortedArrayList<T extends Comparable<? super T>> implements List<T> {
+  private Object[] arr;
+  private int gapStart; // first free slot
+  private int gapEnd;   // first used slot after the gap
+  public static final int DEFAULT_SIZE = 16;
+  private static final long serialVersionUID = 21L;
+
+  /**
+   * Parametrized constructor. Sets the initial capacity.
+   *
+   * @param initialCapacity initial size of the array
+   */
+  public SortedArrayList(int initialCapacity) {
+    if (initialCapacity < 1) {
+      throw new IllegalArgumentException();
+    }
+    this.arr = new Object[initialCapacity];
+    this.gapStart = 0;
+    this.gapEnd = initialCapacity;
+  }
+
+  /**
+   * Default constructor. Takes the default initial capacity.
+   */
+  public SortedArrayList() {
+    this(DEFAULT_SIZE);
+  }
+
+  public boolean empty() {
+    return size() == 0;
+  }
+
+  public int size() {
+    return arr.length - (gapEnd - gapStart);
+  }
+
+  public T get(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException();
+    }
+    return (T) (index < gapStart ? arr[index] : arr[index + gapEnd - gapStart]);
+  }
+
+  /**
+   * Binary searches an element.
+   *
+   * @param x the element to search
+   * @return the position of the element, or (-(insertion point) - 1) if it is not in the list
+   */
+  public int search(T x) {
+    int lower = 0;
+    int upper = size() - 1;
+    while (lower <= upper) {
+      int mid = (lower + upper) >>> 1;
+      int cmp = get(mid).compareTo(x);
+      if (cmp < 0) {
+        lower = mid + 1;
+      } else if (cmp > 0) {
+        upper = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(lower + 1);
+  }
+
+  public int indexOf(T x) {
+    int index = search(x);
+    return index >= 0 ? index : -1;
+  }
+
+  /**
+   * Adds an element in its sorted position, an element equal to an existing
+   * one is added after it.
+   *
+   * @param x the element to add
+   * @return the position of the new element
+   */
+  public int insert(T x) {
+    int index = search(x);
+    index = index >= 0 ? index + 1 : -(index + 1);
+    add(index, x);
+    return index;
+  }
+
+  /**
+   * Adds an element in a position, the caller must keep the elements sorted.
+   */
+  public void add(int index, T element) {
+    if (index < 0 || index > size()) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (gapStart == gapEnd) {
+      grow();
+    }
+    moveGap(index);
+    arr[gapStart++] = element;
+  }
+
+  /**
+   * Adds an element at the end, the caller must keep the elements sorted.
+   */
+  public void add(T element) {
+    add(size(), element);
+  }
+
+  public T remove(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException();
+    }
+    moveGap(index);
+    T element = (T) arr[gapEnd];
+    arr[gapEnd++] = null;
+    return element;
+  }
+
+  /**
+   * Removes the elements from a position up to the end and returns them in a
+   * new list, the elements are moved with a single array copy.
+   *
+   * @param from the position of the first element to remove
+   * @return a list with the removed elements
+   */
+  public SortedArrayList<T> split(int from) {
+    if (from < 0 || from > size()) {
+      throw new IndexOutOfBoundsException();
+    }
+    moveGap(from);
+    int length = arr.length - gapEnd;
+    SortedArrayList<T> tail = new SortedArrayList<>(Math.max(length * 2, DEFAULT_SIZE));
+    System.arraycopy(arr, gapEnd, tail.arr, 0, length);
+    tail.gapStart = length;
+    Arrays.fill(arr, gapEnd, arr.length, null);
+    gapEnd = arr.length;
+    return tail;
+  }
+
+  /**
+   * Moves the gap so it starts at a position.
+   *
+   * @param index the new start of the gap
+   */
+  private void moveGap(int index) {
+    if (index < gapStart) {
+      int length = gapStart - index;
+      System.arraycopy(arr, index, arr, gapEnd - length, length);
+      Arrays.fill(arr, index, Math.min(gapStart, gapEnd - length), null);
+      gapEnd -= length;
+      gapStart = index;
+    } else if (index > gapStart) {
+      int length = index - gapStart;
+      System.arraycopy(arr, gapEnd, arr, gapStart, length);
+      Arrays.fill(arr, Math.max(gapEnd, gapStart + length), gapEnd + length, null);
+      gapStart += length;
+      gapEnd += length;
+    }
+  }
+
+  /**
+   * Doubles the size of the array, keeping the gap in the same position.
+   */
+  private void grow() {
+    Object[] old = arr;
+    int tail = old.length - gapEnd;
+    arr = new Object[old.length * 2];
+    System.arraycopy(old, 0, arr, 0, gapStart);
+    System.arraycopy(old, gapEnd, arr, arr.length - tail, tail);
+    gapEnd = arr.length - tail;
+  }
+
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      int index = 0;
+
+      public boolean hasNext() {
+        return index < size();
+      }
+
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return get(index++);
+      }
+    };
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append('[');
+    for (int i = 0; i < size(); i++) {
+      sb.append(i > 0 ? ", " : "").append(get(i));
+    }
+    return sb.append(']').toString();
+  }
+}
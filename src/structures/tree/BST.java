@@ -133,7 +133,7 @@ public class BST <K extends Comparable<? super K>, V> implements Tree<K, V> {
 
     public BSTNode<K,V> lesser() {
       if (left() == null) return this;
-      return right().lesser();
+      return left().lesser();
     }
 
     protected BSTNode<K,V> subTreeGreaterThan(K other) {
@@ -193,6 +193,40 @@ public class BST <K extends Comparable<? super K>, V> implements Tree<K, V> {
     return root.getClosest(key);
   }
 
+  public KeyValueNode<K,V> first() {
+    return (root != null) ? root.lesser() : null;
+  }
+
+  public KeyValueNode<K,V> last() {
+    return (root != null) ? root.greater() : null;
+  }
+
+  public KeyValueNode<K,V> higher(K key) {
+    BSTNode<K,V> current = root, result = null;
+    while (current != null) {
+      if (current.getKey().compareTo(key) > 0) {
+        result = current;
+        current = current.left();
+      } else {
+        current = current.right();
+      }
+    }
+    return result;
+  }
+
+  public KeyValueNode<K,V> lower(K key) {
+    BSTNode<K,V> current = root, result = null;
+    while (current != null) {
+      if (current.getKey().compareTo(key) < 0) {
+        result = current;
+        current = current.right();
+      } else {
+        current = current.left();
+      }
+    }
+    return result;
+  }
+
   public void put(K key, V val) {
     BSTNode<K, V> current = root;
     while (current != null) {
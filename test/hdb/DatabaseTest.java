@@ -0,0 +1,201 @@
+package hdb;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import structures.node.KeyValueNode;
+import java.util.Comparator;
+import hdb.table.column.Column;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import hdb.table.row.Row;
+import hdb.table.Table;
+import java.io.File;
+
+/**
+* Saves databases and loads them again: an empty table, and a table whose
+* partitions are evicted and written behind while rows of the evicted
+* partitions are still changed. A background checkpoint that fails is
+* reported by the next save. A table read through mapped files, with
+* partitions bounded by bytes and a hash index, keeps its settings and only
+* writes the partitions that changed.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     Database
+*/
+public class DatabaseTest {
+
+  public static void main(String[] args) throws Exception {
+    String dbName = "DatabaseTest" + System.nanoTime();
+    try {
+      emptyTable(dbName + "empty");
+      evictedPartitions(dbName + "evicted");
+      checkpointFailure(dbName + "checkpoint");
+      storageSettings(dbName + "settings");
+    } finally {
+      delete(Database.rootDir + dbName + "empty");
+      delete(Database.rootDir + dbName + "evicted");
+      delete(Database.rootDir + dbName + "checkpoint");
+      delete(Database.rootDir + dbName + "settings");
+    }
+    System.out.println("DatabaseTest OK");
+  }
+
+  /**
+  * An empty table is saved and loaded again, the first row goes to its empty first partition
+  */
+  private static void emptyTable(String dbName) {
+    Database db = new Database(dbName);
+    Table<Integer> table = db.createTable("T", Integer.class, "ID");
+    table.addColumn("Value", Integer.class);
+    db.save();
+    db.close();
+    Database loaded = Database.load(dbName);
+    Table<Integer> reloaded = loaded.getTable("T", Integer.class);
+    check(!reloaded.iterator().hasNext(), "the empty table has rows");
+    reloaded.addRow(5).set(reloaded.getColumn("Value"), 5);
+    loaded.close();
+    Database reopened = Database.load(dbName);
+    Table<Integer> again = reopened.getTable("T", Integer.class);
+    check(Integer.valueOf(5).equals(again.getRow(5).get(again.getColumn("Value"))), "the row of the empty table is lost");
+    reopened.close();
+  }
+
+  /**
+  * Many partitions go through a pool of two, the rows held after their
+  * partitions are evicted are changed before the database is saved
+  */
+  private static void evictedPartitions(String dbName) {
+    Database db = new Database(dbName);
+    Table<Integer> table = db.createTable("T", Integer.class, "ID");
+    Column value = table.addColumn("Value", Integer.class);
+    table.setPartitionRows(32);
+    table.setBufferPoolSize(2, 0);
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    ArrayList<Integer> heldKeys = new ArrayList<>();
+    ArrayList<Row> held = new ArrayList<>();
+    for (int key = 0; key < 5000; key++) {
+      Row row = table.addRow(key);
+      row.set(value, key);
+      expected.put(key, key);
+      if (key % 100 == 0) {
+        held.add(row);
+        heldKeys.add(key);
+      }
+    }
+    for (int i = 0; i < held.size(); i++) {
+      held.get(i).set(value, -i);
+      expected.put(heldKeys.get(i), -i);
+    }
+    for (int key = 1; key < 5000; key += 7) {
+      table.removeRow(key);
+      expected.remove(key);
+    }
+    db.close();
+    Database reopened = Database.load(dbName);
+    Table<Integer> reloaded = reopened.getTable("T", Integer.class);
+    int rows = 0;
+    for (KeyValueNode<Integer, Row> node : reloaded.rows()) {
+      check(expected.get(node.getKey()).equals(node.getValue().get(value)), "wrong value of row " + node.getKey());
+      rows++;
+    }
+    check(rows == expected.size(), "the table has " + rows + " rows instead of " + expected.size());
+    reopened.close();
+  }
+
+  /**
+  * The background checkpoints fail while the partition file can't be written,
+  * the next save reports it once
+  */
+  private static void checkpointFailure(String dbName) throws Exception {
+    Database db = new Database(dbName);
+    Table<Integer> table = db.createTable("T", Integer.class, "ID");
+    Column value = table.addColumn("Value", Integer.class);
+    File obstacle = new File(Database.rootDir + dbName + "/T/pt0.hbpt.tmp");
+    check(obstacle.mkdir(), "the obstacle was not created");
+    table.addRow(1).set(value, 1);
+    // the checkpointer sleeps up to a second before it sees the new policy
+    db.setCheckpointPolicy(10, 0);
+    Thread.sleep(1500);
+    db.setCheckpointPolicy(0, 0);
+    Thread.sleep(100);
+    check(obstacle.delete(), "the obstacle was not deleted");
+    try {
+      db.save();
+      check(false, "the failed checkpoint was not reported");
+    } catch (HarambException e) {
+    }
+    db.save();
+    db.close();
+    Database reopened = Database.load(dbName);
+    Table<Integer> reloaded = reopened.getTable("T", Integer.class);
+    check(Integer.valueOf(1).equals(reloaded.getRow(1).get(value)), "the row is lost");
+    reopened.close();
+  }
+
+  /**
+  * The settings of a table and its index survive a reload, a save after a
+  * single change only writes the partition of the changed row
+  */
+  private static void storageSettings(String dbName) {
+    Database db = new Database(dbName);
+    Table<Integer> table = db.createTable("T", Integer.class, "ID");
+    Column value = table.addColumn("Value", Integer.class);
+    table.setReadMode(Table.ReadMode.MAPPED);
+    table.setPartitionBytes(4096);
+    table.createIndex("Value", Table.IndexType.HASH);
+    for (int key = 0; key < 3000; key++) {
+      table.addRow(key).set(value, key % 100);
+    }
+    db.save();
+    File[] files = new File(Database.rootDir + dbName + "/T").listFiles((dir, name) -> name.endsWith(".hbpt"));
+    check(files.length > 1, "the partitions were not bounded by bytes");
+    for (File file : files) {
+      file.setLastModified(1000);
+    }
+    table.getRow(1500).set(value, -1);
+    db.save();
+    int written = 0;
+    for (File file : files) {
+      written += file.lastModified() != 1000 ? 1 : 0;
+    }
+    check(written == 1, written + " partitions were written instead of one");
+    db.close();
+
+    Database reopened = Database.load(dbName);
+    Table<Integer> reloaded = reopened.getTable("T", Integer.class);
+    check(reloaded.getReadMode() == Table.ReadMode.MAPPED, "the read mode is lost");
+    check(reloaded.getPartitionSizing() == Table.PartitionSizing.BYTES, "the partition sizing is lost");
+    check(reloaded.getIndexType("Value") == Table.IndexType.HASH, "the index is lost");
+    check(reloaded.findBy("Value", 7).size() == 30, "wrong rows found by value");
+    ArrayList<KeyValueNode<Integer, Row>> changed = reloaded.findBy("Value", -1);
+    check(changed.size() == 1 && changed.get(0).getKey() == 1500, "the changed row is lost");
+    int rows = 0;
+    for (KeyValueNode<Integer, Row> node : reloaded.rows()) {
+      check(node.getKey() == rows++, "row " + (rows - 1) + " is missing");
+    }
+    check(rows == 3000, "the table has " + rows + " rows");
+    reopened.close();
+  }
+
+  private static void delete(String path) throws Exception {
+    if (!new File(path).exists()) {
+      return;
+    }
+    try (Stream<Path> files = Files.walk(Paths.get(path))) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
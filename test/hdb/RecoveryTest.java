@@ -0,0 +1,189 @@
+package hdb;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import structures.node.KeyValueNode;
+import hdb.table.row.HarambeRow;
+import java.util.Comparator;
+import hdb.table.column.Column;
+import hdb.table.Transaction;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import hdb.table.row.Row;
+import hdb.table.Table;
+import java.io.File;
+
+/**
+* Crashes a database in a child process, by halting the virtual machine after
+* some changes, and checks that loading the database recovers every change
+* from the log: single rows, batches, compareAndSet, a committed transaction
+* and removals that merge partitions, while a small pool writes partitions
+* behind. A table bulk loaded before the crash keeps its rows, and a table
+* dropped and created again gets none of the rows of the dropped one. The
+* database crashes before it is saved for the first time and after it has
+* been saved.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     Database
+* @see     hdb.log.WriteAheadLog
+*/
+public class RecoveryTest {
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 2) {
+      crash(args[0], args[1]);
+      return;
+    }
+    for (String mode : new String[] {"unsaved", "saved"}) {
+      String dbName = "RecoveryTest" + mode + System.nanoTime();
+      try {
+        Process child = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+          "-cp", System.getProperty("java.class.path"), RecoveryTest.class.getName(), mode, dbName).inheritIO().start();
+        check(child.waitFor() == 0, mode + ": the child process failed");
+        recover(mode, dbName);
+      } finally {
+        delete(Database.rootDir + dbName);
+      }
+    }
+    System.out.println("RecoveryTest OK");
+  }
+
+  /**
+  * Makes some changes and halts without closing the database
+  */
+  private static void crash(String mode, String dbName) throws Exception {
+    Database db = new Database(dbName);
+    db.setCommitPolicy(1, true);
+    Table<Integer> table = db.createTable("T", Integer.class, "ID");
+    Column value = table.addColumn("Value", Integer.class);
+    table.setPartitionRows(16);
+    table.setBufferPoolSize(2, 0);
+    for (int key = 0; key < 100; key++) {
+      table.addRow(key).set(value, key);
+    }
+    if (mode.equals("saved")) {
+      table.createIndex("Value", Table.IndexType.ORDERED);
+      db.save();
+    }
+    for (int key = 100; key < 150; key++) {
+      table.addRow(key).set(value, key);
+    }
+    table.getRow(0).set(value, -1);
+    table.removeRow(5);
+    try (Transaction transaction = db.beginTransaction()) {
+      transaction.updateRow(table, 1).set(value, -2);
+      transaction.addRow(table, 2000).set(value, 2000);
+      transaction.removeRow(table, 6);
+      transaction.commit();
+    }
+    TreeMap<Integer, Row> batch = new TreeMap<>();
+    for (int key = 3000; key < 3100; key++) {
+      batch.put(key, new HarambeRow(new Object[] {key}));
+    }
+    table.addRows(batch);
+    // the partitions left underfilled are merged
+    for (int key = 20; key < 60; key++) {
+      table.removeRow(key);
+    }
+    check(table.compareAndSet(7, table.getRow(7).version(), row -> row.set(value, -7)), "compareAndSet failed");
+
+    Table<Integer> loaded = db.createTable("B", Integer.class, "ID");
+    loaded.addColumn("Value", Integer.class);
+    loaded.setPartitionRows(64);
+    ArrayList<KeyValueNode<Integer, Row>> rows = new ArrayList<>();
+    for (int key = 0; key < 500; key++) {
+      rows.add(new KeyValueNode<>(key, new HarambeRow(new Object[] {-key})));
+    }
+    db.bulkLoad("B", rows);
+
+    // the records of the dropped table are still in the log
+    Table<Integer> dropped = db.createTable("D", Integer.class, "ID");
+    dropped.addColumn("Value", Integer.class);
+    for (int key = 0; key < 10; key++) {
+      dropped.addRow(key);
+    }
+    db.dropTable("D");
+    Table<Integer> recreated = db.createTable("D", Integer.class, "ID");
+    recreated.addColumn("Value", Integer.class);
+    recreated.addRow(100);
+    Runtime.getRuntime().halt(0);
+  }
+
+  /**
+  * Loads the crashed database and checks its rows
+  */
+  private static void recover(String mode, String dbName) {
+    Database db = Database.load(dbName);
+    Table<Integer> table = db.getTable("T", Integer.class);
+    Column value = table.getColumn("Value");
+    check(value != null, mode + ": the column is lost");
+    check(rows(mode, table) == 150 - 2 - 40 + 1 + 100, mode + ": wrong number of rows");
+    check(table.findBy("Value", -1).size() == 1 && table.findBy("Value", 0).isEmpty(), mode + ": wrong rows found by value");
+    check(table.findRange("Value", 3000, 3100).size() == 100, mode + ": wrong rows found by range");
+    check(mode.equals("unsaved") || table.getIndexType("Value") == Table.IndexType.ORDERED, mode + ": the index is lost");
+
+    Table<Integer> loaded = db.getTable("B", Integer.class);
+    int count = 0;
+    for (KeyValueNode<Integer, Row> node : loaded.rows()) {
+      check(Integer.valueOf(-node.getKey()).equals(node.getValue().get(loaded.getColumn("Value"))), mode + ": wrong bulk loaded row");
+      count++;
+    }
+    check(count == 500, mode + ": the bulk loaded table has " + count + " rows");
+    Table<Integer> recreated = db.getTable("D", Integer.class);
+    check(recreated.tryGetRow(100) != null && recreated.tryGetRow(0) == null, mode + ": the records of the dropped table were replayed");
+
+    table.addRow(1000).set(value, 1000);
+    db.close();
+    Database reopened = Database.load(dbName);
+    Table<Integer> reloaded = reopened.getTable("T", Integer.class);
+    check(Integer.valueOf(1000).equals(reloaded.getRow(1000).get(value)), mode + ": the row added after recovery is lost");
+    check(rows(mode, reloaded) == 150 - 2 - 40 + 1 + 100 + 1, mode + ": the recovered rows are lost");
+    reopened.close();
+  }
+
+  /**
+  * Checks the rows of the crashed table
+  * @return The number of rows
+  */
+  private static int rows(String mode, Table<Integer> table) {
+    Column value = table.getColumn("Value");
+    int count = 0;
+    for (int key = 0; key < 150; key++) {
+      if (key == 5 || key == 6 || (key >= 20 && key < 60)) {
+        check(table.tryGetRow(key) == null, mode + ": the removed row " + key + " is back");
+      } else {
+        Integer expected = key == 0 ? -1 : key == 1 ? -2 : key == 7 ? -7 : key;
+        check(expected.equals(table.getRow(key).get(value)), mode + ": wrong value of row " + key);
+      }
+    }
+    for (KeyValueNode<Integer, Row> node : table.rows()) {
+      Integer key = node.getKey();
+      check(key < 150 || key == 1000 || key == 2000 || (key >= 3000 && key < 3100), mode + ": unexpected row " + key);
+      check(key < 150 || key.equals(node.getValue().get(value)), mode + ": wrong value of row " + key);
+      count++;
+    }
+    return count;
+  }
+
+  private static void delete(String path) throws Exception {
+    if (!new File(path).exists()) {
+      return;
+    }
+    try (Stream<Path> files = Files.walk(Paths.get(path))) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
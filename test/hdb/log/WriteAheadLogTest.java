@@ -0,0 +1,124 @@
+package hdb.log;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import hdb.HarambException;
+import java.util.ArrayList;
+import java.io.File;
+
+/**
+* Writes every kind of record to a log, reads it back and checks that a torn
+* record at the end of a segment is ignored, and that a log opened again
+* after the crash appends to a new segment. A log that fails to write stops
+* writing and every later call fails.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     WriteAheadLog
+*/
+public class WriteAheadLogTest {
+
+  public static void main(String[] args) throws Exception {
+    String dbPath = Files.createTempDirectory("hdb").toString() + File.separator;
+    WriteAheadLog log = new WriteAheadLog(dbPath, 1);
+    long add = log.logAdd("T", 1);
+    log.logSet("T", 1, 0, "a");
+    log.logColumn("T", "Value", Integer.class);
+    log.logSplit("T", 5, 0, 1);
+    log.logMerge("T", 5, 1, 0);
+    WriteAheadLog.Batch batch = new WriteAheadLog.Batch();
+    batch.add("T", 2);
+    batch.set("T", 2, 0, 7);
+    batch.remove("T", 1);
+    long transaction = log.logTransaction(batch);
+    long remove = log.logRemove("T", 2);
+    log.close();
+
+    ArrayList<LogRecord> records = WriteAheadLog.read(dbPath);
+    check(records.size() == 9, "read " + records.size() + " records instead of 9");
+    LogRecord record = records.get(0);
+    check(record.lsn() == add && record.type() == LogRecord.ADD && record.table().equals("T") && Integer.valueOf(1).equals(record.key()), "wrong ADD record");
+    record = records.get(1);
+    check(record.type() == LogRecord.SET && record.column() == 0 && "a".equals(record.value()), "wrong SET record");
+    record = records.get(2);
+    check(record.type() == LogRecord.COLUMN && record.name().equals("Value") && record.className().equals(Integer.class.getName()), "wrong COLUMN record");
+    record = records.get(3);
+    check(record.type() == LogRecord.SPLIT && Integer.valueOf(5).equals(record.key()) && record.partition() == 0 && record.other() == 1, "wrong SPLIT record");
+    record = records.get(4);
+    check(record.type() == LogRecord.MERGE && record.partition() == 1 && record.other() == 0, "wrong MERGE record");
+    for (int i = 5; i < 8; i++) {
+      check(records.get(i).lsn() == transaction, "the changes of the transaction have different sequence numbers");
+    }
+    check(records.get(5).type() == LogRecord.ADD && records.get(6).type() == LogRecord.SET
+      && Integer.valueOf(7).equals(records.get(6).value()) && records.get(7).type() == LogRecord.REMOVE, "wrong transaction records");
+    check(records.get(8).lsn() == remove && records.get(8).type() == LogRecord.REMOVE, "wrong REMOVE record");
+    for (int i = 1; i < records.size(); i++) {
+      check(records.get(i - 1).lsn() <= records.get(i).lsn(), "the records are not in order");
+    }
+
+    // the last record is torn by a crash
+    int[] segments = WriteAheadLog.segments(dbPath);
+    check(segments.length == 1, "the log has " + segments.length + " segments");
+    try (FileChannel channel = FileChannel.open(Paths.get(WriteAheadLog.segmentPath(dbPath, segments[0])), StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+    records = WriteAheadLog.read(dbPath);
+    check(records.size() == 8 && records.get(7).lsn() == transaction, "the torn record was read");
+
+    // the log is opened again after the crash
+    log = new WriteAheadLog(dbPath, transaction + 1);
+    long again = log.logAdd("T", 3);
+    log.close();
+    check(WriteAheadLog.segments(dbPath).length == 2, "the log opened again did not write a new segment");
+    records = WriteAheadLog.read(dbPath);
+    check(records.size() == 9 && records.get(8).lsn() == again && again > transaction, "the record appended after the crash is lost");
+
+    for (int segment : WriteAheadLog.segments(dbPath)) {
+      new File(WriteAheadLog.segmentPath(dbPath, segment)).delete();
+    }
+    broken(dbPath + "missing" + File.separator);
+    new File(dbPath).delete();
+    System.out.println("WriteAheadLogTest OK");
+  }
+
+  /**
+  * The segment of a log can't be created, every later call fails and nothing
+  * is written once the segment could be created
+  */
+  private static void broken(String dbPath) throws Exception {
+    WriteAheadLog log = new WriteAheadLog(dbPath, 1);
+    long lsn = log.logAdd("T", 1);
+    check(failed(() -> log.sync()), "the failed write was not reported");
+    check(failed(() -> log.commit(lsn)), "commit did not report the failed log");
+    check(failed(() -> log.logAdd("T", 2)), "a record was appended to the failed log");
+    check(failed(() -> log.roll()), "a checkpoint started on the failed log");
+    check(new File(dbPath).mkdir(), "the directory was not created");
+    Thread.sleep(100);
+    check(WriteAheadLog.segments(dbPath).length == 0, "the failed log wrote a segment");
+    new File(dbPath).delete();
+  }
+
+  /**
+  * Tells if a call to the log throws
+  */
+  private static boolean failed(Runnable call) {
+    try {
+      call.run();
+      return false;
+    } catch (HarambException e) {
+      return true;
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package hdb.table;
+
+import hdb.table.column.HarambeColumnList;
+import hdb.table.column.ColumnList;
+import hdb.table.column.Column;
+import hdb.table.row.HarambeRow;
+import java.nio.file.Files;
+import hdb.HarambException;
+import java.io.File;
+
+/**
+* Writes partitions to their files and reads them back, with and without rows,
+* eagerly and mapped into memory. Reading a partition without a file fails.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     PartitionFile
+*/
+public class PartitionFileTest {
+
+  public static void main(String[] args) throws Exception {
+    String tablePath = Files.createTempDirectory("hdb").toString() + File.separator;
+    ColumnList columns = new HarambeColumnList();
+    Column name = new Column(0, String.class);
+    Column amount = new Column(1, Integer.class);
+    columns.add("Name", name);
+    columns.add("Amount", amount);
+
+    // an empty partition
+    HarambePartition<Integer> empty = new HarambePartition<>(tablePath, 0, columns, Integer.class);
+    empty.save(true);
+    check(new File(empty.path()).length() > 0, "the empty partition file has no header");
+    for (boolean mapped : new boolean[] {false, true}) {
+      Partition<Integer> read = Partition.load(tablePath, 0, columns, Integer.class, mapped);
+      check(read != null && read.size() == 0, "the empty partition is not read back");
+    }
+
+    // a partition with rows, one of them with a null field
+    HarambePartition<Integer> full = new HarambePartition<>(tablePath, 1, columns, Integer.class);
+    for (int key = 0; key < 100; key++) {
+      full.addRow(key, new HarambeRow(new Object[] {"row" + key, key % 7 == 0 ? null : key}));
+    }
+    full.save(true);
+    check(!full.isDirty(), "the saved partition is dirty");
+    for (boolean mapped : new boolean[] {false, true}) {
+      Partition<Integer> read = Partition.load(tablePath, 1, columns, Integer.class, mapped);
+      check(read.size() == 100, "the rows are not read back");
+      for (int key = 0; key < 100; key++) {
+        check(("row" + key).equals(read.getRow(key).get(name)), "wrong field of row " + key);
+        check(key % 7 == 0 ? read.getRow(key).get(amount) == null : Integer.valueOf(key).equals(read.getRow(key).get(amount)),
+          "wrong field of row " + key);
+      }
+    }
+
+    // a partition whose rows were all removed
+    for (int key = 0; key < 100; key++) {
+      full.removeRow(key);
+    }
+    full.save(true);
+    Partition<Integer> read = Partition.load(tablePath, 1, columns, Integer.class, false);
+    check(read != null && read.size() == 0, "the emptied partition is not read back");
+
+    // a partition without a file
+    boolean thrown = false;
+    try {
+      Partition.load(tablePath, 2, columns, Integer.class, false);
+    } catch (HarambException e) {
+      thrown = true;
+    }
+    check(thrown, "a partition without a file was read");
+    System.out.println("PartitionFileTest OK");
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package hdb.table;
+
+import hdb.table.column.HarambeColumnList;
+import hdb.table.column.ColumnList;
+import hdb.table.column.Column;
+import hdb.table.row.HarambeRow;
+import hdb.HarambException;
+import hdb.table.row.Row;
+import java.nio.file.Files;
+import java.io.File;
+
+/**
+* Evicts dirty partitions from a pool of a single partition, so they are
+* written behind, and checks that a partition that can't be written is not
+* lost and its error is thrown by the pool. A flush writes the partitions
+* without holding the lock of the pool.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     PartitionPool
+*/
+public class PartitionPoolTest {
+
+  public static void main(String[] args) throws Exception {
+    String tablePath = Files.createTempDirectory("hdb").toString() + File.separator;
+    ColumnList columns = new HarambeColumnList();
+    Column value = new Column(0, Integer.class);
+    columns.add("Value", value);
+    PartitionPool<Integer> pool = new PartitionPool<>(tablePath, columns, Integer.class, new PartitionSizer(), 1, 0);
+
+    // every partition is evicted by the next one and written behind
+    Row held = null;
+    for (int partitionNumber = 0; partitionNumber < 10; partitionNumber++) {
+      Partition<Integer> partition = new HarambePartition<>(tablePath, partitionNumber, columns, Integer.class);
+      pool.admit(partition);
+      for (int key = 0; key < 50; key++) {
+        partition.addRow(partitionNumber * 50 + key, new HarambeRow(new Object[] {key}));
+      }
+      if (partitionNumber == 0) {
+        held = partition.getRow(0);
+      }
+      pool.unpin(partition);
+    }
+    // a row of an evicted partition changed through a held reference
+    held.set(value, -1);
+    pool.flush();
+    for (int partitionNumber = 0; partitionNumber < 10; partitionNumber++) {
+      Partition<Integer> read = Partition.load(tablePath, partitionNumber, columns, Integer.class, false);
+      check(read != null && read.size() == 50, "partition " + partitionNumber + " was not written");
+    }
+    Partition<Integer> first = Partition.load(tablePath, 0, columns, Integer.class, false);
+    check(Integer.valueOf(-1).equals(first.getRow(0).get(value)), "the change of the held row was not written");
+
+    // a partition whose file can't be written
+    File obstacle = new File(tablePath + "pt10" + Partition.extension + ".tmp");
+    check(obstacle.mkdir(), "the obstacle was not created");
+    Partition<Integer> failing = new HarambePartition<>(tablePath, 10, columns, Integer.class);
+    pool.admit(failing);
+    failing.addRow(500, new HarambeRow(new Object[] {500}));
+    pool.unpin(failing);
+    Partition<Integer> next = new HarambePartition<>(tablePath, 11, columns, Integer.class);
+    pool.admit(next);
+    boolean thrown = false;
+    try {
+      pool.unpin(next);
+    } catch (HarambException e) {
+      thrown = true;
+    }
+    // pinning the partition waits until it is written behind
+    Partition<Integer> pinned = pool.pin(10);
+    check(pinned == failing && pinned.isDirty(), "the partition that failed is not dirty in the pool");
+    try {
+      pool.unpin(pinned);
+    } catch (HarambException e) {
+      thrown = true;
+    }
+    check(thrown, "the failed write was lost");
+    check(obstacle.delete(), "the obstacle was not deleted");
+    for (int attempt = 0; ; attempt++) {
+      try {
+        pool.flush();
+        break;
+      } catch (HarambException e) {
+        // the partition may have been evicted and failed again before the obstacle was deleted
+        check(attempt == 0, "the pool keeps failing");
+      }
+    }
+    Partition<Integer> read = Partition.load(tablePath, 10, columns, Integer.class, false);
+    check(read != null && Integer.valueOf(500).equals(read.getRow(500).get(value)), "the partition that failed is lost");
+
+    // a flush waiting for the lock of a row does not hold the lock of the pool
+    PartitionPool<Integer> shared = new PartitionPool<>(tablePath, columns, Integer.class, new PartitionSizer(), 2, 0);
+    for (int partitionNumber = 20; partitionNumber < 22; partitionNumber++) {
+      Partition<Integer> partition = new HarambePartition<>(tablePath, partitionNumber, columns, Integer.class);
+      shared.admit(partition);
+      partition.addRow(partitionNumber * 50, new HarambeRow(new Object[] {partitionNumber}));
+      shared.unpin(partition);
+    }
+    shared.flush();
+    Row locked = shared.get(20).getRow(1000);
+    locked.set(value, -20);
+    Thread flusher = new Thread(shared::flush);
+    Thread user = new Thread(() -> shared.unpin(shared.pin(21)));
+    synchronized (locked) {
+      flusher.start();
+      while (flusher.getState() != Thread.State.BLOCKED) {
+        Thread.sleep(1);
+      }
+      user.start();
+      user.join(5000);
+      check(!user.isAlive(), "the pool is locked while a partition is flushed");
+    }
+    flusher.join();
+    read = Partition.load(tablePath, 20, columns, Integer.class, false);
+    check(Integer.valueOf(-20).equals(read.getRow(1000).get(value)), "the flushed partition was not written");
+    System.out.println("PartitionPoolTest OK");
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
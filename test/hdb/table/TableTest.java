@@ -0,0 +1,166 @@
+package hdb.table;
+
+import structures.node.KeyValueNode;
+import hdb.table.column.Column;
+import java.lang.reflect.Field;
+import hdb.table.row.HarambeRow;
+import java.nio.file.Files;
+import hdb.HarambException;
+import hdb.table.row.Row;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.io.File;
+
+/**
+* Checks the lookups of a table by the values of a column, with and without a
+* secondary index, the iterator over its keys, that a batch with an existing
+* key adds no row, and how the partitions are divided when rows are appended.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     Table
+*/
+public class TableTest {
+
+  public static void main(String[] args) throws Exception {
+    String dbPath = Files.createTempDirectory("hdb").toString() + File.separator;
+    Table<Integer> table = new Table<>(dbPath, "T", Integer.class, "ID");
+    Column value = table.addColumn("Value", Integer.class);
+    table.setPartitionRows(64);
+    int withoutValue = 0;
+    for (int key = 0; key < 1000; key++) {
+      Row row = table.addRow(key);
+      if (key % 3 == 0) {
+        withoutValue++;
+      } else {
+        row.set(value, key % 10);
+      }
+    }
+    findBy(table, withoutValue);
+    table.createIndex("Value", Table.IndexType.ORDERED);
+    findBy(table, withoutValue);
+    iterator(table);
+    batches(table);
+    appends(dbPath);
+    System.out.println("TableTest OK");
+  }
+
+  /**
+  * Finds the rows with a value and the rows without a value
+  */
+  private static void findBy(Table<Integer> table, int withoutValue) {
+    Column value = table.getColumn("Value");
+    ArrayList<KeyValueNode<Integer, Row>> nulls = table.findBy("Value", null);
+    check(nulls.size() == withoutValue, "found " + nulls.size() + " rows without a value instead of " + withoutValue);
+    for (KeyValueNode<Integer, Row> node : nulls) {
+      check(node.getValue().get(value) == null, "row " + node.getKey() + " has a value");
+    }
+    ArrayList<KeyValueNode<Integer, Row>> sevens = table.findBy("Value", 7);
+    int expected = 0;
+    for (int key = 0; key < 1000; key++) {
+      if (key % 3 != 0 && key % 10 == 7) {
+        expected++;
+      }
+    }
+    check(sevens.size() == expected, "found " + sevens.size() + " rows with a value instead of " + expected);
+    for (int i = 1; i < sevens.size(); i++) {
+      check(sevens.get(i - 1).getKey() < sevens.get(i).getKey(), "the rows are not in ascending order of their keys");
+    }
+  }
+
+  /**
+  * Iterates over the keys and stops early, which must not keep the versions
+  * of the rows changed afterwards
+  */
+  private static void iterator(Table<Integer> table) throws Exception {
+    int expected = 0;
+    for (Integer key : table) {
+      check(key == expected++, "the keys are not in ascending order");
+    }
+    check(expected == 1000, "the iterator returned " + expected + " keys");
+    for (Integer key : table) {
+      if (key == 10) {
+        break;
+      }
+    }
+    table.getRow(1).set(table.getColumn("Value"), 100);
+    Field history = Table.class.getDeclaredField("history");
+    history.setAccessible(true);
+    check(((RowHistory<?>) history.get(table)).keys(null, null).isEmpty(), "the iterator left a snapshot open");
+  }
+
+  /**
+  * Appends rows in ascending order, the partitions left behind are almost
+  * full. Then several threads append rows at once.
+  */
+  private static void appends(String dbPath) throws Exception {
+    Table<Integer> table = new Table<>(dbPath, "A", Integer.class, "ID");
+    table.addColumn("Value", Integer.class);
+    table.setPartitionRows(64);
+    for (int key = 0; key < 1000; key++) {
+      table.addRow(key);
+    }
+    table.save();
+    String[] files = new File(dbPath + "A").list((dir, name) -> name.endsWith(Partition.extension));
+    check(files.length < 1000 / 48, "the appended rows are in " + files.length + " partitions");
+
+    int threads = 4, rows = 2000;
+    ArrayList<Thread> appenders = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      final int thread = i;
+      appenders.add(new Thread(() -> {
+        for (int n = 0; n < rows; n++) {
+          table.addRow(1000 + n * threads + thread);
+        }
+      }));
+    }
+    for (Thread appender : appenders) {
+      appender.start();
+    }
+    for (Thread appender : appenders) {
+      appender.join();
+    }
+    int expected = 0;
+    for (Integer key : table) {
+      check(key == expected++, "row " + (expected - 1) + " is missing");
+    }
+    check(expected == 1000 + threads * rows, "the table has " + expected + " rows");
+  }
+
+  /**
+  * Adds a batch whose last key is already in another partition, then the
+  * same batch without that key
+  */
+  private static void batches(Table<Integer> table) {
+    Column value = table.getColumn("Value");
+    TreeMap<Integer, Row> batch = new TreeMap<>();
+    for (int key = -10; key < 0; key++) {
+      batch.put(key, new HarambeRow(new Object[] {key}));
+    }
+    batch.put(500, new HarambeRow(new Object[] {500}));
+    try {
+      table.addRows(batch);
+      check(false, "a batch with an existing key was added");
+    } catch (HarambException e) {
+    }
+    for (int key = -10; key < 0; key++) {
+      check(table.tryGetRow(key) == null, "the row " + key + " of the failed batch was added");
+    }
+    check(!Integer.valueOf(500).equals(table.getRow(500).get(value)), "the existing row was replaced");
+    batch.remove(500);
+    table.addRows(batch);
+    for (int key = -10; key < 0; key++) {
+      check(Integer.valueOf(key).equals(table.getRow(key).get(value)), "the row " + key + " of the batch is lost");
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
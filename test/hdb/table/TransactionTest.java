@@ -0,0 +1,163 @@
+package hdb.table;
+
+import java.nio.file.StandardCopyOption;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import hdb.table.column.Column;
+import java.util.Comparator;
+import hdb.HarambException;
+import hdb.log.WriteAheadLog;
+import hdb.Database;
+import java.io.File;
+
+/**
+* Commits transactions over partitions that are not in the pool: a transaction
+* that fills and empties partitions is applied, saved and loaded again, and a
+* transaction whose partition can't be read fails before it is logged.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     Transaction
+*/
+public class TransactionTest {
+
+  public static void main(String[] args) throws Exception {
+    String dbName = "TransactionTest" + System.nanoTime();
+    try {
+      committed(dbName + "committed");
+      unreadable(dbName + "unreadable");
+    } finally {
+      delete(Database.rootDir + dbName + "committed");
+      delete(Database.rootDir + dbName + "unreadable");
+    }
+    System.out.println("TransactionTest OK");
+  }
+
+  /**
+  * Creates a table of 200 rows in partitions of 16 rows and a pool of a single partition
+  */
+  private static Table<Integer> table(Database db) {
+    Table<Integer> table = db.createTable("T", Integer.class, "ID");
+    Column value = table.addColumn("Value", Integer.class);
+    table.setPartitionRows(16);
+    table.setBufferPoolSize(1, 0);
+    for (int key = 0; key < 200; key++) {
+      table.addRow(key * 10).set(value, key * 10);
+    }
+    db.save();
+    return table;
+  }
+
+  /**
+  * A transaction adds many rows between two keys and removes a range of rows,
+  * the partitions it fills are divided by the next addition
+  */
+  private static void committed(String dbName) {
+    Database db = new Database(dbName);
+    Table<Integer> table = table(db);
+    Column value = table.getColumn("Value");
+    try (Transaction transaction = db.beginTransaction()) {
+      for (int key = 1001; key < 1009; key++) {
+        transaction.addRow(table, key).set(value, -key);
+      }
+      for (int key = 1500; key < 1800; key += 10) {
+        transaction.removeRow(table, key);
+      }
+      transaction.updateRow(table, 0).set(value, -1);
+      transaction.commit();
+    }
+    table.addRow(1009).set(value, -1009);
+    check(check(table) == 200 + 9 - 30, "wrong number of rows after the commit");
+    db.close();
+    Database reopened = Database.load(dbName);
+    Table<Integer> reloaded = reopened.getTable("T", Integer.class);
+    check(check(reloaded) == 200 + 9 - 30, "wrong number of rows after the reload");
+    reopened.close();
+  }
+
+  /**
+  * Checks the rows left by committed
+  * @return The number of rows
+  */
+  private static int check(Table<Integer> table) {
+    Column value = table.getColumn("Value");
+    int rows = 0;
+    for (Integer key : table) {
+      Integer expected = key == 0 ? -1 : key % 10 != 0 ? -key : key;
+      check(key < 1500 || key >= 1800, "the removed row " + key + " is back");
+      check(expected.equals(table.getRow(key).get(value)), "wrong value of row " + key);
+      rows++;
+    }
+    return rows;
+  }
+
+  /**
+  * The partition of the first row of a transaction is evicted and its file
+  * can't be read when the transaction is committed, nothing is logged nor applied
+  */
+  private static void unreadable(String dbName) throws Exception {
+    Database db = new Database(dbName);
+    Table<Integer> table = table(db);
+    Column value = table.getColumn("Value");
+    Transaction transaction = db.beginTransaction();
+    transaction.updateRow(table, 0).set(value, -1);
+    // the partition of the last row evicts the partition of the first row
+    transaction.updateRow(table, 1990).set(value, -1990);
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    String dbPath = Database.rootDir + dbName + File.separator;
+    int records = WriteAheadLog.read(dbPath).size();
+    Path tablePath = Paths.get(dbPath, "T");
+    Path hidden = Files.createTempDirectory("hdb");
+    try (Stream<Path> files = Files.list(tablePath)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        if (file.toString().endsWith(Partition.extension)) {
+          Files.move(file, hidden.resolve(file.getFileName()));
+        }
+      }
+    }
+    try {
+      transaction.commit();
+      check(false, "the transaction was committed without its partition");
+    } catch (HarambException e) {
+    } finally {
+      try (Stream<Path> files = Files.list(hidden)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Files.move(file, tablePath.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      Files.delete(hidden);
+    }
+    check(WriteAheadLog.read(dbPath).size() == records, "the failed transaction was logged");
+    check(Integer.valueOf(1990).equals(table.getRow(1990).get(value)), "the failed transaction was applied");
+    check(Integer.valueOf(0).equals(table.getRow(0).get(value)), "the failed transaction was applied");
+    db.close();
+    Database reopened = Database.load(dbName);
+    Table<Integer> reloaded = reopened.getTable("T", Integer.class);
+    check(Integer.valueOf(1990).equals(reloaded.getRow(1990).get(value)), "the failed transaction was recovered");
+    reopened.close();
+  }
+
+  private static void delete(String path) throws Exception {
+    if (!new File(path).exists()) {
+      return;
+    }
+    try (Stream<Path> files = Files.walk(Paths.get(path))) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
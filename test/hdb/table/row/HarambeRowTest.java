@@ -0,0 +1,88 @@
+package hdb.table.row;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import hdb.table.column.Column;
+import java.util.ArrayList;
+
+/**
+* Checks the versions of the rows and compareAndSet: a stale version is
+* rejected, concurrent increments are not lost and the listener is told of the
+* changes without holding the lock of the row.
+*
+* <p>This class is a member of the
+* <a href="{@docRoot}/index.html" target="_top">
+* HarambeDB database framework</a>.
+*
+* @author  Hermes Espínola
+* @author  Miguel Miranda
+* @see     HarambeRow
+*/
+public class HarambeRowTest {
+
+  public static void main(String[] args) throws Exception {
+    Column count = new Column(0, Integer.class);
+    Column note = new Column(1, String.class);
+    HarambeRow row = new HarambeRow(new Object[] {0, null});
+    AtomicInteger notified = new AtomicInteger();
+    row.setListener(new RowListener() {
+      public void rowChanged(Row changed) {
+      }
+
+      public void fieldChanged(Object key, Row changed, Column column, Object previous, Object value) {
+        check(!Thread.holdsLock(changed), "the listener is told holding the lock of the row");
+        notified.incrementAndGet();
+      }
+    });
+
+    long version = row.version();
+    check(row.version() == version, "the version changed without a change");
+    row.set(note, "a");
+    check(row.version() != version, "the version did not change");
+    check(!row.compareAndSet(version, r -> r.set(count, -1)), "a stale version was accepted");
+    check(Integer.valueOf(0).equals(row.get(count)), "the rejected mutator ran");
+
+    // the changes made before an exception are kept and told to the listener
+    notified.set(0);
+    try {
+      row.compareAndSet(row.version(), r -> {
+        r.set(note, "b");
+        throw new IllegalStateException();
+      });
+      check(false, "the exception of the mutator was lost");
+    } catch (IllegalStateException e) {
+    }
+    check("b".equals(row.get(note)) && notified.get() == 1, "the change before the exception is lost");
+
+    notified.set(0);
+    int threads = 4, increments = 5000;
+    ArrayList<Thread> incrementers = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      incrementers.add(new Thread(() -> {
+        for (int n = 0; n < increments; n++) {
+          while (true) {
+            long seen = row.version();
+            int current = row.copy().get(count);
+            if (row.compareAndSet(seen, r -> r.set(count, current + 1))) {
+              break;
+            }
+          }
+        }
+      }));
+    }
+    for (Thread thread : incrementers) {
+      thread.start();
+    }
+    for (Thread thread : incrementers) {
+      thread.join();
+    }
+    check(Integer.valueOf(threads * increments).equals(row.get(count)), "an increment was lost");
+    check(notified.get() == threads * increments, "a change was not told to the listener");
+    System.out.println("HarambeRowTest OK");
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}